@@ -17,6 +17,23 @@ dependencies {
     implementation("org.tinylog:tinylog-impl:2.6.1")
 }
 
+sourceSets {
+    create("jmh") {
+        compileClasspath += sourceSets.main.get().output
+        runtimeClasspath += sourceSets.main.get().output
+    }
+}
+
+val jmhImplementation: Configuration by configurations.getting {
+    extendsFrom(configurations.implementation.get())
+}
+val jmhAnnotationProcessor: Configuration by configurations.getting
+
+dependencies {
+    jmhImplementation("org.openjdk.jmh:jmh-core:1.36")
+    jmhAnnotationProcessor("org.openjdk.jmh:jmh-generator-annprocess:1.36")
+}
+
 java {
     sourceCompatibility = JavaVersion.VERSION_11
     targetCompatibility = JavaVersion.VERSION_11
@@ -28,8 +45,23 @@ application {
 
 tasks.test {
     useJUnitPlatform()
+    // bitmap containers allocate 512 MB each
+    maxHeapSize = "2g"
+    // mutable JDK classes are copied field by field in tests, e.g. DateTimeFormatterBuilder
+    jvmArgs("--add-opens", "java.base/java.time.format=ALL-UNNAMED")
 }
 
 tasks.getByName("run", JavaExec::class) {
     standardInput = System.`in`
-}
\ No newline at end of file
+}
+
+// Benchmarks are run with the GC profiler to report allocation rate, e.g.
+// ./gradlew jmh -PjmhArgs="IPConverterBenchmark -f 1 -wi 2 -i 3"
+tasks.register<JavaExec>("jmh") {
+    group = "benchmark"
+    description = "Runs JMH benchmarks, JMH command line arguments are passed via -PjmhArgs"
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    val jmhArgs = project.findProperty("jmhArgs")?.toString()?.split(" ")?.filter { it.isNotBlank() } ?: emptyList()
+    args = listOf("-prof", "gc", "-rf", "json", "-rff", "$buildDir/jmh-result.json") + jmhArgs
+}
@@ -0,0 +1,142 @@
+package ru.tolboy.deepcopy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.tolboy.deepcopy.testentities.Man;
+import ru.tolboy.deepcopy.testentities.ManOfMen;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link CopyUtils#deepCopy}, {@link CopyUtils#copyInto} and {@link CopyProgram#newCopy} on object graphs of
+ * different shapes:
+ * <ul>
+ *     <li>SINGLE - one {@link Man} with a list of books</li>
+ *     <li>WIDE - a list of many independent {@link Man} objects</li>
+ *     <li>DEEP - a long chain of {@link ManOfMen}</li>
+ *     <li>TREE - a balanced binary tree of {@link ManOfMen}</li>
+ *     <li>SHARED - a tree where both children of every node are the same object</li>
+ *     <li>MAP - a large hash map of strings to {@link Man} objects</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CopyUtilsBenchmark {
+    private static final int WIDTH = 1000;
+    private static final int DEPTH = 200;
+    private static final int TREE_HEIGHT = 10;
+    private static final int MAP_SIZE = 100_000;
+
+    public enum Shape {
+        SINGLE, WIDE, DEEP, TREE, SHARED, MAP
+    }
+
+    @Param({"SINGLE", "WIDE", "DEEP", "TREE", "SHARED", "MAP"})
+    public Shape shape;
+
+    /**
+     * Min size of collections copied in parallel, 0 is the sequential copy
+     */
+    @Param({"0"})
+    public int parallelThreshold;
+
+    private Object graph;
+    private Object target;
+    private CopyOptions options;
+    private CopyProgram<Object> program;
+
+    @Setup
+    public void setUp() {
+        options = CopyOptions.DEFAULT.withParallelThreshold(parallelThreshold);
+        switch (shape) {
+            case SINGLE:
+                graph = man(0);
+                break;
+            case WIDE:
+                List<Man> men = new ArrayList<>(WIDTH);
+                for (int i = 0; i < WIDTH; i++) {
+                    men.add(man(i));
+                }
+                graph = men;
+                break;
+            case DEEP:
+                ManOfMen chain = new ManOfMen(null, null);
+                for (int i = 1; i < DEPTH; i++) {
+                    chain = new ManOfMen(chain, null);
+                }
+                graph = chain;
+                break;
+            case TREE:
+                graph = tree(TREE_HEIGHT, false);
+                break;
+            case SHARED:
+                graph = tree(TREE_HEIGHT, true);
+                break;
+            case MAP:
+                Map<String, Man> map = new HashMap<>();
+                for (int i = 0; i < MAP_SIZE; i++) {
+                    map.put("key" + i, man(i));
+                }
+                graph = map;
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported shape: " + shape);
+        }
+        target = CopyUtils.deepCopy(graph);
+        program = CopyUtils.compile(graph, options);
+    }
+
+    @Benchmark
+    public Object deepCopy() {
+        return CopyUtils.deepCopy(graph, options);
+    }
+
+    /**
+     * Steady state of copying a template into the same graph over and over
+     */
+    @Benchmark
+    public Object copyInto() {
+        return CopyUtils.copyInto(graph, target, options);
+    }
+
+    /**
+     * Copies of a prototype compiled once, the graph is not walked again
+     */
+    @Benchmark
+    public Object compiledCopy() {
+        return program.newCopy();
+    }
+
+    private static Man man(int index) {
+        List<String> books = new ArrayList<>(List.of("Dune", "Neuromancer", "Snow Crash"));
+        return new Man("Man_" + index, 20 + index % 50, books);
+    }
+
+    private static ManOfMen tree(int height, boolean shared) {
+        if (height == 0) {
+            return null;
+        }
+        ManOfMen left = tree(height - 1, shared);
+        ManOfMen node = new ManOfMen(left, shared ? left : tree(height - 1, false));
+        node.setPossibilities(EnumSet.of(ManOfMen.Possibilities.KICK));
+        return node;
+    }
+}
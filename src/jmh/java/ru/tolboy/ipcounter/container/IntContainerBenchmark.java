@@ -0,0 +1,112 @@
+package ru.tolboy.ipcounter.container;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link IntContainer#add} and {@link IntContainer#countDistinct} for every container type at several
+ * densities: the numbers are drawn from 2^densityBits distinct values spread over the whole int range.
+ * <p>
+ * Every invocation of {@link #add} fills an empty container, so it measures real inserts including the growth of
+ * partitions, while {@link #countDistinct} counts a container filled once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class IntContainerBenchmark {
+    private static final int BATCH = 1 << 20;
+
+    @Param({"BITSET", "CONCURRENT", "ROARING", "HLL"})
+    public ContainerType containerType;
+
+    /**
+     * Number of distinct values is 2^densityBits
+     */
+    @Param({"16", "24", "32"})
+    public int densityBits;
+
+    private IntContainer filled;
+    private int[] numbers;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        filled = create(containerType);
+        Random random = new Random(42);
+        numbers = new int[BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            // the low bits are spread by a multiplication, so the values are not clustered in one place
+            numbers[i] = (int) ((random.nextInt() & ((1L << densityBits) - 1)) * 0x9E3779B1L);
+        }
+        for (int number : numbers) {
+            filled.add(number);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public IntContainer add(Empty empty) {
+        for (int number : numbers) {
+            empty.container.add(number);
+        }
+        return empty.container;
+    }
+
+    @Benchmark
+    public long countDistinct() {
+        return filled.countDistinct();
+    }
+
+    /**
+     * Empty container for one invocation of {@link #add}
+     */
+    @State(Scope.Thread)
+    public static class Empty {
+        private IntContainer container;
+
+        /**
+         * Bitmaps are cleared rather than allocated again, 512 MB per invocation would keep the collector busy
+         */
+        @Setup(Level.Invocation)
+        public void reset(IntContainerBenchmark benchmark) {
+            boolean bitmap = benchmark.containerType == ContainerType.BITSET
+                    || benchmark.containerType == ContainerType.CONCURRENT;
+            if (bitmap && container != null) {
+                container.clear();
+            } else {
+                container = create(benchmark.containerType);
+            }
+        }
+    }
+
+    private static IntContainer create(ContainerType type) {
+        switch (type) {
+            case BITSET:
+                return new BitSetContainer();
+            case CONCURRENT:
+                return new ConcurrentBitmapContainer();
+            case ROARING:
+                return new RoaringContainer();
+            case HLL:
+                return new HyperLogLogContainer();
+            default:
+                throw new IllegalArgumentException("Unsupported container type: " + type);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package ru.tolboy.ipcounter.converter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of parsing one block of 64K lines: string by string as {@code Files.lines} does, line by line from
+ * bytes and the whole block in one call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IPConverterBenchmark {
+    private static final int LINES = 1 << 16;
+
+    /**
+     * Percent of malformed lines
+     */
+    @Param({"0", "10"})
+    public int malformedPercent;
+
+    private final IPConverter converter = new IPConverter();
+    private String[] lines;
+    private ByteBuffer block;
+    private int[] lineStarts;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        lines = new String[LINES];
+        StringBuilder text = new StringBuilder();
+        lineStarts = new int[LINES + 1];
+        for (int i = 0; i < LINES; i++) {
+            lines[i] = random.nextInt(100) < malformedPercent
+                    ? "10.0.0.x" + i
+                    : random.nextInt(256) + "." + random.nextInt(256) + "." + random.nextInt(256) + "." + random.nextInt(256);
+            lineStarts[i] = text.length();
+            text.append(lines[i]).append('\n');
+        }
+        lineStarts[LINES] = text.length();
+        block = ByteBuffer.allocateDirect(text.length());
+        block.put(text.toString().getBytes(StandardCharsets.US_ASCII)).flip();
+    }
+
+    @Benchmark
+    public void applyAsIntStrings(Blackhole blackhole) {
+        for (String line : lines) {
+            try {
+                blackhole.consume(converter.applyAsInt(line));
+            } catch (IllegalArgumentException e) {
+                blackhole.consume(e);
+            }
+        }
+    }
+
+    @Benchmark
+    public void parseByteRanges(Blackhole blackhole) {
+        for (int i = 0; i < LINES; i++) {
+            blackhole.consume(IPConverter.parse(block, lineStarts[i], lineStarts[i + 1] - 1));
+        }
+    }
+
+    @Benchmark
+    public ParseStats parseLinesBlock(Blackhole blackhole) {
+        ParseStats stats = new ParseStats();
+        IPConverter.parseLines(block, 0, block.limit(), blackhole::consume, stats);
+        return stats;
+    }
+}
@@ -0,0 +1,83 @@
+package ru.tolboy.ipcounter.scanner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.tolboy.ipcounter.container.RoaringContainer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole-file scanning throughput of every {@link ScanMode}. The file is generated once per trial, a fresh
+ * {@link RoaringContainer} is filled by every invocation, so the time is dominated by reading and parsing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ScannerBenchmark {
+
+    @Param({"MMAP", "PIPELINE", "LINES"})
+    public ScanMode mode;
+
+    @Param({"4"})
+    public int threads;
+
+    @Param({"4000000"})
+    public int lines;
+
+    private Path file;
+    private IPScanner scanner;
+
+    @Setup
+    public void setUp() throws IOException {
+        file = Files.createTempFile("ip-benchmark-", ".txt");
+        Random random = new Random(42);
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.US_ASCII)) {
+            for (int i = 0; i < lines; i++) {
+                writer.write(random.nextInt(256) + "." + random.nextInt(256) + "."
+                        + random.nextInt(256) + "." + random.nextInt(256));
+                writer.newLine();
+            }
+        }
+        switch (mode) {
+            case MMAP:
+                scanner = new MappedChunkScanner(threads, RoaringContainer::new);
+                break;
+            case PIPELINE:
+                scanner = new PipelinedScanner(threads, RoaringContainer::new);
+                break;
+            default:
+                scanner = new LineStreamScanner();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public long scan() throws IOException {
+        RoaringContainer container = new RoaringContainer();
+        scanner.scan(file, container);
+        return container.countDistinct();
+    }
+}
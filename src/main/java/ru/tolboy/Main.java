@@ -3,7 +3,11 @@ package ru.tolboy;
 import ru.tolboy.deepcopy.RunnerDeepCopy;
 import ru.tolboy.deepcopy.testentities.Man;
 import ru.tolboy.ipcounter.RunnerIPCounter;
+import ru.tolboy.ipcounter.RunnerIPGenerator;
+import ru.tolboy.ipcounter.RunnerIPService;
+import ru.tolboy.ipcounter.RunnerIPOverlap;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -13,10 +17,31 @@ public class Main {
 
     private static final int THREAD_LIMIT = 2;
     private static final String TASK_SEPARATOR = "***";
+    private static final String OVERLAP_COMMAND = "overlap";
+    private static final String GENERATE_COMMAND = "generate";
+    private static final String SERVE_COMMAND = "serve";
 
     public static void main(String[] args) throws Exception {
         // Task threads container init
         ExecutorService executor = Executors.newFixedThreadPool(THREAD_LIMIT);
+        if (args.length > 0 && OVERLAP_COMMAND.equals(args[0])) {
+            // IPs overlap task only
+            executor.submit(new RunnerIPOverlap(Arrays.copyOfRange(args, 1, args.length))).get();
+            executor.shutdown();
+            return;
+        }
+        if (args.length > 0 && GENERATE_COMMAND.equals(args[0])) {
+            // Test file generation only
+            executor.submit(new RunnerIPGenerator(Arrays.copyOfRange(args, 1, args.length))).get();
+            executor.shutdown();
+            return;
+        }
+        if (args.length > 0 && SERVE_COMMAND.equals(args[0])) {
+            // Counting jobs service only, it runs until it is shut down
+            executor.submit(new RunnerIPService(Arrays.copyOfRange(args, 1, args.length))).get();
+            executor.shutdown();
+            return;
+        }
         // Deep-clone task
         consoleTaskSeparatorRepeater();
         Man originalMan = new Man("Smith", 40, List.of("Book_1", "Book_2", "Book_3"));
@@ -0,0 +1,314 @@
+package ru.tolboy.deepcopy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Generates a {@link GeneratedCopier} for one class as a hidden class, a nestmate of the copied class.
+ * <p>
+ * The class file is written by hand, its copy method is straight-line code: every field is read with
+ * {@code getfield} and written with {@code putfield}, values of fields which are not known to be immutable are
+ * passed through {@link GeneratedCopier#copy} with the context of the copy operation. There are no branches, so no
+ * stack map frames are needed.
+ * <p>
+ * Hidden classes appeared in Java 15, the project targets Java 11, so they are defined through reflection, on
+ * older runtimes {@link #isSupported()} is false and classes are copied by their {@link CopyPlan}.
+ */
+final class CopierGenerator {
+    private static final int CLASS_VERSION = 55;
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int ALOAD_2 = 0x2c;
+    private static final int ALOAD_3 = 0x2d;
+    private static final int RETURN = 0xb1;
+    private static final int GETFIELD = 0xb4;
+    private static final int PUTFIELD = 0xb5;
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int CHECKCAST = 0xc0;
+    private static final String COPIER = internalName(GeneratedCopier.class);
+    private static final String OBJECT_DESCRIPTOR = "Ljava/lang/Object;";
+    private static final String CONTEXT_DESCRIPTOR = "L" + internalName(CopyContext.class) + ";";
+
+    private static final Method DEFINE_HIDDEN_CLASS;
+    private static final Object NESTMATE;
+
+    static {
+        Method defineHiddenClass = null;
+        Object nestmate = null;
+        try {
+            Class<?> option = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+            defineHiddenClass = MethodHandles.Lookup.class.getMethod("defineHiddenClass",
+                    byte[].class, boolean.class, Array.newInstance(option, 0).getClass());
+            nestmate = Array.newInstance(option, 1);
+            Array.set(nestmate, 0, option.getField("NESTMATE").get(null));
+        } catch (ReflectiveOperationException e) {
+            // Java 14 or older
+            defineHiddenClass = null;
+        }
+        DEFINE_HIDDEN_CLASS = defineHiddenClass;
+        NESTMATE = nestmate;
+    }
+
+    private CopierGenerator() {
+    }
+
+    /**
+     * @return whether hidden classes are available at runtime
+     */
+    static boolean isSupported() {
+        return DEFINE_HIDDEN_CLASS != null;
+    }
+
+    /**
+     * A field can be copied by generated code if it is declared by the class itself, so it is accessible to a
+     * nestmate, it is not final, and its type is accessible from the package of the class.
+     *
+     * @param type  - copied class
+     * @param field - instance field of the class or its superclass
+     * @return whether the generated copier can copy the field
+     */
+    static boolean isDirect(Class<?> type, Field field) {
+        return field.getDeclaringClass() == type
+                && !Modifier.isFinal(field.getModifiers())
+                && isAccessible(field.getType(), type);
+    }
+
+    /**
+     * @param type   - copied class
+     * @param fields - fields accepted by {@link #isDirect}
+     * @return new copier of the fields
+     */
+    static GeneratedCopier generate(Class<?> type, List<Field> fields) throws ReflectiveOperationException {
+        byte[] classFile = new ClassFileWriter(type, fields).write();
+        MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+        MethodHandles.Lookup hidden = (MethodHandles.Lookup) DEFINE_HIDDEN_CLASS.invoke(lookup, classFile, true,
+                NESTMATE);
+        try {
+            return (GeneratedCopier) hidden.findConstructor(hidden.lookupClass(), MethodType.methodType(void.class))
+                    .invoke();
+        } catch (ReflectiveOperationException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static boolean isAccessible(Class<?> fieldType, Class<?> from) {
+        Class<?> type = fieldType;
+        while (type.isArray()) {
+            type = type.getComponentType();
+        }
+        if (type.isPrimitive()) {
+            return true;
+        }
+        if (type.getClassLoader() == from.getClassLoader() && type.getPackageName().equals(from.getPackageName())) {
+            return true;
+        }
+        for (Class<?> enclosing = type; enclosing != null; enclosing = enclosing.getDeclaringClass()) {
+            if (!Modifier.isPublic(enclosing.getModifiers())) {
+                return false;
+            }
+        }
+        return type.getModule().isExported(type.getPackageName(), from.getModule());
+    }
+
+    private static boolean isImmutable(Class<?> fieldType) {
+        return fieldType.isPrimitive() || fieldType.isEnum() || fieldType == String.class;
+    }
+
+    private static String internalName(Class<?> type) {
+        return type.getName().replace('.', '/');
+    }
+
+    /**
+     * Writes the class file of a copier with a constructor and the {@code copyFields} method.
+     */
+    private static final class ClassFileWriter {
+        private final Class<?> type;
+        private final List<Field> fields;
+        private final ByteArrayOutputStream constants = new ByteArrayOutputStream();
+        private final DataOutputStream constantPool = new DataOutputStream(constants);
+        private final Map<String, Integer> constantIndexes = new HashMap<>();
+        private int constantCount = 1;
+
+        private ClassFileWriter(Class<?> type, List<Field> fields) {
+            this.type = type;
+            this.fields = fields;
+        }
+
+        private byte[] write() {
+            try {
+                String owner = internalName(type);
+                int thisClass = classConstant(owner + "$$Copier");
+                int superClass = classConstant(COPIER);
+                int code = utf8("Code");
+
+                ByteArrayOutputStream constructorCode = new ByteArrayOutputStream();
+                DataOutputStream constructor = new DataOutputStream(constructorCode);
+                constructor.writeByte(ALOAD_0);
+                constructor.writeByte(INVOKESPECIAL);
+                constructor.writeShort(memberConstant(10, COPIER, "<init>", "()V"));
+                constructor.writeByte(RETURN);
+
+                ByteArrayOutputStream copyCode = new ByteArrayOutputStream();
+                DataOutputStream copy = new DataOutputStream(copyCode);
+                int ownerClass = classConstant(owner);
+                for (Field field : fields) {
+                    String descriptor = descriptor(field.getType());
+                    int fieldRef = memberConstant(9, owner, field.getName(), descriptor);
+                    // target
+                    copy.writeByte(ALOAD_2);
+                    copy.writeByte(CHECKCAST);
+                    copy.writeShort(ownerClass);
+                    boolean deep = !isImmutable(field.getType());
+                    if (deep) {
+                        copy.writeByte(ALOAD_0);
+                        copy.writeByte(ALOAD_3);
+                    }
+                    // source.field
+                    copy.writeByte(ALOAD_1);
+                    copy.writeByte(CHECKCAST);
+                    copy.writeShort(ownerClass);
+                    copy.writeByte(GETFIELD);
+                    copy.writeShort(fieldRef);
+                    if (deep) {
+                        copy.writeByte(INVOKEVIRTUAL);
+                        copy.writeShort(memberConstant(10, COPIER, "copy",
+                                "(" + CONTEXT_DESCRIPTOR + OBJECT_DESCRIPTOR + ")" + OBJECT_DESCRIPTOR));
+                        copy.writeByte(CHECKCAST);
+                        copy.writeShort(classConstant(field.getType().isArray()
+                                ? descriptor : internalName(field.getType())));
+                    }
+                    copy.writeByte(PUTFIELD);
+                    copy.writeShort(fieldRef);
+                }
+                copy.writeByte(RETURN);
+
+                int constructorName = utf8("<init>");
+                int constructorDescriptor = utf8("()V");
+                int copyName = utf8("copyFields");
+                int copyDescriptor = utf8("(" + OBJECT_DESCRIPTOR + OBJECT_DESCRIPTOR + CONTEXT_DESCRIPTOR + ")V");
+
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeInt(0xCAFEBABE);
+                out.writeShort(0);
+                out.writeShort(CLASS_VERSION);
+                out.writeShort(constantCount);
+                constants.writeTo(out);
+                out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+                out.writeShort(thisClass);
+                out.writeShort(superClass);
+                out.writeShort(0); // interfaces
+                out.writeShort(0); // fields
+                out.writeShort(2); // methods
+                writeMethod(out, constructorName, constructorDescriptor, code, 1, 1, constructorCode.toByteArray());
+                // target, this, context and a value, or target and a value which may take two slots
+                writeMethod(out, copyName, copyDescriptor, code, 4, 4, copyCode.toByteArray());
+                out.writeShort(0); // attributes
+                return bytes.toByteArray();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private static void writeMethod(DataOutputStream out, int name, int descriptor, int codeAttribute,
+                                        int maxStack, int maxLocals, byte[] code) throws IOException {
+            out.writeShort(ACC_PUBLIC);
+            out.writeShort(name);
+            out.writeShort(descriptor);
+            out.writeShort(1);
+            out.writeShort(codeAttribute);
+            out.writeInt(2 + 2 + 4 + code.length + 2 + 2);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(code.length);
+            out.write(code);
+            out.writeShort(0); // exception table
+            out.writeShort(0); // attributes
+        }
+
+        private int utf8(String value) throws IOException {
+            Integer index = constantIndexes.get("U" + value);
+            if (index == null) {
+                constantPool.writeByte(1);
+                constantPool.writeUTF(value);
+                index = constantCount++;
+                constantIndexes.put("U" + value, index);
+            }
+            return index;
+        }
+
+        private int classConstant(String name) throws IOException {
+            Integer index = constantIndexes.get("C" + name);
+            if (index == null) {
+                int nameIndex = utf8(name);
+                constantPool.writeByte(7);
+                constantPool.writeShort(nameIndex);
+                index = constantCount++;
+                constantIndexes.put("C" + name, index);
+            }
+            return index;
+        }
+
+        /**
+         * @param tag - 9 for a field, 10 for a method
+         */
+        private int memberConstant(int tag, String owner, String name, String descriptor) throws IOException {
+            String key = tag + owner + "." + name + ":" + descriptor;
+            Integer index = constantIndexes.get(key);
+            if (index == null) {
+                int ownerIndex = classConstant(owner);
+                int nameIndex = utf8(name);
+                int descriptorIndex = utf8(descriptor);
+                constantPool.writeByte(12);
+                constantPool.writeShort(nameIndex);
+                constantPool.writeShort(descriptorIndex);
+                int nameAndType = constantCount++;
+                constantPool.writeByte(tag);
+                constantPool.writeShort(ownerIndex);
+                constantPool.writeShort(nameAndType);
+                index = constantCount++;
+                constantIndexes.put(key, index);
+            }
+            return index;
+        }
+
+        private static String descriptor(Class<?> type) {
+            if (type.isArray()) {
+                return type.getName().replace('.', '/');
+            }
+            if (type.isPrimitive()) {
+                return String.valueOf(primitiveDescriptor(type));
+            }
+            return "L" + internalName(type) + ";";
+        }
+
+        private static char primitiveDescriptor(Class<?> type) {
+            if (type == int.class) return 'I';
+            if (type == long.class) return 'J';
+            if (type == double.class) return 'D';
+            if (type == float.class) return 'F';
+            if (type == boolean.class) return 'Z';
+            if (type == byte.class) return 'B';
+            if (type == short.class) return 'S';
+            if (type == char.class) return 'C';
+            return 'V';
+        }
+    }
+}
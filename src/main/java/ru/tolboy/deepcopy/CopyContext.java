@@ -0,0 +1,524 @@
+package ru.tolboy.deepcopy;
+
+import java.lang.reflect.Array;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Stream;
+
+/**
+ * State of one {@link CopyUtils#deepCopy} call: copies of the objects visited so far, keyed by identity of the
+ * originals, and the work left to do. It keeps cycles and shared references within one copied graph, and it is
+ * never shared between copy operations, so concurrent copies do not need any locking.
+ * <p>
+ * The graph is traversed without recursion. {@link #copy} allocates an empty copy of an object, registers it and
+ * pushes the pair to an explicit stack, {@link #copyGraph} pops pairs and fills the copies, which discovers more
+ * objects. So the depth of the graph is limited by the heap only.
+ * <p>
+ * Sets and maps are filled last: hash codes and ordering of their elements may depend on the content of the
+ * elements, which is complete only when the stack is empty. They are filled in dependency order, by a post-order
+ * walk over the collection graph: the sets and maps reachable from the elements through other sets, maps, lists and
+ * arrays are filled before the elements are inserted, however they were discovered. Sets and maps reachable through
+ * fields of other objects only keep the reverse order of discovery.
+ * <p>
+ * {@link #copyGraphInto} copies a graph into an existing one: objects of the target graph are reused where their
+ * classes and sizes match, they are scheduled on a separate stack and overwritten in place.
+ * <p>
+ * In the parallel mode elements of large arrays, lists, sets and maps are copied by fork/join tasks, every task
+ * has its own stack. Copies are registered in a concurrent map shared by the tasks: when two tasks meet the same
+ * object, the first registered copy wins and is filled by its task, the other copy is dropped.
+ * <p>
+ * Visited references and cache hits are always counted. Time and size of copies per class are measured only if
+ * {@link CopyStats} are requested or a {@link CopyEvent} is being recorded, counters of fork/join tasks are added
+ * to their parent context when the tasks complete.
+ */
+final class CopyContext {
+    private final boolean immutableSharing;
+    private final int parallelThreshold;
+    private final Map<Object, Object> copies;
+    private final ConcurrentMap<Identity, Object> sharedCopies;
+    // pairs of original and copy objects
+    private final ArrayDeque<Object> pending = new ArrayDeque<>();
+    // pairs of original and reused target objects
+    private final ArrayDeque<Object> pendingInto = new ArrayDeque<>();
+    // target objects reused so far
+    private Map<Object, Boolean> reused;
+    // pairs of copy collections and copies of their content
+    private final List<Object> deferred;
+    private final CopyStats stats;
+    // null in the contexts of fork/join tasks
+    private final CopyEvent event;
+    // copies, nanoseconds and estimated bytes per class, null if copies are not measured
+    private final Map<Class<?>, long[]> classes;
+    private long visited;
+    private long cacheHits;
+
+    CopyContext(CopyOptions options) {
+        this.immutableSharing = options.isImmutableSharing();
+        this.parallelThreshold = options.getParallelThreshold();
+        this.stats = options.getStats();
+        this.event = new CopyEvent();
+        this.classes = stats != null || event.isEnabled() ? new HashMap<>() : null;
+        if (parallelThreshold > 0) {
+            this.copies = null;
+            this.sharedCopies = new ConcurrentHashMap<>();
+            this.deferred = Collections.synchronizedList(new ArrayList<>());
+        } else {
+            this.copies = new IdentityHashMap<>();
+            this.sharedCopies = null;
+            this.deferred = new ArrayList<>();
+        }
+    }
+
+    private CopyContext(CopyContext parent) {
+        this.immutableSharing = parent.immutableSharing;
+        this.parallelThreshold = parent.parallelThreshold;
+        this.copies = null;
+        this.sharedCopies = parent.sharedCopies;
+        this.deferred = parent.deferred;
+        this.stats = null;
+        this.event = null;
+        this.classes = parent.classes == null ? null : new HashMap<>();
+    }
+
+    /**
+     * @param root - root of the graph to copy
+     * @return deep copy of the whole graph
+     */
+    <T> T copyGraph(T root) throws Exception {
+        long start = begin();
+        T copy = copy(root);
+        complete();
+        end(root, false, start);
+        return copy;
+    }
+
+    /**
+     * @param root   - root of the graph to copy
+     * @param target - root of an existing graph to reuse
+     * @return the target overwritten with a deep copy of the graph, or a new copy if the target cannot be reused
+     */
+    <T> T copyGraphInto(T root, T target) throws Exception {
+        long start = begin();
+        T copy = reuse(root, target);
+        complete();
+        end(root, true, start);
+        return copy;
+    }
+
+    /**
+     * @param value - original object
+     * @return copy of the object within this context, its content may be not copied yet
+     */
+    @SuppressWarnings("unchecked")
+    <T> T copy(T value) throws Exception {
+        if (value == null) {
+            return null;
+        }
+        visited++;
+        Object copy = copyOf(value);
+        if (copy != null) {
+            cacheHits++;
+            return (T) copy;
+        }
+        return create(value);
+    }
+
+    /**
+     * Copy an object into an existing one, if the existing object has the same class and size and it has not been
+     * reused yet, otherwise create a new copy
+     *
+     * @param value    - original object
+     * @param existing - object of the target graph at the same place
+     * @return copy of the object within this context, its content may be not copied yet
+     */
+    @SuppressWarnings("unchecked")
+    <T> T reuse(T value, Object existing) throws Exception {
+        if (value == null) {
+            return null;
+        }
+        visited++;
+        Object copy = copyOf(value);
+        if (copy != null) {
+            cacheHits++;
+            return (T) copy;
+        }
+        if (existing == null || existing == value || existing.getClass() != value.getClass()
+                || (immutableSharing && ImmutableTypes.isImmutableValue(value))
+                || !CopyUtils.isReusable(value, existing)) {
+            return create(value);
+        }
+        if (reused == null) {
+            reused = new IdentityHashMap<>();
+        }
+        if (reused.put(existing, Boolean.TRUE) != null) {
+            return create(value);
+        }
+        register(value, existing);
+        if (value.getClass().isArray() && value.getClass().getComponentType().isPrimitive()) {
+            System.arraycopy(value, 0, existing, 0, Array.getLength(value));
+        } else {
+            pendingInto.push(existing);
+            pendingInto.push(value);
+        }
+        return (T) existing;
+    }
+
+    /**
+     * Copy every element of an array, in parallel if there are enough elements
+     *
+     * @param originals - original elements
+     * @param target    - array for copies of the elements, it may be the same array
+     */
+    void copyAll(Object[] originals, Object[] target) throws Exception {
+        if (parallelThreshold > 0 && originals.length >= parallelThreshold) {
+            int chunk = Math.max(1, originals.length / (4 * ForkJoinPool.getCommonPoolParallelism()));
+            RangeCopy task = new RangeCopy(this, originals, target, 0, originals.length, chunk);
+            try {
+                if (ForkJoinTask.inForkJoinPool()) {
+                    task.invoke();
+                } else {
+                    ForkJoinPool.commonPool().invoke(task);
+                }
+            } catch (RangeCopyException e) {
+                throw (Exception) e.getCause();
+            }
+        } else {
+            for (int i = 0; i < originals.length; i++) {
+                target[i] = copy(originals[i]);
+            }
+        }
+    }
+
+    /**
+     * @param size - number of elements in a collection
+     * @return whether the elements are copied in parallel
+     */
+    boolean isParallel(int size) {
+        return parallelThreshold > 0 && size >= parallelThreshold;
+    }
+
+    /**
+     * @param value - original value
+     * @return whether the value is not copied at all: strings, enums, booleans, characters, and all immutable values
+     * in the sharing mode
+     */
+    boolean isShared(Object value) {
+        return isShared(value, immutableSharing);
+    }
+
+    /**
+     * @param value            - original value
+     * @param immutableSharing - whether immutable values are shared
+     * @return whether the value is not copied at all
+     */
+    static boolean isShared(Object value, boolean immutableSharing) {
+        return value == null || value instanceof String || value instanceof Enum
+                || value instanceof Boolean || value instanceof Character
+                || (immutableSharing && ImmutableTypes.isImmutableValue(value));
+    }
+
+    /**
+     * @param values - original values
+     * @return whether none of the values is copied
+     */
+    boolean allShared(Collection<?> values) {
+        for (Object value : values) {
+            if (!isShared(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Register a copy which needs no filling, so other references to the original resolve to it
+     *
+     * @param original - original object
+     * @param copy     - its copy
+     * @return the registered copy, it differs from the given one if another task has registered its copy first
+     */
+    Object register(Object original, Object copy) {
+        if (sharedCopies == null) {
+            copies.put(original, copy);
+            return copy;
+        }
+        Object registered = sharedCopies.putIfAbsent(new Identity(original), copy);
+        return registered == null ? copy : registered;
+    }
+
+    /**
+     * Register an empty copy and schedule copying of the content of the original into it
+     *
+     * @param original - original object
+     * @param copy     - its empty copy
+     * @return the registered copy, it differs from the given one if another task has registered its copy first
+     */
+    Object schedule(Object original, Object copy) {
+        Object registered = register(original, copy);
+        if (registered == copy) {
+            pending.push(copy);
+            pending.push(original);
+        }
+        return registered;
+    }
+
+    /**
+     * Postpone filling of a set or a map until all other objects are complete. It is called before the content
+     * is copied, so the enclosing collections are always deferred before the nested ones.
+     *
+     * @param copy     - empty copy of a set or a map
+     * @param contents - copies of elements, or of keys and values interleaved, once they are copied
+     */
+    void defer(Object copy, Object[] contents) {
+        synchronized (deferred) {
+            deferred.add(copy);
+            deferred.add(contents);
+        }
+    }
+
+    private <T> T create(T value) throws Exception {
+        if (classes == null) {
+            return CopyUtils.createCopy(value, this);
+        }
+        long start = System.nanoTime();
+        T copy = CopyUtils.createCopy(value, this);
+        if (copy != value) {
+            measure(value.getClass(), 1, System.nanoTime() - start, CopyStats.estimateSize(value));
+        }
+        return copy;
+    }
+
+    private void measure(Class<?> type, long copies, long nanos, long bytes) {
+        long[] counters = classes.computeIfAbsent(type, key -> new long[3]);
+        counters[0] += copies;
+        counters[1] += nanos;
+        counters[2] += bytes;
+    }
+
+    /**
+     * Add counters of a fork/join task which has completed
+     */
+    private synchronized void merge(CopyContext child) {
+        visited += child.visited;
+        cacheHits += child.cacheHits;
+        if (classes != null) {
+            for (Map.Entry<Class<?>, long[]> entry : child.classes.entrySet()) {
+                long[] counters = entry.getValue();
+                measure(entry.getKey(), counters[0], counters[1], counters[2]);
+            }
+        }
+    }
+
+    private long begin() {
+        event.begin();
+        return stats == null ? 0 : System.nanoTime();
+    }
+
+    private void end(Object root, boolean into, long start) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.rootClass = root == null ? null : root.getClass();
+            event.into = into;
+            event.visited = visited;
+            event.cacheHits = cacheHits;
+            if (classes != null) {
+                for (long[] counters : classes.values()) {
+                    event.copies += counters[0];
+                    event.estimatedBytes += counters[2];
+                }
+            }
+            event.commit();
+        }
+        if (stats != null) {
+            stats.add(System.nanoTime() - start, visited, cacheHits, classes);
+        }
+    }
+
+    private Object copyOf(Object value) {
+        return sharedCopies == null ? copies.get(value) : sharedCopies.get(new Identity(value));
+    }
+
+    private void complete() throws Exception {
+        drain();
+        while (!pendingInto.isEmpty()) {
+            Object original = pendingInto.pop();
+            long start = classes == null ? 0 : System.nanoTime();
+            CopyUtils.fillInto(original, pendingInto.pop(), this);
+            if (classes != null) {
+                measure(original.getClass(), 0, System.nanoTime() - start, 0);
+            }
+            drain();
+        }
+        if (deferred.isEmpty()) {
+            return;
+        }
+        Map<Object, Object[]> unfilled = new IdentityHashMap<>();
+        for (int i = 0; i < deferred.size(); i += 2) {
+            unfilled.put(deferred.get(i), (Object[]) deferred.get(i + 1));
+        }
+        Map<Object, Boolean> visited = new IdentityHashMap<>();
+        for (int i = deferred.size() - 2; i >= 0; i -= 2) {
+            fillAfterDependencies(deferred.get(i), unfilled, visited);
+        }
+    }
+
+    /**
+     * Fill a deferred set or map after the deferred ones reachable from its content, without recursion
+     *
+     * @param root     - deferred copy
+     * @param unfilled - contents of the deferred copies which are not filled yet
+     * @param visited  - containers walked so far, a container in a cycle is filled when the walk returns to it
+     */
+    private void fillAfterDependencies(Object root, Map<Object, Object[]> unfilled, Map<Object, Boolean> visited) {
+        if (visited.put(root, Boolean.TRUE) != null) {
+            return;
+        }
+        // pairs of containers and iterators over their content
+        ArrayDeque<Object> path = new ArrayDeque<>();
+        path.push(root);
+        path.push(children(root, unfilled));
+        while (!path.isEmpty()) {
+            Iterator<?> children = (Iterator<?>) path.peek();
+            if (children.hasNext()) {
+                Object child = children.next();
+                if (isContainer(child) && visited.put(child, Boolean.TRUE) == null) {
+                    path.push(child);
+                    path.push(children(child, unfilled));
+                }
+                continue;
+            }
+            path.pop();
+            Object container = path.pop();
+            Object[] contents = unfilled.remove(container);
+            if (contents != null) {
+                long start = classes == null ? 0 : System.nanoTime();
+                CopyUtils.fillDeferred(container, contents);
+                if (classes != null) {
+                    measure(container.getClass(), 0, System.nanoTime() - start, 0);
+                }
+            }
+        }
+    }
+
+    private static boolean isContainer(Object value) {
+        return value instanceof Collection || value instanceof Map || value instanceof Object[];
+    }
+
+    /**
+     * @return copies of the elements of a deferred container or the content of a complete one
+     */
+    private static Iterator<?> children(Object container, Map<Object, Object[]> unfilled) {
+        Object[] contents = unfilled.get(container);
+        if (contents != null) {
+            return Arrays.asList(contents).iterator();
+        }
+        if (container instanceof Object[]) {
+            return Arrays.asList((Object[]) container).iterator();
+        }
+        if (container instanceof Map) {
+            return ((Map<?, ?>) container).entrySet().stream()
+                    .flatMap(entry -> Stream.of(entry.getKey(), entry.getValue()))
+                    .iterator();
+        }
+        return ((Collection<?>) container).iterator();
+    }
+
+    private void drain() throws Exception {
+        while (!pending.isEmpty()) {
+            Object original = pending.pop();
+            if (classes == null) {
+                CopyUtils.fillCopy(original, pending.pop(), this);
+                continue;
+            }
+            long start = System.nanoTime();
+            CopyUtils.fillCopy(original, pending.pop(), this);
+            measure(original.getClass(), 0, System.nanoTime() - start, 0);
+        }
+    }
+
+    /**
+     * Copies a range of elements with its own context and stack
+     */
+    private static final class RangeCopy extends RecursiveAction {
+        private final CopyContext parent;
+        private final Object[] originals;
+        private final Object[] target;
+        private final int from;
+        private final int to;
+        private final int chunk;
+
+        private RangeCopy(CopyContext parent, Object[] originals, Object[] target, int from, int to, int chunk) {
+            this.parent = parent;
+            this.originals = originals;
+            this.target = target;
+            this.from = from;
+            this.to = to;
+            this.chunk = chunk;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > chunk) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new RangeCopy(parent, originals, target, from, middle, chunk),
+                        new RangeCopy(parent, originals, target, middle, to, chunk));
+                return;
+            }
+            CopyContext context = new CopyContext(parent);
+            try {
+                for (int i = from; i < to; i++) {
+                    target[i] = context.copy(originals[i]);
+                }
+                context.drain();
+                parent.merge(context);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RangeCopyException(e);
+            }
+        }
+    }
+
+    /**
+     * Carries a checked exception out of a fork/join task
+     */
+    private static final class RangeCopyException extends RuntimeException {
+        private RangeCopyException(Exception cause) {
+            super(cause);
+        }
+    }
+
+    /**
+     * Key of the shared map which compares objects by identity
+     */
+    private static final class Identity {
+        private final Object value;
+
+        private Identity(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(value);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Identity && ((Identity) other).value == value;
+        }
+    }
+}
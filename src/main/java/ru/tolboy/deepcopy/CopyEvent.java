@@ -0,0 +1,43 @@
+package ru.tolboy.deepcopy;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight Recorder event of a slow copy operation. It is recorded only while a recording with the event enabled is
+ * running, the default threshold is 20 ms. Without a recording the event costs one allocation, which is usually
+ * eliminated by escape analysis.
+ */
+@Name("ru.tolboy.deepcopy.Copy")
+@Label("Deep Copy")
+@Category("Deep Copy")
+@Description("Copy of an object graph by CopyUtils")
+@Threshold("20 ms")
+final class CopyEvent extends Event {
+    @Label("Root Class")
+    Class<?> rootClass;
+
+    @Label("Into Existing Graph")
+    boolean into;
+
+    @Label("Visited")
+    @Description("References followed by the copy")
+    long visited;
+
+    @Label("Cache Hits")
+    @Description("References resolved to an object copied before")
+    long cacheHits;
+
+    @Label("Copies")
+    @Description("Objects allocated as copies")
+    long copies;
+
+    @Label("Estimated Bytes")
+    @DataAmount
+    long estimatedBytes;
+}
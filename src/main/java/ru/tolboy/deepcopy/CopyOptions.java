@@ -0,0 +1,69 @@
+package ru.tolboy.deepcopy;
+
+/**
+ * Options of {@link CopyUtils#deepCopy(Object, CopyOptions)}. Instances are immutable, every {@code with} method
+ * returns a new instance.
+ */
+public final class CopyOptions {
+    /**
+     * Everything but strings and enums is copied
+     */
+    public static final CopyOptions DEFAULT = new CopyOptions(false, 0, null);
+
+    private final boolean immutableSharing;
+    private final int parallelThreshold;
+    private final CopyStats stats;
+
+    private CopyOptions(boolean immutableSharing, int parallelThreshold, CopyStats stats) {
+        this.immutableSharing = immutableSharing;
+        this.parallelThreshold = parallelThreshold;
+        this.stats = stats;
+    }
+
+    /**
+     * @param immutableSharing - whether values proven immutable by {@link ImmutableTypes} are shared between the
+     *                         original and the copy instead of being copied
+     * @return options with the sharing mode
+     */
+    public CopyOptions withImmutableSharing(boolean immutableSharing) {
+        return new CopyOptions(immutableSharing, parallelThreshold, stats);
+    }
+
+    /**
+     * Elements of arrays, lists, sets and maps with at least the given number of elements are copied by fork/join
+     * tasks in the common pool. In the parallel mode an object reached by two tasks at once may be instantiated
+     * twice, one of the instances is dropped.
+     *
+     * @param parallelThreshold - min number of elements to copy in parallel, 0 disables the parallel mode
+     * @return options with the parallel mode
+     */
+    public CopyOptions withParallelThreshold(int parallelThreshold) {
+        if (parallelThreshold < 0) {
+            throw new IllegalArgumentException("Parallel threshold must not be negative: " + parallelThreshold);
+        }
+        return new CopyOptions(immutableSharing, parallelThreshold, stats);
+    }
+
+    /**
+     * Collect counters of every copy operation with these options. The collector is mutable, options with it are
+     * shared only by the copies which should be counted together.
+     *
+     * @param stats - collector of counters, null disables collection
+     * @return options with the collector
+     */
+    public CopyOptions withStats(CopyStats stats) {
+        return new CopyOptions(immutableSharing, parallelThreshold, stats);
+    }
+
+    public boolean isImmutableSharing() {
+        return immutableSharing;
+    }
+
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    public CopyStats getStats() {
+        return stats;
+    }
+}
@@ -0,0 +1,439 @@
+package ru.tolboy.deepcopy;
+
+import org.tinylog.Logger;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ * Everything needed to copy instances of one class: how to instantiate it and method handles for its instance
+ * fields, including the fields declared by superclasses. Static fields are not part of the plan.
+ * <p>
+ * Reflection is done once per class, plans are cached in a {@link ClassValue}, so they are unloaded together with
+ * their classes. Primitive fields are copied by one handle each which reads and writes the value without boxing.
+ * <p>
+ * After a class has been copied {@code deepcopy.compileThreshold} times (10000 by default, 0 disables it), a
+ * {@link GeneratedCopier} is generated for the fields it can access, the rest of the fields are still copied by
+ * method handles.
+ */
+final class CopyPlan {
+    private static final ClassValue<CopyPlan> PLANS = new ClassValue<CopyPlan>() {
+        @Override
+        protected CopyPlan computeValue(Class<?> type) {
+            return new CopyPlan(type);
+        }
+    };
+    private static final MethodType INSTANTIATE = MethodType.methodType(Object.class);
+    private static final MethodType CONSTRUCT = MethodType.methodType(Object.class, Object[].class);
+    private static final MethodType GET = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SET = MethodType.methodType(void.class, Object.class, Object.class);
+    private static final MethodType SET_BITS = MethodType.methodType(void.class, Object.class, long.class);
+    private static final int COMPILE_THRESHOLD = Integer.getInteger("deepcopy.compileThreshold", 10_000);
+
+    private final Class<?> type;
+    private final MethodHandle defaultConstructor;
+    private final MethodHandle constructor;
+    private final MethodHandle[] constructorArguments;
+    private final Field[] primitiveFields;
+    private final MethodHandle[] primitiveCopiers;
+    private final MethodHandle[] primitiveSetters;
+    private final Field[] referenceFields;
+    private final MethodHandle[] referenceGetters;
+    private final MethodHandle[] referenceSetters;
+    private final int[] allPrimitives;
+    private final int[] allReferences;
+    private volatile Compiled compiled;
+    // copies of all threads, it is not counted anymore once the copier is generated or has failed
+    private final AtomicInteger copies = new AtomicInteger();
+    private final AtomicBoolean compileAttempted = new AtomicBoolean();
+
+    private CopyPlan(Class<?> type) {
+        this.type = type;
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        List<Field> primitiveFields = new ArrayList<>();
+        List<MethodHandle> primitives = new ArrayList<>();
+        List<MethodHandle> setters = new ArrayList<>();
+        List<Field> references = new ArrayList<>();
+        try {
+            for (Class<?> declaring = type; declaring != null && declaring != Object.class;
+                 declaring = declaring.getSuperclass()) {
+                for (Field field : declaring.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    if (field.getType().isPrimitive()) {
+                        // (target, source) -> target.field = source.field
+                        primitiveFields.add(field);
+                        primitives.add(MethodHandles.filterArguments(
+                                lookup.unreflectSetter(field), 1, lookup.unreflectGetter(field)).asType(SET));
+                        // (target, bits) -> target.field = decoded bits
+                        setters.add(MethodHandles.filterArguments(
+                                lookup.unreflectSetter(field), 1, fromBits(field.getType())).asType(SET_BITS));
+                    } else {
+                        references.add(field);
+                    }
+                }
+            }
+            this.primitiveFields = primitiveFields.toArray(new Field[0]);
+            this.primitiveCopiers = primitives.toArray(new MethodHandle[0]);
+            this.primitiveSetters = setters.toArray(new MethodHandle[0]);
+            this.allPrimitives = IntStream.range(0, this.primitiveFields.length).toArray();
+            this.referenceFields = references.toArray(new Field[0]);
+            this.referenceGetters = new MethodHandle[referenceFields.length];
+            this.referenceSetters = new MethodHandle[referenceFields.length];
+            for (int i = 0; i < referenceFields.length; i++) {
+                referenceGetters[i] = lookup.unreflectGetter(referenceFields[i]).asType(GET);
+                referenceSetters[i] = lookup.unreflectSetter(referenceFields[i]).asType(SET);
+            }
+            this.allReferences = IntStream.range(0, referenceFields.length).toArray();
+
+            Constructor<?> noArgs = findDefaultConstructor(type);
+            if (noArgs != null) {
+                noArgs.setAccessible(true);
+                this.defaultConstructor = lookup.unreflectConstructor(noArgs).asType(INSTANTIATE);
+                this.constructor = null;
+                this.constructorArguments = null;
+            } else {
+                Constructor<?> maxParams = Arrays.stream(type.getDeclaredConstructors())
+                        .max(Comparator.comparingInt(Constructor::getParameterCount))
+                        .orElseThrow(NoSuchElementException::new);
+                maxParams.setAccessible(true);
+                this.defaultConstructor = null;
+                this.constructor = lookup.unreflectConstructor(maxParams)
+                        .asSpreader(Object[].class, maxParams.getParameterCount())
+                        .asType(CONSTRUCT);
+                this.constructorArguments = constructorArguments(lookup, type, maxParams.getParameterTypes());
+            }
+        } catch (IllegalAccessException | NoSuchMethodException e) {
+            throw new IllegalStateException("Cannot access members of " + type.getName(), e);
+        }
+    }
+
+    /**
+     * @param type - class of objects to copy
+     * @return cached plan of the class
+     */
+    static CopyPlan of(Class<?> type) {
+        return PLANS.get(type);
+    }
+
+    /**
+     * Create an instance with the default constructor. If there is none, the constructor with max parameters is
+     * used: every parameter gets the value of the declared field at the same position if their types match,
+     * or the default value of the parameter type otherwise. The fields are overwritten by the copy afterwards.
+     *
+     * @param original - object to copy
+     * @return new instance of the plan's class
+     */
+    Object newInstance(Object original) {
+        return instantiate(argumentsOf(original));
+    }
+
+    /**
+     * @param original - object to copy
+     * @return arguments of the constructor with max parameters, null if the class has a default constructor
+     */
+    Object[] argumentsOf(Object original) {
+        if (defaultConstructor != null) {
+            return null;
+        }
+        try {
+            Object[] args = new Object[constructorArguments.length];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = (Object) constructorArguments[i].invokeExact(original);
+            }
+            return args;
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException("Failed to read constructor arguments of " + type.getName(), e);
+        }
+    }
+
+    /**
+     * @param arguments - result of {@link #argumentsOf}, it is not modified
+     * @return new instance of the plan's class
+     */
+    Object instantiate(Object[] arguments) {
+        try {
+            if (arguments == null) {
+                return (Object) defaultConstructor.invokeExact();
+            }
+            return (Object) constructor.invokeExact(arguments);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException("Failed to instantiate " + type.getName(), e);
+        }
+    }
+
+    /**
+     * @return number of primitive instance fields
+     */
+    int primitiveCount() {
+        return primitiveFields.length;
+    }
+
+    /**
+     * @return number of reference instance fields
+     */
+    int referenceCount() {
+        return referenceFields.length;
+    }
+
+    /**
+     * Read a primitive field as raw bits: floating point values by their bit patterns, booleans as 0 or 1, other
+     * values widened to long
+     *
+     * @param field  - index of the primitive field
+     * @param source - object to read
+     * @return bits accepted by {@link #setPrimitiveBits}
+     */
+    long primitiveBits(int field, Object source) throws IllegalAccessException {
+        Object value = primitiveFields[field].get(source);
+        if (value instanceof Float) {
+            return Float.floatToRawIntBits((Float) value);
+        } else if (value instanceof Double) {
+            return Double.doubleToRawLongBits((Double) value);
+        } else if (value instanceof Boolean) {
+            return (Boolean) value ? 1 : 0;
+        } else if (value instanceof Character) {
+            return (Character) value;
+        }
+        return ((Number) value).longValue();
+    }
+
+    /**
+     * @param field  - index of the primitive field
+     * @param target - object to write
+     * @param bits   - value read by {@link #primitiveBits}
+     */
+    void setPrimitiveBits(int field, Object target, long bits) {
+        try {
+            primitiveSetters[field].invokeExact(target, bits);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param field  - index of the reference field
+     * @param source - object to read
+     * @return value of the field
+     */
+    Object reference(int field, Object source) {
+        try {
+            return (Object) referenceGetters[field].invokeExact(source);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param field  - index of the reference field
+     * @param target - object to write
+     * @param value  - new value of the field
+     */
+    void setReference(int field, Object target, Object value) {
+        try {
+            referenceSetters[field].invokeExact(target, value);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Copy primitive fields as is and reference fields deeply, with the generated copier if the class is hot
+     *
+     * @param source  - original object
+     * @param target  - copy
+     * @param context - context of the copy operation
+     */
+    void copyFields(Object source, Object target, CopyContext context) throws Exception {
+        Compiled fast = compiled;
+        if (fast != null) {
+            fast.copier.copyFields(source, target, context);
+            copyFields(source, target, context, fast.primitives, fast.references);
+            return;
+        }
+        if (COMPILE_THRESHOLD > 0 && !compileAttempted.get() && copies.incrementAndGet() >= COMPILE_THRESHOLD) {
+            compile();
+        }
+        copyFields(source, target, context, allPrimitives, allReferences);
+    }
+
+    /**
+     * Copy primitive fields as is and reference fields into the objects the target already references, where their
+     * shapes match. Generated copiers are not used, they always assign new values.
+     *
+     * @param source  - original object
+     * @param target  - existing object of the same class
+     * @param context - context of the copy operation
+     */
+    void copyFieldsInto(Object source, Object target, CopyContext context) throws Exception {
+        try {
+            for (MethodHandle copier : primitiveCopiers) {
+                copier.invokeExact(target, source);
+            }
+            for (int i = 0; i < referenceFields.length; i++) {
+                Object value = (Object) referenceGetters[i].invokeExact(source);
+                Object existing = (Object) referenceGetters[i].invokeExact(target);
+                referenceSetters[i].invokeExact(target, context.reuse(value, existing));
+            }
+        } catch (Exception | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Generate a copier for the fields it can access, once: only the thread which wins the flag generates it,
+     * the others go on with method handles
+     */
+    void compile() {
+        if (!compileAttempted.compareAndSet(false, true)) {
+            return;
+        }
+        if (!CopierGenerator.isSupported()) {
+            return;
+        }
+        List<Field> direct = new ArrayList<>();
+        List<Integer> primitives = new ArrayList<>();
+        List<Integer> references = new ArrayList<>();
+        for (int i = 0; i < primitiveFields.length; i++) {
+            if (CopierGenerator.isDirect(type, primitiveFields[i])) {
+                direct.add(primitiveFields[i]);
+            } else {
+                primitives.add(i);
+            }
+        }
+        for (int i = 0; i < referenceFields.length; i++) {
+            if (CopierGenerator.isDirect(type, referenceFields[i])) {
+                direct.add(referenceFields[i]);
+            } else {
+                references.add(i);
+            }
+        }
+        if (direct.isEmpty()) {
+            return;
+        }
+        try {
+            compiled = new Compiled(CopierGenerator.generate(type, direct),
+                    primitives.stream().mapToInt(Integer::intValue).toArray(),
+                    references.stream().mapToInt(Integer::intValue).toArray());
+            Logger.debug("Copier generated for {}: {} of {} fields", type.getName(), direct.size(),
+                    primitiveFields.length + referenceFields.length);
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+            Logger.warn("Copier cannot be generated for {}, method handles are used: {}", type.getName(), e);
+        }
+    }
+
+    /**
+     * @return whether the fields are copied by a generated copier
+     */
+    boolean isCompiled() {
+        return compiled != null;
+    }
+
+    private void copyFields(Object source, Object target, CopyContext context, int[] primitives, int[] references)
+            throws Exception {
+        try {
+            for (int i : primitives) {
+                primitiveCopiers[i].invokeExact(target, source);
+            }
+            for (int i : references) {
+                Object value = (Object) referenceGetters[i].invokeExact(source);
+                referenceSetters[i].invokeExact(target, value == null ? null : context.copy(value));
+            }
+        } catch (Exception | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Constructor<?> findDefaultConstructor(Class<?> type) {
+        try {
+            return type.getDeclaredConstructor();
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param type - primitive type
+     * @return handle which decodes a value of the type from the bits read by {@link #primitiveBits}
+     */
+    private static MethodHandle fromBits(Class<?> type) throws NoSuchMethodException, IllegalAccessException {
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        MethodHandle bits = MethodHandles.identity(long.class);
+        if (type == float.class) {
+            return MethodHandles.filterReturnValue(
+                    MethodHandles.explicitCastArguments(bits, MethodType.methodType(int.class, long.class)),
+                    lookup.findStatic(Float.class, "intBitsToFloat", MethodType.methodType(float.class, int.class)));
+        }
+        if (type == double.class) {
+            return lookup.findStatic(Double.class, "longBitsToDouble", MethodType.methodType(double.class, long.class));
+        }
+        // narrowing keeps the low bits, a boolean is the lowest bit
+        return MethodHandles.explicitCastArguments(bits, MethodType.methodType(type, long.class));
+    }
+
+    private static MethodHandle[] constructorArguments(MethodHandles.Lookup lookup, Class<?> type,
+                                                       Class<?>[] parameterTypes) throws IllegalAccessException {
+        Field[] fields = Arrays.stream(type.getDeclaredFields())
+                .filter(field -> !Modifier.isStatic(field.getModifiers()))
+                .toArray(Field[]::new);
+        MethodHandle[] arguments = new MethodHandle[parameterTypes.length];
+        for (int i = 0; i < parameterTypes.length; i++) {
+            if (i < fields.length && parameterTypes[i].isAssignableFrom(fields[i].getType())) {
+                fields[i].setAccessible(true);
+                arguments[i] = lookup.unreflectGetter(fields[i]).asType(GET);
+            } else {
+                // null for references, boxed zero for primitives
+                Object defaultValue = parameterTypes[i].isPrimitive()
+                        ? Array.get(Array.newInstance(parameterTypes[i], 1), 0)
+                        : null;
+                arguments[i] = MethodHandles.dropArguments(
+                        MethodHandles.constant(Object.class, defaultValue), 0, Object.class);
+            }
+        }
+        return arguments;
+    }
+
+    /**
+     * Generated copier and the fields it cannot access
+     */
+    private static final class Compiled {
+        private final GeneratedCopier copier;
+        private final int[] primitives;
+        private final int[] references;
+
+        private Compiled(GeneratedCopier copier, int[] primitives, int[] references) {
+            this.copier = copier;
+            this.primitives = primitives;
+            this.references = references;
+        }
+    }
+}
@@ -0,0 +1,405 @@
+package ru.tolboy.deepcopy;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Deep copy of one prototype graph compiled into a flat program by {@link CopyUtils#compile}: the graph is walked
+ * and inspected once, every {@link #newCopy} only allocates the objects and writes the recorded values, without
+ * identity map lookups and field reads.
+ * <p>
+ * Every copied object of the graph is a node with an index in discovery order. Node kinds, shapes and offsets are
+ * kept in parallel arrays, values of primitive fields are packed into one {@code long[]} as raw bits, references of
+ * fields, array elements and collection contents are packed into one {@code int[]}: a non-negative reference is the
+ * index of a node, so shared references and cycles are preserved, a negative one is the complement of the index of
+ * a value which is not copied at all, like null, a string or an enum.
+ * <p>
+ * A copy is created in three passes: all nodes are instantiated, then fields, arrays, lists and deques are filled,
+ * then sets and maps are filled in dependency order computed at compile time, so their elements are complete before
+ * insertion like in {@link CopyContext}.
+ * <p>
+ * The program records the state of the prototype at compile time, later changes of the prototype do not affect the
+ * copies. Only objects of classes without a default constructor keep references to the prototype: the arguments of
+ * their constructors are read at compile time, the fields are overwritten after construction. A program is
+ * immutable, it may create copies from many threads at once.
+ *
+ * @param <T> - type of the prototype
+ */
+public final class CopyProgram<T> {
+    // objects filled field by field, the shape is a CopyPlan
+    private static final byte OBJECT = 0;
+    // arrays of references, the shape is an empty array of the same class
+    private static final byte ARRAY = 1;
+    // the shape is a copy of the primitive array
+    private static final byte PRIMITIVE_ARRAY = 2;
+    // the shape is the boxed value
+    private static final byte NUMBER = 3;
+    // the shape is a copy of the enum set
+    private static final byte ENUM_SET = 4;
+    // lists and deques filled in the second pass, the shape is an empty collection of the same class
+    private static final byte SEQUENCE = 5;
+    // sets and other collections filled in the last pass, the shape is an empty collection
+    private static final byte COLLECTION = 6;
+    // maps filled in the last pass, the shape is an empty map, keys and values are interleaved references
+    private static final byte MAP = 7;
+
+    private final byte[] kinds;
+    private final Object[] shapes;
+    // constructor arguments of objects without a default constructor
+    private final Object[][] arguments;
+    // offsets of the first reference of every node
+    private final int[] referenceOffsets;
+    // number of references of every node
+    private final int[] referenceCounts;
+    // offsets of the first primitive value of every object node
+    private final int[] primitiveOffsets;
+    private final int[] references;
+    private final long[] primitives;
+    private final Object[] constants;
+    // collection and map nodes in the order of filling
+    private final int[] deferred;
+    private final int root;
+
+    private CopyProgram(Compiler compiler, int root) {
+        int size = compiler.size;
+        this.kinds = Arrays.copyOf(compiler.kinds, size);
+        this.shapes = compiler.shapes.toArray();
+        this.arguments = compiler.arguments.toArray(new Object[0][]);
+        this.referenceOffsets = Arrays.copyOf(compiler.referenceOffsets, size);
+        this.referenceCounts = Arrays.copyOf(compiler.referenceCounts, size);
+        this.primitiveOffsets = Arrays.copyOf(compiler.primitiveOffsets, size);
+        this.references = Arrays.copyOf(compiler.references, compiler.referenceSize);
+        this.primitives = Arrays.copyOf(compiler.primitives, compiler.primitiveSize);
+        this.constants = compiler.constants.toArray();
+        this.deferred = compiler.deferred();
+        this.root = root;
+    }
+
+    /**
+     * Walk the prototype graph once and record the program of its copy
+     *
+     * @param prototype        - root of the graph
+     * @param immutableSharing - whether immutable values are shared instead of being copied
+     * @return program creating copies of the graph
+     */
+    static <T> CopyProgram<T> compile(T prototype, boolean immutableSharing) throws Exception {
+        Compiler compiler = new Compiler(immutableSharing);
+        int root = compiler.reference(prototype);
+        compiler.drain();
+        return new CopyProgram<>(compiler, root);
+    }
+
+    /**
+     * @return new deep copy of the prototype as it was at compile time
+     */
+    @SuppressWarnings("unchecked")
+    public T newCopy() {
+        try {
+            Object[] nodes = new Object[kinds.length];
+            for (int i = 0; i < nodes.length; i++) {
+                nodes[i] = instantiate(i);
+            }
+            for (int i = 0; i < nodes.length; i++) {
+                fill(i, nodes);
+            }
+            for (int i : deferred) {
+                CopyUtils.fillDeferred(nodes[i], resolveAll(i, nodes));
+            }
+            return (T) resolve(root, nodes);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return number of objects allocated by every copy
+     */
+    public int size() {
+        return kinds.length;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object instantiate(int node) throws Exception {
+        Object shape = shapes[node];
+        switch (kinds[node]) {
+            case OBJECT:
+                return ((CopyPlan) shape).instantiate(arguments[node]);
+            case ARRAY:
+                return Arrays.copyOf((Object[]) shape, referenceCounts[node]);
+            case PRIMITIVE_ARRAY:
+                return CopyUtils.copyPrimitiveArray(shape);
+            case NUMBER:
+                return CopyUtils.createNumberWrapper((Class<Object>) shape.getClass(), shape);
+            case ENUM_SET:
+                return ((EnumSet<?>) shape).clone();
+            case SEQUENCE:
+            case COLLECTION:
+                return CopyUtils.createCollection((Collection<?>) shape, referenceCounts[node]);
+            case MAP:
+                return CopyUtils.createMap((Map<?, ?>) shape, referenceCounts[node] / 2);
+            default:
+                throw new IllegalStateException("Unsupported node kind: " + kinds[node]);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void fill(int node, Object[] nodes) {
+        Object copy = nodes[node];
+        int offset = referenceOffsets[node];
+        switch (kinds[node]) {
+            case OBJECT:
+                CopyPlan plan = (CopyPlan) shapes[node];
+                int primitiveOffset = primitiveOffsets[node];
+                for (int i = 0, count = plan.primitiveCount(); i < count; i++) {
+                    plan.setPrimitiveBits(i, copy, primitives[primitiveOffset + i]);
+                }
+                for (int i = 0; i < referenceCounts[node]; i++) {
+                    plan.setReference(i, copy, resolve(references[offset + i], nodes));
+                }
+                break;
+            case ARRAY:
+                Object[] array = (Object[]) copy;
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = resolve(references[offset + i], nodes);
+                }
+                break;
+            case SEQUENCE:
+                ((Collection<Object>) copy).addAll(Arrays.asList(resolveAll(node, nodes)));
+                break;
+            default:
+                // complete already or filled in the last pass
+                break;
+        }
+    }
+
+    private Object[] resolveAll(int node, Object[] nodes) {
+        Object[] values = new Object[referenceCounts[node]];
+        int offset = referenceOffsets[node];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = resolve(references[offset + i], nodes);
+        }
+        return values;
+    }
+
+    private Object resolve(int reference, Object[] nodes) {
+        return reference >= 0 ? nodes[reference] : constants[~reference];
+    }
+
+    /**
+     * Walks the prototype graph without recursion and records nodes in growing packed arrays
+     */
+    private static final class Compiler {
+        private final boolean immutableSharing;
+        // references of the visited originals: node indices and complements of constant indices
+        private final Map<Object, Integer> visited = new IdentityHashMap<>();
+        // originals whose content is not recorded yet
+        private final ArrayDeque<Object> pending = new ArrayDeque<>();
+        private final List<Object> shapes = new ArrayList<>();
+        private final List<Object[]> arguments = new ArrayList<>();
+        private final List<Object> constants = new ArrayList<>();
+        private byte[] kinds = new byte[16];
+        private int[] referenceOffsets = new int[16];
+        private int[] referenceCounts = new int[16];
+        private int[] primitiveOffsets = new int[16];
+        private int size;
+        private int[] references = new int[64];
+        private int referenceSize;
+        private long[] primitives = new long[64];
+        private int primitiveSize;
+
+        private Compiler(boolean immutableSharing) {
+            this.immutableSharing = immutableSharing;
+        }
+
+        /**
+         * @param value - original value
+         * @return reference to the node or the constant of the value, a new node is recorded on the first visit
+         */
+        private int reference(Object value) throws Exception {
+            Integer known = visited.get(value);
+            if (known != null) {
+                return known;
+            }
+            int reference;
+            if (CopyContext.isShared(value, immutableSharing)) {
+                constants.add(value);
+                reference = ~(constants.size() - 1);
+            } else {
+                reference = node(value);
+            }
+            visited.put(value, reference);
+            return reference;
+        }
+
+        /**
+         * Record a node of the value, its content is recorded later by {@link #drain}
+         */
+        @SuppressWarnings("unchecked")
+        private int node(Object value) throws Exception {
+            Class<?> clazz = value.getClass();
+            CopyUtils.checkSupported(clazz);
+            if (Number.class.isAssignableFrom(clazz)) {
+                // fails at compile time if the class is not a primitive wrapper
+                return add(NUMBER, CopyUtils.createNumberWrapper((Class<Object>) clazz, value), null, 0);
+            }
+            if (value instanceof EnumSet) {
+                return add(ENUM_SET, ((EnumSet<?>) value).clone(), null, 0);
+            }
+            if (clazz.isArray() && clazz.getComponentType().isPrimitive()) {
+                return add(PRIMITIVE_ARRAY, CopyUtils.copyPrimitiveArray(value), null, 0);
+            }
+            int node;
+            if (value instanceof Collection) {
+                Collection<?> collection = (Collection<?>) value;
+                node = add(CopyUtils.isSequence(value) ? SEQUENCE : COLLECTION,
+                        CopyUtils.createCollection(collection, 0), null, collection.size());
+            } else if (value instanceof Map) {
+                Map<?, ?> map = (Map<?, ?>) value;
+                node = add(MAP, CopyUtils.createMap(map, 0), null, 2 * map.size());
+            } else if (clazz.isArray()) {
+                node = add(ARRAY, Arrays.copyOf((Object[]) value, 0), null, ((Object[]) value).length);
+            } else {
+                CopyPlan plan = CopyPlan.of(clazz);
+                node = add(OBJECT, plan, plan.argumentsOf(value), plan.referenceCount());
+            }
+            pending.push(value);
+            pending.push(node);
+            return node;
+        }
+
+        private int add(byte kind, Object shape, Object[] constructorArguments, int referenceCount) {
+            if (size == kinds.length) {
+                int capacity = 2 * size;
+                kinds = Arrays.copyOf(kinds, capacity);
+                referenceOffsets = Arrays.copyOf(referenceOffsets, capacity);
+                referenceCounts = Arrays.copyOf(referenceCounts, capacity);
+                primitiveOffsets = Arrays.copyOf(primitiveOffsets, capacity);
+            }
+            kinds[size] = kind;
+            referenceCounts[size] = referenceCount;
+            shapes.add(shape);
+            arguments.add(constructorArguments);
+            return size++;
+        }
+
+        /**
+         * Record the content of the pending nodes until the whole graph is visited
+         */
+        private void drain() throws Exception {
+            while (!pending.isEmpty()) {
+                int node = (Integer) pending.pop();
+                Object original = pending.pop();
+                // the references of a node are contiguous, they are reserved before the content is visited
+                int offset = reserveReferences(referenceCounts[node]);
+                referenceOffsets[node] = offset;
+                switch (kinds[node]) {
+                    case OBJECT:
+                        CopyPlan plan = (CopyPlan) shapes.get(node);
+                        primitiveOffsets[node] = reservePrimitives(plan.primitiveCount());
+                        for (int i = 0; i < plan.primitiveCount(); i++) {
+                            primitives[primitiveOffsets[node] + i] = plan.primitiveBits(i, original);
+                        }
+                        for (int i = 0; i < plan.referenceCount(); i++) {
+                            references[offset + i] = reference(plan.reference(i, original));
+                        }
+                        break;
+                    case ARRAY:
+                        record(offset, (Object[]) original);
+                        break;
+                    case SEQUENCE:
+                    case COLLECTION:
+                        record(offset, ((Collection<?>) original).toArray());
+                        break;
+                    case MAP:
+                        for (Map.Entry<?, ?> entry : ((Map<?, ?>) original).entrySet()) {
+                            references[offset++] = reference(entry.getKey());
+                            references[offset++] = reference(entry.getValue());
+                        }
+                        break;
+                    default:
+                        throw new IllegalStateException("Unsupported node kind: " + kinds[node]);
+                }
+            }
+        }
+
+        private void record(int offset, Object[] values) throws Exception {
+            for (Object value : values) {
+                references[offset++] = reference(value);
+            }
+        }
+
+        private int reserveReferences(int count) {
+            if (referenceSize + count > references.length) {
+                references = Arrays.copyOf(references, Math.max(2 * references.length, referenceSize + count));
+            }
+            referenceSize += count;
+            return referenceSize - count;
+        }
+
+        private int reservePrimitives(int count) {
+            if (primitiveSize + count > primitives.length) {
+                primitives = Arrays.copyOf(primitives, Math.max(2 * primitives.length, primitiveSize + count));
+            }
+            primitiveSize += count;
+            return primitiveSize - count;
+        }
+
+        /**
+         * Order collection and map nodes by a post-order walk over the container nodes, so every set or map is filled
+         * after the ones reachable from its content through other containers, like in {@link CopyContext}
+         *
+         * @return collection and map nodes in the order of filling
+         */
+        private int[] deferred() {
+            int[] result = new int[size];
+            int count = 0;
+            boolean[] visited = new boolean[size];
+            // pairs of container nodes and positions in their references
+            int[] path = new int[2 * size];
+            for (int i = size - 1; i >= 0; i--) {
+                if (!isDeferred(i) || visited[i]) {
+                    continue;
+                }
+                visited[i] = true;
+                int depth = 0;
+                path[depth++] = i;
+                path[depth++] = 0;
+                while (depth > 0) {
+                    int node = path[depth - 2];
+                    int position = path[depth - 1];
+                    if (position < referenceCounts[node]) {
+                        path[depth - 1]++;
+                        int child = references[referenceOffsets[node] + position];
+                        if (child >= 0 && isContainer(child) && !visited[child]) {
+                            visited[child] = true;
+                            path[depth++] = child;
+                            path[depth++] = 0;
+                        }
+                        continue;
+                    }
+                    depth -= 2;
+                    if (isDeferred(node)) {
+                        result[count++] = node;
+                    }
+                }
+            }
+            return Arrays.copyOf(result, count);
+        }
+
+        private boolean isDeferred(int node) {
+            return kinds[node] == COLLECTION || kinds[node] == MAP;
+        }
+
+        private boolean isContainer(int node) {
+            return isDeferred(node) || kinds[node] == SEQUENCE || kinds[node] == ARRAY;
+        }
+    }
+}
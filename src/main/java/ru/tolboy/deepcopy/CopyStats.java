@@ -0,0 +1,232 @@
+package ru.tolboy.deepcopy;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Counters of copy operations, collected when passed to {@link CopyOptions#withStats}. Collection is off by
+ * default, so the copy itself costs nothing extra.
+ * <p>
+ * A context counts its own operation without any locking and adds the result here once it is complete, so one
+ * instance may be shared by concurrent copies. A new instance per call gives counters of that call, a shared one
+ * gives a histogram of all calls per class.
+ * <p>
+ * Sizes are estimates of shallow sizes of the allocated copies, for a 64-bit JVM with compressed references:
+ * a 12 bytes header and 4 bytes per reference, aligned to 8 bytes. Internal nodes and tables of collections and
+ * maps are estimated by their sizes only.
+ */
+public final class CopyStats {
+    private static final int HEADER_BYTES = 12;
+    private static final int ARRAY_HEADER_BYTES = 16;
+    private static final int REFERENCE_BYTES = 4;
+    // an entry object with a hash, a key, a value and a link, plus a slot of the table
+    private static final int NODE_BYTES = 36;
+    private static final int CONTAINER_BYTES = 48;
+    private static final ClassValue<Long> SHALLOW_SIZES = new ClassValue<Long>() {
+        @Override
+        protected Long computeValue(Class<?> type) {
+            long size = HEADER_BYTES;
+            for (Class<?> declaring = type; declaring != null; declaring = declaring.getSuperclass()) {
+                for (Field field : declaring.getDeclaredFields()) {
+                    if (!Modifier.isStatic(field.getModifiers())) {
+                        size += fieldBytes(field.getType());
+                    }
+                }
+            }
+            return align(size);
+        }
+    };
+
+    private final Map<Class<?>, long[]> classes = new HashMap<>();
+    private long operations;
+    private long nanos;
+    private long visited;
+    private long cacheHits;
+    private long copies;
+    private long estimatedBytes;
+
+    /**
+     * @return number of completed copy operations
+     */
+    public synchronized long getOperations() {
+        return operations;
+    }
+
+    /**
+     * @return total time of the copy operations in nanoseconds
+     */
+    public synchronized long getNanos() {
+        return nanos;
+    }
+
+    /**
+     * @return number of references followed by the copy operations, values added to containers in bulk are not
+     * counted
+     */
+    public synchronized long getVisited() {
+        return visited;
+    }
+
+    /**
+     * @return number of references resolved to an object copied before, by cycles and shared references
+     */
+    public synchronized long getCacheHits() {
+        return cacheHits;
+    }
+
+    /**
+     * @return number of objects allocated as copies
+     */
+    public synchronized long getCopies() {
+        return copies;
+    }
+
+    /**
+     * @return estimated number of bytes allocated as copies
+     */
+    public synchronized long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    /**
+     * Classes ordered by time spent on their copies, the most expensive first. Time of a class is the time of
+     * creating and filling its copies, not including the objects they reference, except for elements copied in
+     * parallel, which are included into their container as well.
+     *
+     * @return snapshot of counters per class
+     */
+    public synchronized List<ClassStats> getHistogram() {
+        List<ClassStats> histogram = new ArrayList<>(classes.size());
+        for (Map.Entry<Class<?>, long[]> entry : classes.entrySet()) {
+            long[] counters = entry.getValue();
+            histogram.add(new ClassStats(entry.getKey(), counters[0], counters[1], counters[2]));
+        }
+        histogram.sort(Comparator.comparingLong(ClassStats::getNanos).reversed());
+        return histogram;
+    }
+
+    /**
+     * Clear all counters
+     */
+    public synchronized void reset() {
+        classes.clear();
+        operations = nanos = visited = cacheHits = copies = estimatedBytes = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CopyStats{operations=" + operations + ", nanos=" + nanos + ", visited=" + visited
+                + ", cacheHits=" + cacheHits + ", copies=" + copies + ", estimatedBytes=" + estimatedBytes
+                + ", classes=" + classes.size() + '}';
+    }
+
+    /**
+     * Add counters of one complete copy operation
+     *
+     * @param nanos     - time of the operation
+     * @param visited   - references followed
+     * @param cacheHits - references resolved to earlier copies
+     * @param classes   - copies, nanoseconds and estimated bytes per class
+     */
+    synchronized void add(long nanos, long visited, long cacheHits, Map<Class<?>, long[]> classes) {
+        this.operations++;
+        this.nanos += nanos;
+        this.visited += visited;
+        this.cacheHits += cacheHits;
+        for (Map.Entry<Class<?>, long[]> entry : classes.entrySet()) {
+            long[] counters = entry.getValue();
+            long[] total = this.classes.computeIfAbsent(entry.getKey(), type -> new long[3]);
+            for (int i = 0; i < total.length; i++) {
+                total[i] += counters[i];
+            }
+            this.copies += counters[0];
+            this.estimatedBytes += counters[2];
+        }
+    }
+
+    /**
+     * @param value - original object
+     * @return estimated shallow size of its copy in bytes
+     */
+    static long estimateSize(Object value) {
+        Class<?> type = value.getClass();
+        if (type.isArray()) {
+            return align(ARRAY_HEADER_BYTES + (long) Array.getLength(value) * fieldBytes(type.getComponentType()));
+        }
+        if (value instanceof RandomAccess || value instanceof ArrayDeque) {
+            int size = ((Collection<?>) value).size();
+            return CONTAINER_BYTES + align(ARRAY_HEADER_BYTES + (long) size * REFERENCE_BYTES);
+        }
+        if (value instanceof Collection) {
+            return CONTAINER_BYTES + (long) ((Collection<?>) value).size() * NODE_BYTES;
+        }
+        if (value instanceof Map) {
+            return CONTAINER_BYTES + (long) ((Map<?, ?>) value).size() * NODE_BYTES;
+        }
+        return SHALLOW_SIZES.get(type);
+    }
+
+    private static int fieldBytes(Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return Long.BYTES;
+        } else if (type == int.class || type == float.class) {
+            return Integer.BYTES;
+        } else if (type == short.class || type == char.class) {
+            return Short.BYTES;
+        } else if (type == byte.class || type == boolean.class) {
+            return Byte.BYTES;
+        }
+        return REFERENCE_BYTES;
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    /**
+     * Counters of one class
+     */
+    public static final class ClassStats {
+        private final Class<?> type;
+        private final long copies;
+        private final long nanos;
+        private final long estimatedBytes;
+
+        private ClassStats(Class<?> type, long copies, long nanos, long estimatedBytes) {
+            this.type = type;
+            this.copies = copies;
+            this.nanos = nanos;
+            this.estimatedBytes = estimatedBytes;
+        }
+
+        public Class<?> getType() {
+            return type;
+        }
+
+        public long getCopies() {
+            return copies;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public long getEstimatedBytes() {
+            return estimatedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return type.getName() + ": copies=" + copies + ", nanos=" + nanos + ", estimatedBytes=" + estimatedBytes;
+        }
+    }
+}
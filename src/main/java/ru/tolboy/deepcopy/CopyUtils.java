@@ -1,83 +1,332 @@
 package ru.tolboy.deepcopy;
 
-import org.tinylog.Logger;
-
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Array;
-import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
 import java.util.*;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 
 public class CopyUtils {
-    private static final Map<Object, Object> cache = new IdentityHashMap<>();
-    private static final Lock WRITE_LOCK = new ReentrantReadWriteLock().writeLock();
-    private static final String LOGGER_INFO_STR = "Class for copy is -> {}";
     private static final String UNSUPPORTED_EXC_STR = "Cloning Interface|Synthetic|Annotation types is not supported yet";
+    // collections and maps which can be refilled in place by copyInto
+    private static final Set<Class<?>> REUSABLE_CONTAINERS = Set.of(ArrayList.class, LinkedList.class,
+            ArrayDeque.class, HashSet.class, LinkedHashSet.class, TreeSet.class, HashMap.class, LinkedHashMap.class,
+            TreeMap.class, ConcurrentHashMap.class);
+    // LinkedHashMap does not expose its ordering mode, it is read only if java.util is opened to this code explicitly,
+    // e.g. by --add-opens java.base/java.util=ALL-UNNAMED, otherwise access-ordered maps are copied insertion-ordered
+    private static final Field ACCESS_ORDER = accessOrderField();
+    // public default constructors of collection and map classes without a dedicated factory
+    private static final ClassValue<MethodHandle> DEFAULT_CONSTRUCTORS = new ClassValue<MethodHandle>() {
+        @Override
+        protected MethodHandle computeValue(Class<?> type) {
+            try {
+                return MethodHandles.publicLookup().findConstructor(type, MethodType.methodType(void.class));
+            } catch (NoSuchMethodException | IllegalAccessException e) {
+                return null;
+            }
+        }
+    };
 
     /**
-     * deepCopy method used to copy original object deeply
+     * deepCopy method used to copy original object deeply.
+     * Every call has its own {@link CopyContext}, so it is safe to copy objects from many threads at once.
      *
      * @param obj - original object to copy
      * @return copied object
      */
-    @SuppressWarnings("unchecked")
     public static <T> T deepCopy(T obj) {
-        // Lock the copy process to prevent access to it while copying
-        WRITE_LOCK.lock();
+        return deepCopy(obj, CopyOptions.DEFAULT);
+    }
+
+    /**
+     * deepCopy method used to copy original object deeply with the given options
+     *
+     * @param obj     - original object to copy
+     * @param options - copy options
+     * @return copied object
+     */
+    public static <T> T deepCopy(T obj, CopyOptions options) {
         try {
-            if (cache.containsKey(obj)) {
-                return (T) cache.get(obj);
-            }
-            T copy = deepCopyInternal(obj);
-            cache.put(obj, copy);
-            Logger.info("cache size {}", cache.size());
-            return copy;
+            return new CopyContext(options).copyGraph(obj);
         } catch (Exception e) {
             throw new RuntimeException(e);
-        } finally {
-            cache.clear();
-            WRITE_LOCK.unlock();
-            Logger.info("cache size {} (cleared), WRITE_LOCK released", cache.size());
         }
     }
 
-    @SuppressWarnings("unchecked")
-    private static <T> T deepCopyInternal(T obj) throws Exception {
-        if (obj == null) {
-            return null;
+    /**
+     * Copy the source graph into an existing target graph of the same shape. Objects of the target graph are reused
+     * where the classes match: nested objects are overwritten field by field, arrays of the same length element by
+     * element, lists, sets and maps are refilled in place. New objects are allocated only where the shapes differ.
+     *
+     * @param source - original object to copy
+     * @param target - object to copy into
+     * @return the target, or a new copy if the target is null or of another class
+     */
+    public static <T> T copyInto(T source, T target) {
+        return copyInto(source, target, CopyOptions.DEFAULT);
+    }
+
+    /**
+     * copyInto method with the given options
+     *
+     * @param source  - original object to copy
+     * @param target  - object to copy into
+     * @param options - copy options
+     * @return the target, or a new copy if the target is null or of another class
+     */
+    public static <T> T copyInto(T source, T target, CopyOptions options) {
+        try {
+            return new CopyContext(options).copyGraphInto(source, target);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
         }
-        // If object is already in cache, return it from cache
-        if (cache.containsKey(obj)) {
-            return (T) cache.get(obj);
+    }
+
+    /**
+     * Compile a prototype graph once into a {@link CopyProgram}, which creates deep copies of the graph without
+     * walking it again. It pays off when the same graph is copied many times.
+     *
+     * @param prototype - graph to copy, its state at the time of the call is recorded
+     * @return program creating copies of the graph
+     */
+    public static <T> CopyProgram<T> compile(T prototype) {
+        return compile(prototype, CopyOptions.DEFAULT);
+    }
+
+    /**
+     * compile method with the given options, only the sharing mode applies to compiled programs
+     *
+     * @param prototype - graph to copy, its state at the time of the call is recorded
+     * @param options   - copy options
+     * @return program creating copies of the graph
+     */
+    public static <T> CopyProgram<T> compile(T prototype, CopyOptions options) {
+        try {
+            return CopyProgram.compile(prototype, options.isImmutableSharing());
+        } catch (Exception e) {
+            throw new RuntimeException(e);
         }
+    }
+
+    /**
+     * Create a copy of the object. Immutable objects and primitive arrays are copied at once, other copies are
+     * created empty and scheduled in the context to be filled by {@link #fillCopy}. In the sharing mode immutable
+     * values are returned as is.
+     *
+     * @param obj     - original object, not null
+     * @param context - context of the copy operation
+     * @return copy of the object
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T createCopy(T obj, CopyContext context) throws Exception {
         Class<?> clazz = obj.getClass();
 
-        if (clazz.isInterface() || clazz.isAnnotation() || clazz.isSynthetic()) {
-            throw new UnsupportedOperationException(UNSUPPORTED_EXC_STR);
-        }
-        if (clazz.isPrimitive() || clazz.isEnum() || clazz == String.class) {
-            Logger.info(LOGGER_INFO_STR, clazz.getSimpleName());
+        checkSupported(clazz);
+        if (context.isShared(obj)) {
             return obj;
         }
         if (Number.class.isAssignableFrom(clazz)) {
             return createNumberWrapper((Class<T>) clazz, obj);
         }
-        if (obj instanceof Collection) {
-            Logger.info(LOGGER_INFO_STR, clazz.getSimpleName());
-            return (T) deepCopyCollection((Collection<?>) obj, (Collection<Object>) createCollectionOrDefault(clazz));
+        Object copy;
+        if (obj instanceof EnumSet) {
+            // enum constants are never copied
+            return (T) context.register(obj, ((EnumSet<?>) obj).clone());
+        } else if (obj instanceof Collection) {
+            copy = createCollection((Collection<?>) obj, ((Collection<?>) obj).size());
+        } else if (obj instanceof Map) {
+            copy = createMap((Map<?, ?>) obj, ((Map<?, ?>) obj).size());
+        } else if (clazz.isArray()) {
+            if (clazz.getComponentType().isPrimitive()) {
+                return (T) context.register(obj, copyPrimitiveArray(obj));
+            }
+            copy = Array.newInstance(clazz.getComponentType(), ((Object[]) obj).length);
+        } else {
+            copy = CopyPlan.of(clazz).newInstance(obj);
         }
-        if (obj instanceof Map) {
-            Logger.info(LOGGER_INFO_STR, clazz.getSimpleName());
-            return (T) deepCopyMap((Map<Object, Object>) obj, (Map<Object, Object>) createMapOrDefault(clazz));
+        return (T) context.schedule(obj, copy);
+    }
+
+    /**
+     * Copy the content of the original object into its empty copy. Lists, deques, arrays and custom objects are
+     * filled at once, the elements of other collections and maps are copied, but inserting them is deferred to
+     * {@link #fillDeferred}. Containers of values which are not copied at all are filled in bulk. Elements of large
+     * arrays, lists, sets and maps are copied in parallel if the parallel mode is on.
+     *
+     * @param original - original object
+     * @param copy     - its empty copy created by {@link #createCopy}
+     * @param context  - context of the copy operation
+     */
+    @SuppressWarnings("unchecked")
+    static void fillCopy(Object original, Object copy, CopyContext context) throws Exception {
+        if (original instanceof Object[]) {
+            context.copyAll((Object[]) original, (Object[]) copy);
+        } else if (isSequence(original)) {
+            Collection<?> sequence = (Collection<?>) original;
+            Collection<Object> sequenceCopy = (Collection<Object>) copy;
+            if (context.allShared(sequence)) {
+                sequenceCopy.addAll(sequence);
+            } else if (context.isParallel(sequence.size()) || !isGrowable(sequenceCopy)) {
+                Object[] elements = sequence.toArray();
+                context.copyAll(elements, elements);
+                sequenceCopy.addAll(Arrays.asList(elements));
+            } else {
+                for (Object element : sequence) {
+                    sequenceCopy.add(context.copy(element));
+                }
+            }
+        } else if (original instanceof Collection) {
+            Collection<?> collection = (Collection<?>) original;
+            if (context.allShared(collection)) {
+                // hash codes and ordering of shared values do not change, no need to defer
+                ((Collection<Object>) copy).addAll(collection);
+            } else {
+                Object[] elements = collection.toArray();
+                context.defer(copy, elements);
+                context.copyAll(elements, elements);
+            }
+        } else if (original instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) original;
+            if (context.allShared(map.keySet()) && context.allShared(map.values())) {
+                ((Map<Object, Object>) copy).putAll(map);
+            } else {
+                Object[] entries = new Object[2 * map.size()];
+                int i = 0;
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    entries[i++] = entry.getKey();
+                    entries[i++] = entry.getValue();
+                }
+                context.defer(copy, entries);
+                context.copyAll(entries, entries);
+            }
+        } else {
+            CopyPlan.of(original.getClass()).copyFields(original, copy, context);
         }
+    }
+
+    /**
+     * @param clazz - class of an object to copy
+     * @throws UnsupportedOperationException if objects of the class cannot be copied
+     */
+    static void checkSupported(Class<?> clazz) {
+        if (clazz.isInterface() || clazz.isAnnotation() || clazz.isSynthetic()) {
+            throw new UnsupportedOperationException(UNSUPPORTED_EXC_STR);
+        }
+    }
+
+    /**
+     * @param source   - original object
+     * @param existing - object of the same class in the target graph
+     * @return whether the existing object can be overwritten with the content of the original one
+     */
+    static boolean isReusable(Object source, Object existing) {
+        Class<?> clazz = source.getClass();
         if (clazz.isArray()) {
-            Logger.info(LOGGER_INFO_STR, clazz.getSimpleName());
-            return (T) copyArray(obj);
+            return Array.getLength(source) == Array.getLength(existing);
+        }
+        if (source instanceof Collection || source instanceof Map) {
+            return REUSABLE_CONTAINERS.contains(clazz) && Objects.equals(comparator(source), comparator(existing));
+        }
+        return !clazz.isInterface() && !clazz.isAnnotation() && !clazz.isSynthetic()
+                && !ImmutableTypes.isImmutable(clazz);
+    }
+
+    /**
+     * Overwrite an existing object with the content of the original one, reusing the objects it references.
+     * Unordered sets with immutable elements and maps with immutable keys keep their matching entries, other
+     * collections and maps are cleared and refilled like new copies.
+     *
+     * @param source  - original object
+     * @param target  - existing object accepted by {@link #isReusable}
+     * @param context - context of the copy operation
+     */
+    @SuppressWarnings("unchecked")
+    static void fillInto(Object source, Object target, CopyContext context) throws Exception {
+        if (source instanceof Object[]) {
+            Object[] array = (Object[]) source;
+            Object[] arrayTarget = (Object[]) target;
+            for (int i = 0; i < array.length; i++) {
+                arrayTarget[i] = context.reuse(array[i], arrayTarget[i]);
+            }
+        } else if (source instanceof List) {
+            ListIterator<Object> existing = ((List<Object>) target).listIterator();
+            for (Object element : (List<?>) source) {
+                if (existing.hasNext()) {
+                    existing.set(context.reuse(element, existing.next()));
+                } else {
+                    existing.add(context.copy(element));
+                }
+            }
+            while (existing.hasNext()) {
+                existing.next();
+                existing.remove();
+            }
+        } else if (source instanceof Collection) {
+            Collection<?> collection = (Collection<?>) source;
+            Collection<Object> collectionTarget = (Collection<Object>) target;
+            if (collection instanceof Set && !(source instanceof LinkedHashSet) && allImmutable(collection)) {
+                collectionTarget.retainAll(collection);
+                for (Object element : collection) {
+                    if (!collectionTarget.contains(element)) {
+                        collectionTarget.add(context.copy(element));
+                    }
+                }
+            } else {
+                Object[] elements = collection.toArray();
+                collectionTarget.clear();
+                context.defer(target, elements);
+                context.copyAll(elements, elements);
+            }
+        } else if (source instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) source;
+            Map<Object, Object> mapTarget = (Map<Object, Object>) target;
+            if (!(source instanceof LinkedHashMap) && allImmutable(map.keySet())) {
+                mapTarget.keySet().retainAll(map.keySet());
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    Object key = entry.getKey();
+                    if (mapTarget.containsKey(key)) {
+                        // the existing key object is kept
+                        mapTarget.put(key, context.reuse(entry.getValue(), mapTarget.get(key)));
+                    } else {
+                        mapTarget.put(context.copy(key), context.copy(entry.getValue()));
+                    }
+                }
+            } else {
+                Object[] entries = new Object[2 * map.size()];
+                int i = 0;
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    entries[i++] = entry.getKey();
+                    entries[i++] = entry.getValue();
+                }
+                mapTarget.clear();
+                context.defer(target, entries);
+                context.copyAll(entries, entries);
+            }
+        } else {
+            CopyPlan.of(source.getClass()).copyFieldsInto(source, target, context);
+        }
+    }
+
+    /**
+     * Insert copied elements into a copy of a set or a map, when all the elements are complete
+     *
+     * @param copy     - empty copy of a set or a map
+     * @param contents - copies of elements, or of keys and values interleaved
+     */
+    @SuppressWarnings("unchecked")
+    static void fillDeferred(Object copy, Object[] contents) {
+        if (copy instanceof Map) {
+            Map<Object, Object> map = (Map<Object, Object>) copy;
+            for (int i = 0; i < contents.length; i += 2) {
+                map.put(contents[i], contents[i + 1]);
+            }
+        } else {
+            ((Collection<Object>) copy).addAll(Arrays.asList(contents));
         }
-        Logger.info(LOGGER_INFO_STR, clazz.getSimpleName());
-        return createCustomInstance((Class<T>) clazz, obj);
     }
 
     @SuppressWarnings("unchecked")
@@ -94,147 +343,174 @@ public class CopyUtils {
         } else if (clazz == Float.class) {
             return (T) new Float((float) value);
         } else if (clazz == Double.class) {
-            return (T) new Double((float) value);
+            return (T) new Double((double) value);
         } else {
             throw new IllegalArgumentException("Unsupported wrapper class: " + clazz);
         }
     }
 
-    private static Collection<?> createCollectionOrDefault(Class<?> clazz) {
-        // lists
-        if (clazz == ArrayList.class) return new ArrayList<>();
-        if (clazz == LinkedList.class) return new LinkedList<>();
-        // sets
-        if (clazz == HashSet.class) return new HashSet<>();
-        if (clazz == LinkedHashSet.class) return new LinkedHashSet<>();
-        if (clazz == TreeSet.class) return new TreeSet<>();
-        // default
-        if (List.class.isAssignableFrom(clazz)) return new ArrayList<>(); // default for immutable lists (List.of...)
-        if (Set.class.isAssignableFrom(clazz)) return new HashSet<>(); // default for immutable sets (Set.of...)
-        throw new IllegalArgumentException("Unsupported collection class: " + clazz);
+    private static Comparator<?> comparator(Object container) {
+        if (container instanceof SortedSet) {
+            return ((SortedSet<?>) container).comparator();
+        }
+        if (container instanceof SortedMap) {
+            return ((SortedMap<?, ?>) container).comparator();
+        }
+        return null;
     }
 
-    private static Map<?, ?> createMapOrDefault(Class<?> clazz) {
-        if (clazz == HashMap.class) return new HashMap<>();
-        if (clazz == TreeMap.class) return new TreeMap<>();
-        if (Map.class.isAssignableFrom(clazz)) return new HashMap<>(); // default for immutable maps (Map.of...)
-        throw new IllegalArgumentException("Unsupported map class: " + clazz);
+    private static boolean allImmutable(Collection<?> values) {
+        for (Object value : values) {
+            if (!ImmutableTypes.isImmutableValue(value)) {
+                return false;
+            }
+        }
+        return true;
     }
 
-    private static Object copyArray(Object obj) throws Exception {
-        Class<?> clazz = obj.getClass().getComponentType();
-        if (clazz.isPrimitive()) {
-            if (clazz == int.class) {
-                return Arrays.copyOf((int[]) obj, ((int[]) obj).length);
-            } else if (clazz == long.class) {
-                return Arrays.copyOf((long[]) obj, ((long[]) obj).length);
-            } else if (clazz == float.class) {
-                return Arrays.copyOf((float[]) obj, ((float[]) obj).length);
-            } else if (clazz == double.class) {
-                return Arrays.copyOf((double[]) obj, ((double[]) obj).length);
-            } else if (clazz == boolean.class) {
-                return Arrays.copyOf((boolean[]) obj, ((boolean[]) obj).length);
-            } else if (clazz == byte.class) {
-                return Arrays.copyOf((byte[]) obj, ((byte[]) obj).length);
-            } else if (clazz == short.class) {
-                return Arrays.copyOf((short[]) obj, ((short[]) obj).length);
-            } else if (clazz == char.class) {
-                return Arrays.copyOf((char[]) obj, ((char[]) obj).length);
-            }
-        } else {
-            Object[] origObjArray = (Object[]) obj;
-            return deepCopyObjectArray(origObjArray, Arrays.copyOf(origObjArray, origObjArray.length));
+    /**
+     * Create an empty collection of the same class and comparator as the original one, presized for its elements.
+     * Immutable and unmodifiable collections are copied into their mutable counterparts.
+     *
+     * @param original - original collection or an empty collection created by this method
+     * @param size     - number of elements to presize for
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static Collection<?> createCollection(Collection<?> original, int size) throws Exception {
+        Class<?> clazz = original.getClass();
+        // lists and queues
+        if (clazz == ArrayList.class) return new ArrayList<>(size);
+        if (clazz == LinkedList.class) return new LinkedList<>();
+        if (clazz == ArrayDeque.class) return new ArrayDeque<>(size);
+        if (clazz == PriorityQueue.class) {
+            return new PriorityQueue<>(Math.max(1, size), ((PriorityQueue) original).comparator());
         }
-        return null;
+        // sets
+        if (clazz == HashSet.class) return new HashSet<>(capacity(size));
+        if (clazz == LinkedHashSet.class) return new LinkedHashSet<>(capacity(size));
+        if (clazz == TreeSet.class) return new TreeSet<>(((SortedSet) original).comparator());
+        if (clazz == ConcurrentSkipListSet.class) {
+            return new ConcurrentSkipListSet<>(((SortedSet) original).comparator());
+        }
+        // other mutable collections: Vector, CopyOnWriteArrayList, ConcurrentLinkedQueue...
+        Collection<?> instance = (Collection<?>) newDefaultInstance(clazz);
+        if (instance != null) return instance;
+        // defaults for immutable and unmodifiable collections (List.of, Collections.unmodifiableSet...)
+        if (original instanceof List) return new ArrayList<>(size);
+        if (original instanceof SortedSet) return new TreeSet<>(((SortedSet) original).comparator());
+        if (original instanceof Set) return new HashSet<>(capacity(size));
+        if (original instanceof Queue) return new ArrayDeque<>(size);
+        throw new IllegalArgumentException("Unsupported collection class: " + clazz);
     }
 
     /**
-     * Try to get default constructor. If not:
-     * Obtain all constructors of the class using getDeclaredConstructors() and find the
-     * constructor with max parameters. If we found, we obtain the values of the
-     * fields using reflection and pass them as arguments to the constructor using newInstance().
-     * <p>
-     * PLEASE NOTE: this approach assumes that the fields of the object correspond to the arguments of the constructor,
-     * which may not always be the case. Additionally, this approach may not work for classes with complex constructors,
-     * such as those with nested or non-static inner classes. Therefore, this approach should be used with caution and
-     * only when other options, such as serializing and deserializing or cloning the object, are not possible.
+     * Create an empty map of the same class and comparator or key type as the original one, presized for its entries.
+     * An access-ordered {@link LinkedHashMap} keeps its ordering mode only if its field can be read, see
+     * {@link #ACCESS_ORDER}, its copy is insertion-ordered otherwise, the iteration order is kept in both cases.
+     * Immutable and unmodifiable maps are copied into their mutable counterparts.
      *
-     * @param originalClass  - representation of original object
-     * @param originalObject - original object
-     * @param <T>            - any type
-     * @return - new object of the same type as the original one
+     * @param original - original map or an empty map created by this method
+     * @param size     - number of entries to presize for
      */
-    private static <T> T createCustomInstance(Class<T> originalClass, T originalObject) throws Exception {
-        T copiedObject = null;
-        Object[] args;
-        Field[] originalFields = originalClass.getDeclaredFields();
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static Map<?, ?> createMap(Map<?, ?> original, int size) throws Exception {
+        Class<?> clazz = original.getClass();
+        if (clazz == HashMap.class) return new HashMap<>(capacity(size));
+        if (clazz == LinkedHashMap.class) return new LinkedHashMap<>(capacity(size), 0.75f, isAccessOrder(original));
+        if (clazz == TreeMap.class) return new TreeMap<>(((SortedMap) original).comparator());
+        if (clazz == ConcurrentHashMap.class) return new ConcurrentHashMap<>(size);
+        if (clazz == ConcurrentSkipListMap.class) {
+            return new ConcurrentSkipListMap<>(((SortedMap) original).comparator());
+        }
+        if (clazz == IdentityHashMap.class) return new IdentityHashMap<>(size);
+        if (clazz == EnumMap.class) {
+            // the only way to keep the key type of an empty map
+            EnumMap<?, ?> copy = new EnumMap<>((EnumMap) original);
+            copy.clear();
+            return copy;
+        }
+        // other mutable maps: Hashtable, WeakHashMap...
+        Map<?, ?> instance = (Map<?, ?>) newDefaultInstance(clazz);
+        if (instance != null) return instance;
+        // defaults for immutable and unmodifiable maps (Map.of, Collections.unmodifiableMap...)
+        if (original instanceof SortedMap) return new TreeMap<>(((SortedMap) original).comparator());
+        return new HashMap<>(capacity(size));
+    }
 
+    private static Object newDefaultInstance(Class<?> clazz) throws Exception {
+        MethodHandle constructor = DEFAULT_CONSTRUCTORS.get(clazz);
         try {
-            // Try to get default constructor
-            copiedObject = originalClass.getDeclaredConstructor().newInstance();
-        } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
-            throw new RuntimeException(e);
-        } catch (NoSuchMethodException e) {
-            // Get custom constructor with maximum parameters
-            Constructor<?> maxParamsConstructor = Arrays.stream(originalClass.getDeclaredConstructors())
-                    .max(Comparator.comparingInt(Constructor::getParameterCount))
-                    .orElseThrow(NoSuchElementException::new);
-
-            maxParamsConstructor.setAccessible(true);
-            Class<?>[] parameterTypes = maxParamsConstructor.getParameterTypes();
-
-            args = new Object[parameterTypes.length];
-            // Add parameters
-            for (int i = 0; i < originalFields.length; i++) {
-                originalFields[i].setAccessible(true);
-                Object originalValue = originalFields[i].get(originalObject);
-                args[i] = originalValue;
-            }
-            // Create instance using args had been filled above
-            copiedObject = originalClass.cast(maxParamsConstructor.newInstance(args));
-        }
-        // Add fields to the copied object
-        for (Field field : originalFields) {
-            field.setAccessible(true);
-            Object originalValue = field.get(originalObject);
-            if (originalValue != null) {
-                field.set(copiedObject, deepCopyInternal(originalValue));
-            }
+            return constructor == null ? null : constructor.invoke();
+        } catch (Exception | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
         }
-        cache.put(originalObject, copiedObject);
+    }
 
-        return copiedObject;
+    /**
+     * @return initial capacity of a hash-based container which holds the given number of entries without rehashing
+     */
+    private static int capacity(int size) {
+        return (int) (size / 0.75f) + 1;
     }
 
-    private static Collection<?> deepCopyCollection(Collection<?> collection, Collection<Object> copy) throws Exception {
-        for (Object element : collection) {
-            // Recursively copy each element and add it to the target collection
-            copy.add(deepCopyInternal(element));
-        }
-        cache.put(collection, copy);
-        return copy;
+    /**
+     * Lists and deques keep elements in the order they are added, so they are filled at once
+     */
+    static boolean isSequence(Object original) {
+        return original instanceof List || original instanceof ArrayDeque;
     }
 
-    private static Object[] deepCopyObjectArray(Object[] array, Object[] copy) throws Exception {
-        for (int i = 0; i < Array.getLength(array); i++) {
-            // Recursively copy each element and add it to the target array
-            Array.set(copy, i, deepCopyInternal(array[i]));
+    /**
+     * @return whether elements are cheap to add one by one, unlike in copy-on-write lists
+     */
+    private static boolean isGrowable(Collection<?> collection) {
+        Class<?> clazz = collection.getClass();
+        return clazz == ArrayList.class || clazz == LinkedList.class || clazz == ArrayDeque.class;
+    }
+
+    private static boolean isAccessOrder(Map<?, ?> map) {
+        try {
+            return ACCESS_ORDER != null && ACCESS_ORDER.getBoolean(map);
+        } catch (IllegalAccessException e) {
+            return false;
         }
-        cache.put(array, copy);
-        return copy;
     }
 
-    private static <K, V> Map<K, V> deepCopyMap(Map<K, V> map, Map<K, V> copy) {
-        map.forEach((key, value) -> {
-            try {
-                // Recursively copy each key and value and put them to the target map
-                copy.put(deepCopyInternal(key), deepCopyInternal(value));
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            }
-        });
-        cache.put(map, copy);
-        return copy;
+    private static Field accessOrderField() {
+        // an illegal reflective access would fail or print a warning, depending on the Java version
+        Module base = LinkedHashMap.class.getModule();
+        if (!base.isOpen(LinkedHashMap.class.getPackageName(), CopyUtils.class.getModule())) {
+            return null;
+        }
+        try {
+            Field field = LinkedHashMap.class.getDeclaredField("accessOrder");
+            return field.trySetAccessible() ? field : null;
+        } catch (NoSuchFieldException e) {
+            return null;
+        }
     }
 
-}
\ No newline at end of file
+    static Object copyPrimitiveArray(Object obj) {
+        Class<?> clazz = obj.getClass().getComponentType();
+        if (clazz == int.class) {
+            return Arrays.copyOf((int[]) obj, ((int[]) obj).length);
+        } else if (clazz == long.class) {
+            return Arrays.copyOf((long[]) obj, ((long[]) obj).length);
+        } else if (clazz == float.class) {
+            return Arrays.copyOf((float[]) obj, ((float[]) obj).length);
+        } else if (clazz == double.class) {
+            return Arrays.copyOf((double[]) obj, ((double[]) obj).length);
+        } else if (clazz == boolean.class) {
+            return Arrays.copyOf((boolean[]) obj, ((boolean[]) obj).length);
+        } else if (clazz == byte.class) {
+            return Arrays.copyOf((byte[]) obj, ((byte[]) obj).length);
+        } else if (clazz == short.class) {
+            return Arrays.copyOf((short[]) obj, ((short[]) obj).length);
+        } else if (clazz == char.class) {
+            return Arrays.copyOf((char[]) obj, ((char[]) obj).length);
+        }
+        throw new IllegalArgumentException("Unsupported array class: " + obj.getClass());
+    }
+}
@@ -0,0 +1,30 @@
+package ru.tolboy.deepcopy;
+
+/**
+ * Base class of copiers generated by {@link CopierGenerator} for hot classes. A generated copier reads and writes
+ * the fields of one class directly, it is defined as a hidden nestmate of the class, so private fields are
+ * accessible to it.
+ */
+public abstract class GeneratedCopier {
+
+    protected GeneratedCopier() {
+    }
+
+    /**
+     * Copy the fields the copier was generated for
+     *
+     * @param source  - original object
+     * @param target  - copy
+     * @param context - context of the copy operation
+     */
+    protected abstract void copyFields(Object source, Object target, CopyContext context) throws Exception;
+
+    /**
+     * @param context - context of the copy operation
+     * @param value   - value of a field which is not known to be immutable
+     * @return deep copy of the value
+     */
+    protected final Object copy(CopyContext context, Object value) throws Exception {
+        return context.copy(value);
+    }
+}
@@ -0,0 +1,154 @@
+package ru.tolboy.deepcopy;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.URI;
+import java.time.chrono.HijrahDate;
+import java.time.chrono.JapaneseDate;
+import java.time.chrono.MinguoDate;
+import java.time.chrono.ThaiBuddhistDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DecimalStyle;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneOffsetTransitionRule;
+import java.time.zone.ZoneRules;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of immutable types, used by the sharing mode of {@link CopyUtils#deepCopy(Object, CopyOptions)}.
+ * <p>
+ * A type is immutable if it is
+ * <ul>
+ *     <li>a primitive wrapper, {@link String}, {@link BigInteger}, {@link BigDecimal}, {@link UUID}, {@link URI},
+ *     {@link Locale}, a final class of the {@code java.time} package or a value type of its subpackages like
+ *     {@link DateTimeFormatter} and {@link ZoneRules}, but not their mutable builders</li>
+ *     <li>an enum</li>
+ *     <li>a record or a final class whose instance fields are all final and of immutable types</li>
+ *     <li>registered by {@link #register}</li>
+ * </ul>
+ * Besides, a JDK immutable collection ({@code List.of}, {@code Set.of}, {@code Map.of} and the like) is an immutable
+ * value if all its elements are immutable values.
+ * <p>
+ * Results are cached per class. Types should be registered at startup, before they or classes with fields of
+ * these types are copied.
+ */
+public final class ImmutableTypes {
+    private static final String IMMUTABLE_COLLECTIONS = "java.util.ImmutableCollections$";
+    private static final Set<Class<?>> KNOWN = Set.of(Boolean.class, Character.class, Byte.class, Short.class,
+            Integer.class, Long.class, Float.class, Double.class, String.class, BigInteger.class, BigDecimal.class,
+            UUID.class, URI.class, Locale.class, Class.class, DateTimeFormatter.class, DecimalStyle.class,
+            ZoneRules.class, ZoneOffsetTransition.class, ZoneOffsetTransitionRule.class, HijrahDate.class,
+            JapaneseDate.class, MinguoDate.class, ThaiBuddhistDate.class);
+    private static final String TIME_PACKAGE = "java.time";
+    private static final Set<Class<?>> REGISTERED = ConcurrentHashMap.newKeySet();
+    private static final ThreadLocal<Set<Class<?>>> IN_PROGRESS = ThreadLocal.withInitial(HashSet::new);
+    private static final ClassValue<Boolean> IMMUTABLE = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            return analyze(type);
+        }
+    };
+
+    private ImmutableTypes() {
+    }
+
+    /**
+     * Mark a type as immutable, its instances are shared by copies in the sharing mode
+     *
+     * @param type - immutable type
+     */
+    public static void register(Class<?> type) {
+        REGISTERED.add(type);
+        IMMUTABLE.remove(type);
+    }
+
+    /**
+     * @param type - any type
+     * @return whether all instances of exactly this type are immutable
+     */
+    public static boolean isImmutable(Class<?> type) {
+        return IMMUTABLE.get(type);
+    }
+
+    /**
+     * @param value - any value
+     * @return whether the value is immutable and can be shared instead of being copied
+     */
+    public static boolean isImmutableValue(Object value) {
+        if (value == null) {
+            return true;
+        }
+        Class<?> type = value.getClass();
+        if (isImmutable(type)) {
+            return true;
+        }
+        if (!type.getName().startsWith(IMMUTABLE_COLLECTIONS)) {
+            return false;
+        }
+        if (value instanceof Collection) {
+            for (Object element : (Collection<?>) value) {
+                if (!isImmutableValue(element)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (value instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!isImmutableValue(entry.getKey()) || !isImmutableValue(entry.getValue())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean analyze(Class<?> type) {
+        if (type.isPrimitive() || KNOWN.contains(type) || REGISTERED.contains(type)
+                || Enum.class.isAssignableFrom(type)) {
+            return true;
+        }
+        if (type.isArray() || type.isInterface()) {
+            return false;
+        }
+        // java.time holds value types only, its subpackages have mutable builders as well
+        if (TIME_PACKAGE.equals(type.getPackageName()) && Modifier.isFinal(type.getModifiers())) {
+            return true;
+        }
+        boolean record = type.getSuperclass() != null && type.getSuperclass().getName().equals("java.lang.Record");
+        if (!record && !Modifier.isFinal(type.getModifiers())) {
+            return false;
+        }
+        // a type reachable from its own fields cannot be proven immutable by this analysis
+        Set<Class<?>> inProgress = IN_PROGRESS.get();
+        if (!inProgress.add(type)) {
+            return false;
+        }
+        try {
+            for (Class<?> declaring = type; declaring != null && declaring != Object.class;
+                 declaring = declaring.getSuperclass()) {
+                for (Field field : declaring.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers)) {
+                        continue;
+                    }
+                    if (!Modifier.isFinal(modifiers) || !isImmutable(field.getType())) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        } finally {
+            inProgress.remove(type);
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package ru.tolboy.ipcounter;
+
+import ru.tolboy.ipcounter.container.BitSetContainer;
+import ru.tolboy.ipcounter.container.ConcurrentBitmapContainer;
+import ru.tolboy.ipcounter.container.ContainerType;
+import ru.tolboy.ipcounter.container.HyperLogLogContainer;
+import ru.tolboy.ipcounter.container.IntContainer;
+import ru.tolboy.ipcounter.container.PrefixCounts;
+import ru.tolboy.ipcounter.container.RoaringContainer;
+import ru.tolboy.ipcounter.container.SpillingContainer;
+import ru.tolboy.ipcounter.scanner.InputFiles;
+import ru.tolboy.ipcounter.scanner.ScanMode;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Command line options of the IP unique counter task.
+ * <p>
+ * Options are passed as {@code --name=value} pairs, every other argument is treated as a path to a source file,
+ * a directory or a glob. Option values are validated when the arguments are parsed.
+ */
+public class CounterOptions {
+    private static final String OPTION_PREFIX = "--";
+    private static final String MODE = "mode";
+    private static final String THREADS = "threads";
+    private static final String CONTAINER = "container";
+    private static final String PRECISION = "precision";
+    private static final String CHECKPOINT = "checkpoint";
+    private static final String MEMORY_BUDGET = "memory-budget";
+    private static final String SPILL_DIR = "spill-dir";
+    private static final String PROGRESS = "progress";
+    private static final String SUMMARY = "summary";
+    private static final String SUBNETS = "subnets";
+    private static final String TOP = "top";
+    private static final Set<String> KNOWN_OPTIONS = Set.of(MODE, THREADS, CONTAINER, PRECISION, CHECKPOINT,
+            MEMORY_BUDGET, SPILL_DIR, PROGRESS, SUMMARY, SUBNETS, TOP);
+    private static final long DEFAULT_MEMORY_BUDGET = 128L << 20;
+    private static final long DEFAULT_PROGRESS_SECONDS = 10;
+    private static final int DEFAULT_TOP = 100;
+
+    private final List<Path> paths;
+    private final ScanMode mode;
+    private final int threads;
+    private final ContainerType containerType;
+    private final int precision;
+    private final Path checkpoint;
+    private final long memoryBudget;
+    private final Path spillDirectory;
+    private final Duration progressInterval;
+    private final Path summary;
+    private final int subnetPrefixLength;
+    private final int top;
+
+    /**
+     * Every value is parsed and validated here, so a malformed option fails the parsing rather than the run
+     */
+    private CounterOptions(List<Path> paths, Map<String, String> options) {
+        this.paths = Collections.unmodifiableList(paths);
+        String mode = options.get(MODE);
+        this.mode = mode == null ? null : ScanMode.valueOf(mode.toUpperCase(Locale.ROOT));
+        String threads = options.get(THREADS);
+        this.threads = threads == null ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(threads);
+        if (this.threads < 1) {
+            throw new IllegalArgumentException("Threads count must be positive: " + threads);
+        }
+        String type = options.get(CONTAINER);
+        this.containerType = type == null ? ContainerType.CONCURRENT
+                : ContainerType.valueOf(type.toUpperCase(Locale.ROOT));
+        String precision = options.get(PRECISION);
+        this.precision = precision == null ? HyperLogLogContainer.DEFAULT_PRECISION : Integer.parseInt(precision);
+        if (this.precision < HyperLogLogContainer.MIN_PRECISION
+                || this.precision > HyperLogLogContainer.MAX_PRECISION) {
+            throw new IllegalArgumentException("Precision must be from " + HyperLogLogContainer.MIN_PRECISION + " to "
+                    + HyperLogLogContainer.MAX_PRECISION + ": " + precision);
+        }
+        String checkpoint = options.get(CHECKPOINT);
+        this.checkpoint = checkpoint == null ? null : Path.of(checkpoint);
+        String budget = options.get(MEMORY_BUDGET);
+        this.memoryBudget = budget == null ? DEFAULT_MEMORY_BUDGET : parseSize(budget);
+        if (this.memoryBudget < 1) {
+            throw new IllegalArgumentException("Memory budget must be positive: " + budget);
+        }
+        // containers of all workers share the budget
+        if (containerType == ContainerType.SPILL
+                && this.memoryBudget / this.threads < SpillingContainer.MIN_MEMORY_BUDGET) {
+            throw new IllegalArgumentException("Memory budget must be at least " + SpillingContainer.MIN_MEMORY_BUDGET
+                    + " bytes per thread: " + this.memoryBudget + " for " + this.threads + " threads");
+        }
+        String directory = options.get(SPILL_DIR);
+        this.spillDirectory = Path.of(directory == null ? System.getProperty("java.io.tmpdir") : directory);
+        String progress = options.get(PROGRESS);
+        long seconds = progress == null ? DEFAULT_PROGRESS_SECONDS : Long.parseLong(progress);
+        if (seconds < 0) {
+            throw new IllegalArgumentException("Progress interval must not be negative: " + progress);
+        }
+        this.progressInterval = Duration.ofSeconds(seconds);
+        String summary = options.get(SUMMARY);
+        this.summary = summary == null ? null : Path.of(summary);
+        this.subnetPrefixLength = parseSubnetPrefixLength(options.get(SUBNETS));
+        String top = options.get(TOP);
+        this.top = top == null ? DEFAULT_TOP : Integer.parseInt(top);
+        if (this.top < 1) {
+            throw new IllegalArgumentException("Number of subnets must be positive: " + top);
+        }
+    }
+
+    /**
+     * Parse command line arguments
+     *
+     * @param args - command line arguments
+     * @return parsed options
+     * @throws IllegalArgumentException if an option is unknown or malformed
+     */
+    public static CounterOptions parse(String[] args) {
+        List<Path> paths = new ArrayList<>();
+        Map<String, String> options = new HashMap<>();
+        parse(args, KNOWN_OPTIONS, paths, options);
+        return new CounterOptions(paths, options);
+    }
+
+    /**
+     * Split command line arguments into paths and {@code --name=value} options, it is shared by all commands
+     *
+     * @param args         - command line arguments
+     * @param knownOptions - names of the options of the command
+     * @param paths        - list to add the paths to
+     * @param options      - map to put the option values to
+     * @throws IllegalArgumentException if an option is unknown or malformed
+     */
+    static void parse(String[] args, Set<String> knownOptions, List<Path> paths, Map<String, String> options) {
+        for (String arg : args) {
+            if (!arg.startsWith(OPTION_PREFIX)) {
+                paths.add(Path.of(arg));
+                continue;
+            }
+            int separator = arg.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Option value is missing: " + arg);
+            }
+            String name = arg.substring(OPTION_PREFIX.length(), separator);
+            if (!knownOptions.contains(name)) {
+                throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+            options.put(name, arg.substring(separator + 1));
+        }
+    }
+
+    public List<Path> getPaths() {
+        return paths;
+    }
+
+    /**
+     * @param files - resolved source files
+     * @return scan mode, by default {@link ScanMode#MMAP} for one plain file and {@link ScanMode#PIPELINE} otherwise
+     */
+    public ScanMode getMode(List<Path> files) {
+        if (mode != null) {
+            return mode;
+        }
+        return files.size() == 1 && !InputFiles.isGzip(files.get(0)) ? ScanMode.MMAP : ScanMode.PIPELINE;
+    }
+
+    /**
+     * @return number of worker threads, all available processors by default
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @return container type, {@link ContainerType#CONCURRENT} by default
+     */
+    public ContainerType getContainerType() {
+        return containerType;
+    }
+
+    /**
+     * @return precision of {@link ContainerType#HLL} sketches
+     */
+    public int getPrecision() {
+        return precision;
+    }
+
+    /**
+     * @return path to a snapshot file for incremental counting or null if it is disabled
+     */
+    public Path getCheckpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * @return memory budget of {@link ContainerType#SPILL} containers in bytes, 128 MB by default
+     */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * @return directory for spill files, the temporary directory by default
+     */
+    public Path getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    /**
+     * @return interval of progress samples, 10 seconds by default, zero if sampling is disabled
+     */
+    public Duration getProgressInterval() {
+        return progressInterval;
+    }
+
+    /**
+     * @return path to a file for the JSON summary of the scan or null if it is not written
+     */
+    public Path getSummary() {
+        return summary;
+    }
+
+    /**
+     * @return prefix length of subnets to report the busiest of, e.g. 24, or 0 if they are not reported
+     */
+    public int getSubnetPrefixLength() {
+        return subnetPrefixLength;
+    }
+
+    /**
+     * @return number of the busiest subnets to report, 100 by default
+     */
+    public int getTop() {
+        return top;
+    }
+
+    /**
+     * Estimate memory of the containers of one run from above, it is used to admit jobs of a long-running process
+     *
+     * @param inputBytes - total size of the source files
+     * @return estimated memory in bytes
+     */
+    public long estimateMemory(long inputBytes) {
+        switch (getContainerType()) {
+            case CONCURRENT:
+            case BITSET:
+                return ConcurrentBitmapContainer.BYTES;
+            case ROARING:
+                // an address line takes 8 bytes or more, an array partition keeps it in 2 bytes
+                return Math.min(ConcurrentBitmapContainer.BYTES, inputBytes / 4 + (1L << 20)) * getThreads();
+            case HLL:
+                return (1L << getPrecision()) * getThreads();
+            case SPILL:
+                return getMemoryBudget();
+            default:
+                throw new IllegalStateException("Unsupported container type: " + getContainerType());
+        }
+    }
+
+    /**
+     * Create an empty container of the configured type
+     *
+     * @return new container
+     */
+    public IntContainer newContainer() {
+        switch (getContainerType()) {
+            case BITSET:
+                return new BitSetContainer();
+            case CONCURRENT:
+                return new ConcurrentBitmapContainer();
+            case ROARING:
+                return new RoaringContainer();
+            case HLL:
+                return new HyperLogLogContainer(getPrecision());
+            case SPILL:
+                // containers of all workers share the budget
+                return new SpillingContainer(getMemoryBudget() / getThreads(), getSpillDirectory());
+            default:
+                throw new IllegalStateException("Unsupported container type: " + getContainerType());
+        }
+    }
+
+    /**
+     * Parse a subnet prefix length with an optional leading slash, e.g. /24
+     */
+    private static int parseSubnetPrefixLength(String subnets) {
+        if (subnets == null) {
+            return 0;
+        }
+        int length = Integer.parseInt(subnets.startsWith("/") ? subnets.substring(1) : subnets);
+        if (length < PrefixCounts.MIN_PREFIX_LENGTH || length > PrefixCounts.MAX_PREFIX_LENGTH) {
+            throw new IllegalArgumentException("Subnet prefix length must be from " + PrefixCounts.MIN_PREFIX_LENGTH
+                    + " to " + PrefixCounts.MAX_PREFIX_LENGTH + ": " + subnets);
+        }
+        return length;
+    }
+
+    /**
+     * Parse a size with an optional k, m or g suffix, e.g. 256m
+     */
+    static long parseSize(String size) {
+        String value = size.trim().toLowerCase(Locale.ROOT);
+        int shift = 0;
+        switch (value.isEmpty() ? ' ' : value.charAt(value.length() - 1)) {
+            case 'k':
+                shift = 10;
+                break;
+            case 'm':
+                shift = 20;
+                break;
+            case 'g':
+                shift = 30;
+                break;
+            default:
+                return Long.parseLong(value);
+        }
+        return Long.parseLong(value.substring(0, value.length() - 1)) << shift;
+    }
+}
@@ -0,0 +1,118 @@
+package ru.tolboy.ipcounter;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Command line options of the synthetic dataset generator.
+ * <p>
+ * Options are passed as {@code --name=value} pairs like {@link CounterOptions}, the only other argument is the path
+ * to the target file.
+ */
+public class GeneratorOptions {
+    private static final String LINES = "lines";
+    private static final String DISTINCT = "distinct";
+    private static final String IPV6 = "ipv6";
+    private static final String MALFORMED = "malformed";
+    private static final String SKEW = "skew";
+    private static final String SEED = "seed";
+    private static final String THREADS = "threads";
+    private static final Set<String> KNOWN_OPTIONS = Set.of(LINES, DISTINCT, IPV6, MALFORMED, SKEW, SEED, THREADS);
+    private static final long DEFAULT_LINES = 1_000_000_000L;
+    private static final long DEFAULT_SEED = 42;
+
+    private final List<Path> paths;
+    private final Map<String, String> options;
+
+    private GeneratorOptions(List<Path> paths, Map<String, String> options) {
+        this.paths = Collections.unmodifiableList(paths);
+        this.options = Collections.unmodifiableMap(options);
+    }
+
+    /**
+     * Parse command line arguments
+     *
+     * @param args - command line arguments
+     * @return parsed options
+     * @throws IllegalArgumentException if an option is unknown or malformed
+     */
+    public static GeneratorOptions parse(String[] args) {
+        List<Path> paths = new ArrayList<>();
+        Map<String, String> options = new HashMap<>();
+        CounterOptions.parse(args, KNOWN_OPTIONS, paths, options);
+        return new GeneratorOptions(paths, options);
+    }
+
+    /**
+     * @return path to the target file
+     * @throws IllegalArgumentException if there is not exactly one path
+     */
+    public Path getPath() {
+        if (paths.size() != 1) {
+            throw new IllegalArgumentException("Please specify one path to a file to generate: " + paths);
+        }
+        return paths.get(0);
+    }
+
+    /**
+     * @return number of lines, 1 billion by default; underscores are allowed, e.g. 1_000_000
+     */
+    public long getLines() {
+        String lines = options.get(LINES);
+        return lines == null ? DEFAULT_LINES : Long.parseLong(lines.replace("_", ""));
+    }
+
+    /**
+     * @return share of distinct addresses among valid lines, 1 by default
+     */
+    public double getDistinctRatio() {
+        return getDouble(DISTINCT, 1);
+    }
+
+    /**
+     * @return share of IPv6 addresses among distinct ones, 0 by default
+     */
+    public double getIpv6Ratio() {
+        return getDouble(IPV6, 0);
+    }
+
+    /**
+     * @return share of malformed lines, 0 by default
+     */
+    public double getMalformedRate() {
+        return getDouble(MALFORMED, 0);
+    }
+
+    /**
+     * @return exponent of the duplicate distribution, 1 (even) by default
+     */
+    public double getSkew() {
+        return getDouble(SKEW, 1);
+    }
+
+    /**
+     * @return seed of the generated addresses, 42 by default
+     */
+    public long getSeed() {
+        String seed = options.get(SEED);
+        return seed == null ? DEFAULT_SEED : Long.parseLong(seed);
+    }
+
+    /**
+     * @return number of writer threads, all available processors by default
+     */
+    public int getThreads() {
+        String threads = options.get(THREADS);
+        return threads == null ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(threads);
+    }
+
+    private double getDouble(String name, double defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : Double.parseDouble(value);
+    }
+}
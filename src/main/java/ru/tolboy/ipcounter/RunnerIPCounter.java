@@ -1,70 +1,291 @@
 package ru.tolboy.ipcounter;
 
 import org.tinylog.Logger;
-import ru.tolboy.ipcounter.container.BitSetContainer;
+import ru.tolboy.ipcounter.checkpoint.BitmapCheckpoint;
+import ru.tolboy.ipcounter.container.ConcurrentBitmapContainer;
+import ru.tolboy.ipcounter.container.ContainerPool;
+import ru.tolboy.ipcounter.container.ContainerType;
 import ru.tolboy.ipcounter.container.IntContainer;
-import ru.tolboy.ipcounter.converter.IPConverter;
+import ru.tolboy.ipcounter.container.OffHeapInt128Set;
+import ru.tolboy.ipcounter.container.PrefixCounts;
+import ru.tolboy.ipcounter.converter.ParseStats;
+import ru.tolboy.ipcounter.metrics.ProgressSampler;
+import ru.tolboy.ipcounter.metrics.ScanMetrics;
+import ru.tolboy.ipcounter.metrics.ScanStage;
+import ru.tolboy.ipcounter.metrics.ScanSummary;
+import ru.tolboy.ipcounter.scanner.IPScanner;
+import ru.tolboy.ipcounter.scanner.InputFiles;
+import ru.tolboy.ipcounter.scanner.LineStreamScanner;
+import ru.tolboy.ipcounter.scanner.MappedChunkScanner;
+import ru.tolboy.ipcounter.scanner.PipelinedScanner;
+import ru.tolboy.ipcounter.scanner.ScanMode;
 
 import java.io.IOException;
-import java.nio.channels.FileChannel;
-import java.nio.channels.FileLock;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.Objects;
+import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.Callable;
-import java.util.stream.Stream;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * Runner for IP unique counter task
- *
+ * <p>
+ * The scan publishes live {@link ScanMetrics}, which are sampled periodically by a {@link ProgressSampler} and
+ * rendered as a JSON {@link ScanSummary} at the end.
+ * <p>
+ * IPv6 addresses are counted in an {@link OffHeapInt128Set} apart from IPv4 ones, both counts and their sum are
+ * printed if the files have any IPv6 addresses. Incremental counting is IPv4 only: the snapshot holds the bitmap.
+ * <p>
+ * Runs of a long-running process take containers from a shared {@link ContainerPool}: a run reserves its estimated
+ * memory first and returns the cleared bitmaps to the pool at the end, the IPv6 set takes its memory from the pool
+ * budget as it grows. Such runs share the standard output with the
+ * responses of the process, so their console messages go to the log and their pooled threads keep their names.
  */
 public class RunnerIPCounter implements Callable<Long> {
     private final String[] args;
+    private final ContainerPool pool;
+    private final Consumer<String> console;
 
     public RunnerIPCounter(String[] args) {
+        this(args, null);
+    }
+
+    /**
+     * @param args - command line arguments of the run
+     * @param pool - pool of containers shared by runs or null if containers are allocated for this run only
+     */
+    public RunnerIPCounter(String[] args, ContainerPool pool) {
         this.args = args;
+        this.pool = pool;
+        this.console = pool == null ? System.out::println : message -> Logger.info("{}", message);
     }
 
     @Override
     public Long call() {
-        Thread.currentThread().setName(this.getClass().getSimpleName() + "[Thread]");
+        if (pool == null) {
+            Thread.currentThread().setName(this.getClass().getSimpleName() + "[Thread]");
+        }
         long result;
-        System.out.println(Thread.currentThread().getName() + " started");
-        if (args.length != 1) {
-            System.out.println("Please specify a path to a file with IP addresses to process");
+        console.accept(Thread.currentThread().getName() + " started");
+        CounterOptions options;
+        List<Path> files;
+        try {
+            options = CounterOptions.parse(args);
+            files = InputFiles.resolve(options.getPaths());
+        } catch (IllegalArgumentException | IOException e) {
+            console.accept(e.getMessage());
+            Logger.error(e, "Invalid arguments");
+            return -1L;
+        }
+        if (files.isEmpty()) {
+            console.accept("Please specify a path to a file with IP addresses to process");
             Logger.error("No argument found");
             return -1L;
         }
-        Path path = Path.of(args[0]);
-        FileLock lock;
-        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
-            // lock file
-            lock = channel.lock();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        ScanMode mode = options.getMode(files);
+        if (mode != ScanMode.PIPELINE && files.stream().anyMatch(InputFiles::isGzip)) {
+            console.accept("Compressed files are supported in pipeline mode only");
+            Logger.error("Compressed files can not be read in {} mode", mode);
+            return -1L;
         }
+        if (options.getCheckpoint() != null && (files.size() != 1 || mode != ScanMode.MMAP
+                || options.getContainerType() != ContainerType.CONCURRENT)) {
+            console.accept("Incremental counting needs one file, --mode=mmap and --container=concurrent");
+            Logger.error("Checkpoint is not supported for {} files in {} mode and {} container",
+                    files.size(), mode, options.getContainerType());
+            return -1L;
+        }
+        ContainerPool.Lease lease;
+        try {
+            lease = pool == null ? null
+                    : pool.reserve(options.getContainerType(), options.estimateMemory(totalSize(files)));
+        } catch (IllegalArgumentException | IOException e) {
+            console.accept(e.getMessage());
+            Logger.error(e, "Memory can not be reserved");
+            return -1L;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            Logger.warn("Run was interrupted while waiting for memory");
+            return -1L;
+        }
+        Supplier<IntContainer> containerFactory = lease == null ? options::newContainer
+                : () -> lease.acquire(options::newContainer);
+        ScanMetrics metrics = new ScanMetrics();
+        OffHeapInt128Set ipv6 = options.getCheckpoint() == null ? new OffHeapInt128Set(lease) : null;
+        IPScanner scanner = createScanner(mode, options.getThreads(), containerFactory, metrics, ipv6);
+        IntContainer container = containerFactory.get();
+        long ipv4Distinct;
+        long ipv6Distinct = 0;
         Instant startTime = Instant.now();
-        try (Stream<String> ipAddresses = Files.lines(path, StandardCharsets.US_ASCII)) {
-            result = ipAddresses
-                    .mapToInt(new IPConverter())
-                    .collect(BitSetContainer::new, IntContainer::add, IntContainer::addAll)
-                    .countDistinct();
-            // release file
-            Objects.requireNonNull(lock).release();
+        try (ProgressSampler ignored = ProgressSampler.start(metrics, container, options.getProgressInterval())) {
+            metrics.setTotalBytes(totalSize(files));
+            ParseStats stats = files.size() == 1
+                    ? scanLocked(files.get(0), scanner, container, options, metrics)
+                    : scanner.scanAll(files, container);
+            if (stats.getMalformed() > 0) {
+                console.accept("Malformed lines skipped: " + stats.getMalformed() + " of " + stats.getLines());
+                Logger.warn("Malformed lines found: {}", stats);
+            }
+            long countStart = System.nanoTime();
+            ipv4Distinct = container.countDistinct();
+            if (ipv6 != null) {
+                ipv6Distinct = ipv6.size();
+            }
+            metrics.addTime(ScanStage.COUNT, System.nanoTime() - countStart);
+            result = ipv4Distinct + ipv6Distinct;
+            if (ipv6Distinct > 0) {
+                console.accept("Distinct IPv4 addresses: " + ipv4Distinct);
+                console.accept("Distinct IPv6 addresses: " + ipv6Distinct);
+                console.accept("Distinct addresses overall: " + result);
+            }
+            if (options.getSubnetPrefixLength() > 0) {
+                printTopSubnets(container, options.getSubnetPrefixLength(), options.getTop());
+            }
+            if (container.relativeError() > 0) {
+                console.accept(String.format("Distinct IPv4 count is estimated: %d +/- %d (standard error %.2f%%)",
+                        ipv4Distinct, Math.round(ipv4Distinct * container.relativeError()),
+                        container.relativeError() * 100));
+            }
         } catch (IOException e) {
-            System.out.println("Error during processing file: " + path);
+            console.accept("Error during processing files: " + files);
             throw new RuntimeException(e);
+        } finally {
+            // the IPv6 set returns its memory to the lease
+            if (ipv6 != null) {
+                close(ipv6);
+            }
+            if (lease != null) {
+                lease.close();
+            } else if (container instanceof AutoCloseable) {
+                close((AutoCloseable) container);
+            }
         }
 
         Duration executionTime = Duration.between(startTime, Instant.now());
 
-        Logger.info("Time elapsed overall: {0} minutes", executionTime.toMinutes());
-        System.out.println(Thread.currentThread().getName() + " finished");
+        Logger.info("Time elapsed overall: {} minutes ({} files, {} mode, {} container)",
+                executionTime.toMinutes(), files.size(), mode, options.getContainerType());
+        writeSummary(ScanSummary.of(metrics)
+                .put("distinct", result)
+                .put("ipv4Distinct", ipv4Distinct)
+                .put("ipv6Distinct", ipv6Distinct)
+                .put("files", files.size())
+                .put("mode", mode.name())
+                .put("container", options.getContainerType().name())
+                .put("threads", options.getThreads()), options.getSummary());
+        console.accept(Thread.currentThread().getName() + " finished");
 
         return result;
     }
+
+    /**
+     * Scan one file holding a shared lock on it for the whole scan, the lock is shared by concurrent runs
+     */
+    private ParseStats scanLocked(Path path, IPScanner scanner, IntContainer container,
+                                  CounterOptions options, ScanMetrics metrics) throws IOException {
+        try (SharedFileLock ignored = SharedFileLock.acquire(path)) {
+            return options.getCheckpoint() == null
+                    ? scanner.scan(path, container)
+                    : scanIncrementally(path, options.getCheckpoint(), (MappedChunkScanner) scanner,
+                    (ConcurrentBitmapContainer) container, metrics);
+        }
+    }
+
+    /**
+     * Restore the container from the snapshot if it was built from the same file, parse only the complete lines
+     * appended since then and save a new snapshot
+     */
+    private ParseStats scanIncrementally(Path path, Path snapshot, MappedChunkScanner scanner,
+                                         ConcurrentBitmapContainer container, ScanMetrics metrics)
+            throws IOException {
+        long from = 0;
+        Optional<BitmapCheckpoint> checkpoint = BitmapCheckpoint.load(snapshot);
+        if (checkpoint.isPresent() && checkpoint.get().matches(path)) {
+            checkpoint.get().restoreTo(container);
+            from = checkpoint.get().getOffset();
+        } else if (checkpoint.isPresent()) {
+            Logger.warn("Snapshot {} does not match {}, the file is counted from scratch", snapshot, path);
+        }
+        long to = MappedChunkScanner.completeLinesEnd(path);
+        metrics.setTotalBytes(to - from);
+        ParseStats stats = scanner.scan(path, container, from, to);
+        BitmapCheckpoint.save(snapshot, container, path, to);
+        console.accept("Bytes parsed incrementally: " + (to - from) + " (from offset " + from + ")");
+        return stats;
+    }
+
+    /**
+     * Print the subnets with the most distinct addresses, counted from the container without another scan
+     */
+    private void printTopSubnets(IntContainer container, int prefixLength, int top) {
+        PrefixCounts counts;
+        try {
+            counts = container.countByPrefix(prefixLength);
+        } catch (UnsupportedOperationException e) {
+            console.accept("Subnet counts are not supported by " + container.getClass().getSimpleName());
+            return;
+        }
+        List<PrefixCounts.Prefix> prefixes = counts.top(top);
+        console.accept("Top " + prefixes.size() + " /" + prefixLength + " subnets by distinct addresses:");
+        for (PrefixCounts.Prefix prefix : prefixes) {
+            console.accept(prefix + " " + prefix.getCount());
+        }
+    }
+
+    private static long totalSize(List<Path> files) throws IOException {
+        long size = 0;
+        for (Path file : files) {
+            size += Files.size(file);
+        }
+        return size;
+    }
+
+    /**
+     * Log the summary and write it to the file if it is requested
+     */
+    private static void writeSummary(ScanSummary summary, Path file) {
+        Logger.info("Scan summary: {}", summary);
+        if (file == null) {
+            return;
+        }
+        try {
+            summary.writeTo(file);
+        } catch (IOException e) {
+            Logger.warn(e, "Can not write the summary to {}", file);
+        }
+    }
+
+    static void close(AutoCloseable resource) {
+        try {
+            resource.close();
+        } catch (Exception e) {
+            Logger.warn(e, "Can not release {}", resource);
+        }
+    }
+
+    static IPScanner createScanner(ScanMode mode, int threads, CounterOptions options) {
+        return createScanner(mode, threads, options, new ScanMetrics());
+    }
+
+    static IPScanner createScanner(ScanMode mode, int threads, CounterOptions options, ScanMetrics metrics) {
+        return createScanner(mode, threads, options::newContainer, metrics, null);
+    }
+
+    static IPScanner createScanner(ScanMode mode, int threads, Supplier<? extends IntContainer> containerFactory,
+                                   ScanMetrics metrics, OffHeapInt128Set ipv6) {
+        switch (mode) {
+            case LINES:
+                return new LineStreamScanner(metrics, ipv6);
+            case MMAP:
+                return new MappedChunkScanner(threads, containerFactory, metrics, ipv6);
+            case PIPELINE:
+                return new PipelinedScanner(threads, containerFactory, metrics, ipv6);
+            default:
+                throw new IllegalStateException("Unsupported scan mode: " + mode);
+        }
+    }
 }
@@ -0,0 +1,63 @@
+package ru.tolboy.ipcounter;
+
+import org.tinylog.Logger;
+import ru.tolboy.ipcounter.generator.DatasetGenerator;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.Callable;
+
+/**
+ * Runner for the synthetic dataset generator: writes a file of IP addresses and prints the distinct count which
+ * {@link RunnerIPCounter} must report for it.
+ */
+public class RunnerIPGenerator implements Callable<Long> {
+    private final String[] args;
+
+    public RunnerIPGenerator(String[] args) {
+        this.args = args;
+    }
+
+    /**
+     * @return expected count of distinct addresses or -1 if the arguments are invalid
+     */
+    @Override
+    public Long call() {
+        Thread.currentThread().setName(this.getClass().getSimpleName() + "[Thread]");
+        System.out.println(Thread.currentThread().getName() + " started");
+        Path path;
+        DatasetGenerator generator;
+        try {
+            GeneratorOptions options = GeneratorOptions.parse(args);
+            path = options.getPath();
+            generator = new DatasetGenerator(options.getLines(), options.getDistinctRatio(), options.getIpv6Ratio(),
+                    options.getMalformedRate(), options.getSkew(), options.getSeed(), options.getThreads());
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            Logger.error(e, "Invalid arguments");
+            return -1L;
+        }
+        Instant startTime = Instant.now();
+        DatasetGenerator.Result result;
+        try {
+            result = generator.generate(path);
+        } catch (IOException e) {
+            System.out.println("Error during writing file: " + path);
+            throw new RuntimeException(e);
+        }
+        Duration executionTime = Duration.between(startTime, Instant.now());
+        double seconds = Math.max(1, executionTime.toMillis()) / 1000.0;
+
+        System.out.println("Lines written: " + result.getLines() + " (" + result.getMalformed() + " malformed, "
+                + result.getIpv6Lines() + " IPv6), bytes: " + result.getBytes());
+        System.out.println("Expected distinct IPv4 addresses: " + result.getIpv4Distinct());
+        System.out.println("Expected distinct IPv6 addresses: " + result.getIpv6Distinct());
+        System.out.println("Expected distinct addresses overall: " + result.getDistinct());
+        Logger.info("Generated {} in {} ms ({} MB/s): {}", path, executionTime.toMillis(),
+                Math.round(result.getBytes() / seconds / (1 << 20)), result);
+        System.out.println(Thread.currentThread().getName() + " finished");
+        return result.getDistinct();
+    }
+}
@@ -0,0 +1,132 @@
+package ru.tolboy.ipcounter;
+
+import org.tinylog.Logger;
+import ru.tolboy.ipcounter.container.IntContainer;
+import ru.tolboy.ipcounter.scanner.IPScanner;
+import ru.tolboy.ipcounter.scanner.InputFiles;
+import ru.tolboy.ipcounter.scanner.ScanMode;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runner for IP overlap task: every path argument (a file, a directory or a glob) is counted into its own container,
+ * then the matrix of pairwise intersections and differences is printed.
+ *
+ */
+public class RunnerIPOverlap implements Callable<long[][]> {
+    private final String[] args;
+
+    public RunnerIPOverlap(String[] args) {
+        this.args = args;
+    }
+
+    /**
+     * @return matrix of intersection counts, the diagonal holds distinct counts of the sets
+     */
+    @Override
+    public long[][] call() throws Exception {
+        Thread.currentThread().setName(this.getClass().getSimpleName() + "[Thread]");
+        System.out.println(Thread.currentThread().getName() + " started");
+        CounterOptions options;
+        try {
+            options = CounterOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            Logger.error(e, "Invalid arguments");
+            return new long[0][0];
+        }
+        List<Path> sets = options.getPaths();
+        if (sets.size() < 2) {
+            System.out.println("Please specify at least two files, directories or globs to compare");
+            Logger.error("Not enough arguments found");
+            return new long[0][0];
+        }
+        List<IntContainer> containers = build(sets, options);
+        try {
+            long[][] intersections = new long[sets.size()][sets.size()];
+            long[][] differences = new long[sets.size()][sets.size()];
+            for (int i = 0; i < sets.size(); i++) {
+                for (int j = 0; j < sets.size(); j++) {
+                    IntContainer row = containers.get(i);
+                    intersections[i][j] = i == j ? row.countDistinct() : row.intersectCardinality(containers.get(j));
+                    differences[i][j] = i == j ? 0 : row.andNotCardinality(containers.get(j));
+                }
+            }
+            print("Distinct addresses (diagonal) and intersections:", sets, intersections);
+            print("Addresses present in the row set only:", sets, differences);
+            System.out.println(Thread.currentThread().getName() + " finished");
+            return intersections;
+        } finally {
+            for (IntContainer container : containers) {
+                if (container instanceof AutoCloseable) {
+                    RunnerIPCounter.close((AutoCloseable) container);
+                }
+            }
+        }
+    }
+
+    /**
+     * Count every set into its own container, the sets are scanned in parallel sharing the worker threads
+     */
+    private static List<IntContainer> build(List<Path> sets, CounterOptions options)
+            throws IOException, InterruptedException {
+        int threadsPerSet = Math.max(1, options.getThreads() / sets.size());
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(sets.size(), options.getThreads()));
+        try {
+            List<Future<IntContainer>> results = new ArrayList<>(sets.size());
+            for (Path set : sets) {
+                results.add(executor.submit(() -> {
+                    List<Path> files = InputFiles.resolve(List.of(set));
+                    ScanMode mode = options.getMode(files);
+                    IPScanner scanner = RunnerIPCounter.createScanner(mode, threadsPerSet, options);
+                    IntContainer container = options.newContainer();
+                    Logger.info("Set {} is counted from {} files: {}", set, files.size(), scanner.scanAll(files, container));
+                    return container;
+                }));
+            }
+            List<IntContainer> containers = new ArrayList<>(sets.size());
+            for (Future<IntContainer> result : results) {
+                containers.add(result.get());
+            }
+            return containers;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void print(String title, List<Path> sets, long[][] matrix) {
+        int width = sets.stream().mapToInt(set -> set.toString().length()).max().orElse(0);
+        for (long[] row : matrix) {
+            for (long value : row) {
+                width = Math.max(width, Long.toString(value).length());
+            }
+        }
+        String cell = " %" + width + "s";
+        System.out.println(title);
+        StringBuilder header = new StringBuilder(String.format(cell, ""));
+        for (Path set : sets) {
+            header.append(String.format(cell, set));
+        }
+        System.out.println(header);
+        for (int i = 0; i < sets.size(); i++) {
+            StringBuilder line = new StringBuilder(String.format(cell, sets.get(i)));
+            for (long value : matrix[i]) {
+                line.append(String.format(cell, value));
+            }
+            System.out.println(line);
+        }
+    }
+}
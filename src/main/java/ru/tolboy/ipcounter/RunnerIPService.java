@@ -0,0 +1,200 @@
+package ru.tolboy.ipcounter;
+
+import org.tinylog.Logger;
+import ru.tolboy.ipcounter.container.ContainerPool;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runner for the long-running counting service: jobs are read line by line from the standard input or from
+ * connections to a loopback port, so they run in a warm JVM and reuse bitmaps of a shared {@link ContainerPool}.
+ * <p>
+ * A job line holds the arguments of {@link RunnerIPCounter} separated by whitespace, e.g.
+ * {@code logs/today --container=roaring}. The service answers {@code <id> queued} at once and {@code <id> <count>}
+ * or {@code <id> error <message>} when the job ends, jobs may end in any order. {@value #QUIT} ends the session
+ * after its jobs, {@value #SHUTDOWN} stops the whole service.
+ * <p>
+ * Jobs run on virtual threads if the runtime has them, they are looked up by reflection as the code targets Java 11,
+ * otherwise on a fixed thread pool. The memory budget of the pool admits jobs in both cases.
+ */
+public class RunnerIPService implements Callable<Long> {
+    private static final String QUIT = "quit";
+    private static final String SHUTDOWN = "shutdown";
+    private static final long TERMINATION_SECONDS = 60;
+
+    private final String[] args;
+    private final AtomicLong jobIds = new AtomicLong();
+    private volatile boolean stopped;
+    private volatile ServerSocket server;
+
+    public RunnerIPService(String[] args) {
+        this.args = args;
+    }
+
+    /**
+     * @return number of accepted jobs or -1 if the arguments are invalid
+     */
+    @Override
+    public Long call() throws Exception {
+        Thread.currentThread().setName(this.getClass().getSimpleName() + "[Thread]");
+        System.out.println(Thread.currentThread().getName() + " started");
+        ServiceOptions options;
+        ContainerPool pool;
+        try {
+            options = ServiceOptions.parse(args);
+            pool = new ContainerPool(options.getMemoryBudget(), options.getIdle());
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            Logger.error(e, "Invalid arguments");
+            return -1L;
+        }
+        ExecutorService jobs = newJobExecutor(options.isVirtualExecutor(), options.getJobs());
+        Logger.info("Serving jobs with {} MB memory budget", pool.availableMegabytes());
+        try {
+            if (options.getPort() == 0) {
+                serve(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)),
+                        new PrintWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), true), jobs, pool);
+            } else {
+                listen(options.getPort(), jobs, pool);
+            }
+        } finally {
+            jobs.shutdown();
+            if (!jobs.awaitTermination(TERMINATION_SECONDS, TimeUnit.SECONDS)) {
+                Logger.warn("Jobs did not end in {} seconds", TERMINATION_SECONDS);
+            }
+            pool.evictIdle();
+        }
+        System.out.println(Thread.currentThread().getName() + " finished");
+        return jobIds.get();
+    }
+
+    /**
+     * Accept connections until {@value #SHUTDOWN} is received, every connection is served on its own thread
+     */
+    private void listen(int port, ExecutorService jobs, ContainerPool pool) throws IOException {
+        ExecutorService sessions = Executors.newCachedThreadPool();
+        try (ServerSocket serverSocket = new ServerSocket(port, 0, InetAddress.getLoopbackAddress())) {
+            server = serverSocket;
+            Logger.info("Accepting jobs on {}", serverSocket.getLocalSocketAddress());
+            while (!stopped) {
+                Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (IOException e) {
+                    if (stopped) {
+                        break;
+                    }
+                    throw e;
+                }
+                sessions.submit(() -> {
+                    try (Socket session = socket) {
+                        serve(new BufferedReader(new InputStreamReader(session.getInputStream(),
+                                        StandardCharsets.UTF_8)),
+                                new PrintWriter(new OutputStreamWriter(session.getOutputStream(),
+                                        StandardCharsets.UTF_8), true), jobs, pool);
+                    }
+                    return null;
+                });
+            }
+        } finally {
+            sessions.shutdown();
+        }
+    }
+
+    /**
+     * Submit every job line of the session and wait for the jobs before the session ends
+     */
+    void serve(BufferedReader input, PrintWriter output, ExecutorService jobs, ContainerPool pool)
+            throws IOException, InterruptedException {
+        List<Future<?>> pending = new ArrayList<>();
+        for (String line = input.readLine(); line != null && !stopped; line = input.readLine()) {
+            String command = line.trim();
+            if (command.isEmpty()) {
+                continue;
+            }
+            if (QUIT.equals(command)) {
+                break;
+            }
+            if (SHUTDOWN.equals(command)) {
+                stop();
+                break;
+            }
+            long id = jobIds.incrementAndGet();
+            String[] jobArgs = command.split("\\s+");
+            respond(output, id + " queued");
+            pending.add(jobs.submit(() -> respond(output, id + " " + run(jobArgs, pool))));
+        }
+        for (Future<?> job : pending) {
+            try {
+                job.get();
+            } catch (ExecutionException e) {
+                Logger.error(e.getCause(), "Job failed");
+            }
+        }
+    }
+
+    /**
+     * @return count of the job or an error response, a failed job never goes without a response
+     */
+    static String run(String[] jobArgs, ContainerPool pool) {
+        try {
+            long distinct = new RunnerIPCounter(jobArgs, pool).call();
+            return distinct < 0 ? "error invalid job, see the log" : String.valueOf(distinct);
+        } catch (Exception e) {
+            Logger.error(e, "Job failed: {}", String.join(" ", jobArgs));
+            // the cause of a wrapped checked exception tells more
+            Throwable cause = e.getClass() == RuntimeException.class && e.getCause() != null ? e.getCause() : e;
+            return "error " + cause.getClass().getSimpleName() + ": " + cause.getMessage();
+        }
+    }
+
+    private static void respond(PrintWriter output, String response) {
+        synchronized (output) {
+            output.println(response);
+        }
+    }
+
+    private void stop() throws IOException {
+        stopped = true;
+        ServerSocket serverSocket = server;
+        if (serverSocket != null) {
+            serverSocket.close();
+        }
+    }
+
+    /**
+     * @param virtual - whether virtual threads are preferred
+     * @param jobs    - number of platform threads if virtual threads are not preferred or not supported
+     * @return executor of jobs
+     */
+    static ExecutorService newJobExecutor(boolean virtual, int jobs) {
+        if (virtual) {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (NoSuchMethodException e) {
+                Logger.warn("Virtual threads are not supported by Java {}, {} platform threads run jobs",
+                        Runtime.version().feature(), jobs);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Virtual thread executor can not be created", e);
+            }
+        }
+        return Executors.newFixedThreadPool(jobs);
+    }
+}
@@ -0,0 +1,115 @@
+package ru.tolboy.ipcounter;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Command line options of the long-running counting service.
+ * <p>
+ * Options are passed as {@code --name=value} pairs like {@link CounterOptions}, paths are not accepted: they come
+ * with the jobs. Option values are validated when the arguments are parsed.
+ */
+public class ServiceOptions {
+    private static final String PORT = "port";
+    private static final String EXECUTOR = "executor";
+    private static final String JOBS = "jobs";
+    private static final String MEMORY_BUDGET = "memory-budget";
+    private static final String IDLE = "idle";
+    private static final Set<String> KNOWN_OPTIONS = Set.of(PORT, EXECUTOR, JOBS, MEMORY_BUDGET, IDLE);
+    private static final String VIRTUAL = "virtual";
+    private static final String FIXED = "fixed";
+    private static final int DEFAULT_JOBS = 2;
+    private static final int DEFAULT_IDLE = 2;
+
+    private final int port;
+    private final boolean virtualExecutor;
+    private final int jobs;
+    private final long memoryBudget;
+    private final int idle;
+
+    /**
+     * Every value is parsed and validated here, so a malformed option fails the parsing rather than the service
+     */
+    private ServiceOptions(Map<String, String> options) {
+        String port = options.get(PORT);
+        this.port = port == null ? 0 : Integer.parseInt(port);
+        if (this.port < 0 || this.port > 0xFFFF) {
+            throw new IllegalArgumentException("Port must be from 0 to 65535: " + port);
+        }
+        String executor = options.getOrDefault(EXECUTOR, VIRTUAL).toLowerCase(Locale.ROOT);
+        if (!VIRTUAL.equals(executor) && !FIXED.equals(executor)) {
+            throw new IllegalArgumentException("Executor must be " + VIRTUAL + " or " + FIXED + ": " + executor);
+        }
+        this.virtualExecutor = VIRTUAL.equals(executor);
+        String jobs = options.get(JOBS);
+        this.jobs = jobs == null ? DEFAULT_JOBS : Integer.parseInt(jobs);
+        if (this.jobs < 1) {
+            throw new IllegalArgumentException("Number of jobs must be positive: " + jobs);
+        }
+        String budget = options.get(MEMORY_BUDGET);
+        this.memoryBudget = budget == null ? Runtime.getRuntime().maxMemory() / 4 * 3
+                : CounterOptions.parseSize(budget);
+        String idle = options.get(IDLE);
+        this.idle = idle == null ? DEFAULT_IDLE : Integer.parseInt(idle);
+        if (this.idle < 0) {
+            throw new IllegalArgumentException("Number of idle containers must not be negative: " + idle);
+        }
+    }
+
+    /**
+     * Parse command line arguments
+     *
+     * @param args - command line arguments
+     * @return parsed options
+     * @throws IllegalArgumentException if an option is unknown or malformed or there is a path
+     */
+    public static ServiceOptions parse(String[] args) {
+        List<Path> paths = new ArrayList<>();
+        Map<String, String> options = new HashMap<>();
+        CounterOptions.parse(args, KNOWN_OPTIONS, paths, options);
+        if (!paths.isEmpty()) {
+            throw new IllegalArgumentException("Paths are passed with jobs, not to the service: " + paths);
+        }
+        return new ServiceOptions(options);
+    }
+
+    /**
+     * @return loopback port to accept jobs on or 0 if jobs are read from the standard input
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return whether jobs run on virtual threads, which is the default if the runtime supports them
+     */
+    public boolean isVirtualExecutor() {
+        return virtualExecutor;
+    }
+
+    /**
+     * @return number of jobs run at once by the fixed executor, 2 by default
+     */
+    public int getJobs() {
+        return jobs;
+    }
+
+    /**
+     * @return memory of all running jobs and idle containers in bytes, 3/4 of the max heap by default
+     */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * @return max number of idle containers of every type kept for next jobs, 2 by default
+     */
+    public int getIdle() {
+        return idle;
+    }
+}
@@ -0,0 +1,155 @@
+package ru.tolboy.ipcounter;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Shared lock on a whole file held while the file is scanned, so other processes can not rewrite it meanwhile.
+ * <p>
+ * File locks are held on behalf of the whole process and a second lock of the same file throws
+ * {@link OverlappingFileLockException}, so concurrent runs of a long-running process share one lock per file:
+ * the first run takes it, the last one releases it. Every {@link #acquire} must be followed by one {@link #close}.
+ * <p>
+ * The map of locks is guarded by a global monitor, but the lock of the file is taken and released outside of it:
+ * taking it may wait for another process, which must not stall the runs of other files. Runs of the same file wait
+ * for the first one to take the lock, a run which comes while the lock is being released waits for the release.
+ */
+final class SharedFileLock implements AutoCloseable {
+    private static final Map<Path, SharedFileLock> LOCKS = new HashMap<>();
+
+    private final Path path;
+    private final CompletableFuture<Void> locked = new CompletableFuture<>();
+    private final CompletableFuture<Void> released = new CompletableFuture<>();
+    // set by the first holder before locked is completed
+    private FileChannel channel;
+    private FileLock lock;
+    private int holders;
+    private boolean closing;
+
+    private SharedFileLock(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Take the lock of the file, waiting if another process holds an exclusive lock
+     *
+     * @param file - file to scan
+     * @return lock which must be closed when the scan ends
+     * @throws IOException if the file can not be opened or it is locked by other code of this process
+     */
+    static SharedFileLock acquire(Path file) throws IOException {
+        Path path = file.toAbsolutePath().normalize();
+        while (true) {
+            SharedFileLock shared;
+            boolean first = false;
+            boolean closing;
+            synchronized (LOCKS) {
+                shared = LOCKS.get(path);
+                if (shared == null) {
+                    shared = new SharedFileLock(path);
+                    LOCKS.put(path, shared);
+                    first = true;
+                }
+                closing = shared.closing;
+                if (!closing) {
+                    shared.holders++;
+                }
+            }
+            if (first) {
+                shared.lock();
+                return shared;
+            }
+            if (closing) {
+                await(shared, shared.released);
+                continue;
+            }
+            try {
+                await(shared, shared.locked);
+            } catch (InterruptedIOException e) {
+                shared.close();
+                throw e;
+            }
+            return shared;
+        }
+    }
+
+    /**
+     * Release the lock if this is its last holder, nothing is released if the lock was not taken
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (LOCKS) {
+            if (--holders > 0 || closing) {
+                return;
+            }
+            closing = true;
+        }
+        try {
+            lock.release();
+        } finally {
+            try {
+                channel.close();
+            } finally {
+                forget();
+            }
+        }
+    }
+
+    private void lock() throws IOException {
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                lock = channel.lock(0, Long.MAX_VALUE, true);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        } catch (OverlappingFileLockException e) {
+            IOException failure = new IOException("File is locked by other code of this process: " + path, e);
+            fail(failure);
+            throw failure;
+        } catch (IOException | RuntimeException e) {
+            fail(e);
+            throw e;
+        }
+        locked.complete(null);
+    }
+
+    /**
+     * Drop the lock which was not taken, the runs waiting for it fail too
+     */
+    private void fail(Exception e) {
+        synchronized (LOCKS) {
+            closing = true;
+        }
+        locked.completeExceptionally(e);
+        forget();
+    }
+
+    private void forget() {
+        synchronized (LOCKS) {
+            LOCKS.remove(path, this);
+        }
+        released.complete(null);
+    }
+
+    private static void await(SharedFileLock shared, CompletableFuture<Void> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the lock of " + shared.path);
+        } catch (ExecutionException e) {
+            throw new IOException("File can not be locked: " + shared.path, e.getCause());
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package ru.tolboy.ipcounter.checkpoint;
+
+import ru.tolboy.ipcounter.container.ConcurrentBitmapContainer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import java.util.zip.CRC32;
+
+/**
+ * Snapshot of a {@link ConcurrentBitmapContainer} filled from the beginning of an append-only source file up to
+ * some offset, so the next run can parse only the bytes appended since then.
+ * <p>
+ * The snapshot file is a fixed {@value #HEADER_SIZE} bytes header followed by the raw bitmap words. It is written
+ * and read through a memory mapping, zero words are never written, so the file stays sparse on disk. To notice
+ * a rotated or rewritten source, the header keeps a CRC32 fingerprint of the source head.
+ */
+public class BitmapCheckpoint {
+    private static final int MAGIC = 0x49504348; // "IPCH"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int FINGERPRINT_BYTES = 64 * 1024;
+
+    private final Path snapshot;
+    private final long offset;
+    private final long fingerprint;
+
+    private BitmapCheckpoint(Path snapshot, long offset, long fingerprint) {
+        this.snapshot = snapshot;
+        this.offset = offset;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Load a snapshot header, the bitmap itself is loaded by {@link #restoreTo}
+     *
+     * @param snapshot - path to a snapshot file
+     * @return checkpoint or empty if there is no snapshot file
+     * @throws IOException if the file can not be read or it is not a snapshot
+     */
+    public static Optional<BitmapCheckpoint> load(Path snapshot) throws IOException {
+        if (!Files.exists(snapshot)) {
+            return Optional.empty();
+        }
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            if (channel.size() != HEADER_SIZE + ConcurrentBitmapContainer.BYTES
+                    || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                throw new IOException("Not a bitmap snapshot: " + snapshot);
+            }
+            return Optional.of(new BitmapCheckpoint(snapshot, header.getLong(8), header.getLong(16)));
+        }
+    }
+
+    /**
+     * Replace the container bitmap with the snapshot one, the snapshot is memory-mapped and copied in bulk
+     *
+     * @param container - container to restore
+     * @throws IOException if the snapshot can not be read
+     */
+    public void restoreTo(ConcurrentBitmapContainer container) throws IOException {
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE,
+                    ConcurrentBitmapContainer.BYTES);
+            container.readFrom(buffer.asLongBuffer());
+        }
+    }
+
+    /**
+     * Save a snapshot, the previous snapshot is replaced atomically
+     *
+     * @param snapshot  - path to a snapshot file
+     * @param container - container filled from the source up to the offset
+     * @param source    - source file
+     * @param offset    - offset of the first not processed byte of the source
+     * @throws IOException if the file can not be written
+     */
+    public static void save(Path snapshot, ConcurrentBitmapContainer container, Path source, long offset)
+            throws IOException {
+        Path temporary = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    HEADER_SIZE + ConcurrentBitmapContainer.BYTES);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putLong(8, offset);
+            buffer.putLong(16, fingerprint(source, offset));
+            container.writeTo(buffer.position(HEADER_SIZE).slice().asLongBuffer());
+            buffer.force();
+        }
+        Files.move(temporary, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Check that the source still starts with the bytes the snapshot was built from
+     *
+     * @param source - source file
+     * @return true if the source can be processed from {@link #getOffset()}
+     * @throws IOException if the source can not be read
+     */
+    public boolean matches(Path source) throws IOException {
+        return Files.size(source) >= offset && fingerprint(source, offset) == fingerprint;
+    }
+
+    /**
+     * @return offset of the first source byte which is not in the container yet
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    private static long fingerprint(Path source, long offset) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate((int) Math.min(offset, FINGERPRINT_BYTES));
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            int read;
+            do {
+                read = channel.read(head, head.position());
+            } while (read > 0 && head.hasRemaining());
+        }
+        CRC32 crc = new CRC32();
+        crc.update(head.flip());
+        return crc.getValue();
+    }
+}
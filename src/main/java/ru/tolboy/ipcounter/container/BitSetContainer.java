@@ -6,6 +6,9 @@ import java.util.BitSet;
  * An implementation of {@link IntContainer} that uses two {@link BitSet} for storing of int numbers.
  */
 public class BitSetContainer implements IntContainer {
+    // bits of one range copied out of both sets to count their intersection, 2 MB per copy
+    private static final int COUNT_RANGE = 1 << 24;
+
     private final BitSet positive = new BitSet(Integer.MAX_VALUE);
     private final BitSet negative = new BitSet(Integer.MAX_VALUE);
 
@@ -18,9 +21,78 @@ public class BitSetContainer implements IntContainer {
         }
     }
 
+    @Override
+    public void addAll(IntContainer other) {
+        BitSetContainer bitSetContainer = bitSetContainer(other);
+        positive.or(bitSetContainer.positive);
+        negative.or(bitSetContainer.negative);
+    }
+
+    @Override
+    public void intersect(IntContainer other) {
+        BitSetContainer bitSetContainer = bitSetContainer(other);
+        positive.and(bitSetContainer.positive);
+        negative.and(bitSetContainer.negative);
+    }
+
+    @Override
+    public void andNot(IntContainer other) {
+        BitSetContainer bitSetContainer = bitSetContainer(other);
+        positive.andNot(bitSetContainer.positive);
+        negative.andNot(bitSetContainer.negative);
+    }
+
+    /**
+     * Count common numbers range by range: ranges of both sets are copied out as words and intersected, so the
+     * containers are not changed and no copy of a whole set is made.
+     *
+     * @param other int container
+     * @return count of numbers present in both containers
+     */
+    @Override
+    public long intersectCardinality(IntContainer other) {
+        BitSetContainer bitSetContainer = bitSetContainer(other);
+        return intersectCardinality(positive, bitSetContainer.positive)
+                + intersectCardinality(negative, bitSetContainer.negative);
+    }
+
     @Override
     public long countDistinct() {
         return (long) positive.cardinality() + negative.cardinality();
     }
-}
 
+    @Override
+    public void clear() {
+        positive.clear();
+        negative.clear();
+    }
+
+    @Override
+    public boolean isFixedSize() {
+        return true;
+    }
+
+    private static long intersectCardinality(BitSet first, BitSet second) {
+        long count = 0;
+        int end = Math.min(first.length(), second.length());
+        for (int from = 0; from < end; from += Math.min(COUNT_RANGE, end - from)) {
+            int to = from + Math.min(COUNT_RANGE, end - from);
+            int firstSet = first.nextSetBit(from);
+            int secondSet = second.nextSetBit(from);
+            if (firstSet < 0 || firstSet >= to || secondSet < 0 || secondSet >= to) {
+                continue;
+            }
+            BitSet range = first.get(from, to);
+            range.and(second.get(from, to));
+            count += range.cardinality();
+        }
+        return count;
+    }
+
+    private static BitSetContainer bitSetContainer(IntContainer other) {
+        if (!(other instanceof BitSetContainer)) {
+            throw new UnsupportedOperationException("Unsupported container: " + other.getClass());
+        }
+        return (BitSetContainer) other;
+    }
+}
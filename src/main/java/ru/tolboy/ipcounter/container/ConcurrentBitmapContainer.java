@@ -0,0 +1,196 @@
+package ru.tolboy.ipcounter.container;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * An implementation of {@link IntContainer} that uses one flat bitmap of 2^32 bits (512 MB) for storing of int
+ * numbers. The bitmap can be shared by many threads: words are updated lock-free via CAS.
+ */
+public class ConcurrentBitmapContainer implements IntContainer {
+    /**
+     * Size of the bitmap in bytes
+     */
+    public static final long BYTES = (1L << 32) / Byte.SIZE;
+    private static final int WORDS = 1 << 26;
+    private static final int COUNT_RANGE = 1 << 16;
+    private static final int SAMPLE_STEP = 1 << 10;
+    private static final VarHandle WORD = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final long[] words = new long[WORDS];
+
+    @Override
+    public void add(int number) {
+        int index = number >>> 6;
+        long mask = 1L << number;
+        long word = (long) WORD.getOpaque(words, index);
+        while ((word & mask) == 0) {
+            long witness = (long) WORD.compareAndExchange(words, index, word, word | mask);
+            if (witness == word) {
+                return;
+            }
+            word = witness;
+        }
+    }
+
+    /**
+     * Merge the other bitmap word by word, it is safe to call it while other threads add numbers to this container.
+     *
+     * @param other int container
+     */
+    @Override
+    public void addAll(IntContainer other) {
+        long[] otherWords = words(other);
+        IntStream.range(0, WORDS / COUNT_RANGE).parallel().forEach(range -> {
+            for (int i = range * COUNT_RANGE, end = i + COUNT_RANGE; i < end; i++) {
+                long word = otherWords[i];
+                if (word != 0 && (words[i] & word) != word) {
+                    WORD.getAndBitwiseOr(words, i, word);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void intersect(IntContainer other) {
+        long[] otherWords = words(other);
+        IntStream.range(0, WORDS / COUNT_RANGE).parallel().forEach(range -> {
+            for (int i = range * COUNT_RANGE, end = i + COUNT_RANGE; i < end; i++) {
+                if ((words[i] & ~otherWords[i]) != 0) {
+                    WORD.getAndBitwiseAnd(words, i, otherWords[i]);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void andNot(IntContainer other) {
+        long[] otherWords = words(other);
+        IntStream.range(0, WORDS / COUNT_RANGE).parallel().forEach(range -> {
+            for (int i = range * COUNT_RANGE, end = i + COUNT_RANGE; i < end; i++) {
+                if ((words[i] & otherWords[i]) != 0) {
+                    WORD.getAndBitwiseAnd(words, i, ~otherWords[i]);
+                }
+            }
+        });
+    }
+
+    @Override
+    public long intersectCardinality(IntContainer other) {
+        long[] otherWords = words(other);
+        return IntStream.range(0, WORDS / COUNT_RANGE).parallel().mapToLong(range -> {
+            long count = 0;
+            for (int i = range * COUNT_RANGE, end = i + COUNT_RANGE; i < end; i++) {
+                count += Long.bitCount(words[i] & otherWords[i]);
+            }
+            return count;
+        }).sum();
+    }
+
+    @Override
+    public long countDistinct() {
+        return IntStream.range(0, WORDS / COUNT_RANGE).parallel().mapToLong(range -> {
+            long count = 0;
+            for (int i = range * COUNT_RANGE, end = i + COUNT_RANGE; i < end; i++) {
+                count += Long.bitCount(words[i]);
+            }
+            return count;
+        }).sum();
+    }
+
+    /**
+     * Count the bits of every prefix in one parallel pass over the words. Words are split into groups of at least
+     * {@value #COUNT_RANGE} words aligned to prefixes, so every task writes the counts of its own prefixes.
+     *
+     * @param prefixLength - number of high bits, from {@value PrefixCounts#MIN_PREFIX_LENGTH} to
+     *                     {@value PrefixCounts#MAX_PREFIX_LENGTH}
+     * @return counts of distinct numbers per prefix
+     */
+    @Override
+    public PrefixCounts countByPrefix(int prefixLength) {
+        PrefixCounts.checkPrefixLength(prefixLength);
+        int[] counts = new int[1 << prefixLength];
+        int prefixWords = WORDS >>> prefixLength;
+        int groupWords = Math.max(prefixWords, COUNT_RANGE);
+        IntStream.range(0, WORDS / groupWords).parallel().forEach(group -> {
+            for (int prefixStart = group * groupWords, groupEnd = prefixStart + groupWords; prefixStart < groupEnd;
+                 prefixStart += prefixWords) {
+                int count = 0;
+                for (int i = prefixStart, end = prefixStart + prefixWords; i < end; i++) {
+                    count += Long.bitCount(words[i]);
+                }
+                counts[prefixStart / prefixWords] = count;
+            }
+        });
+        return new PrefixCounts(prefixLength, counts);
+    }
+
+    /**
+     * Zero the words in parallel, no numbers must be added meanwhile
+     */
+    @Override
+    public void clear() {
+        IntStream.range(0, WORDS / COUNT_RANGE).parallel()
+                .forEach(range -> Arrays.fill(words, range * COUNT_RANGE, (range + 1) * COUNT_RANGE, 0));
+    }
+
+    /**
+     * Count the bits of every {@value #SAMPLE_STEP}th word, 64 K words in total
+     *
+     * @return estimated fill ratio of the bitmap
+     */
+    @Override
+    public double sampleFillRatio() {
+        long count = 0;
+        for (int i = 0; i < WORDS; i += SAMPLE_STEP) {
+            count += Long.bitCount((long) WORD.getOpaque(words, i));
+        }
+        return (double) count / ((long) WORDS / SAMPLE_STEP * Long.SIZE);
+    }
+
+    @Override
+    public boolean isConcurrent() {
+        return true;
+    }
+
+    @Override
+    public boolean isFixedSize() {
+        return true;
+    }
+
+    /**
+     * Write the bitmap words to the buffer starting from its index 0. Zero words are skipped, so a freshly
+     * mapped file stays sparse on disk.
+     *
+     * @param target - buffer of at least {@link #BYTES} bytes
+     */
+    public void writeTo(LongBuffer target) {
+        for (int i = 0; i < WORDS; i++) {
+            long word = words[i];
+            if (word != 0) {
+                target.put(i, word);
+            }
+        }
+    }
+
+    /**
+     * Replace the bitmap words with the ones of the buffer starting from its index 0
+     *
+     * @param source - buffer of at least {@link #BYTES} bytes
+     */
+    public void readFrom(LongBuffer source) {
+        LongBuffer view = source.duplicate();
+        view.position(0);
+        view.get(words);
+    }
+
+    private static long[] words(IntContainer other) {
+        if (!(other instanceof ConcurrentBitmapContainer)) {
+            throw new UnsupportedOperationException("Unsupported container: " + other.getClass());
+        }
+        return ((ConcurrentBitmapContainer) other).words;
+    }
+}
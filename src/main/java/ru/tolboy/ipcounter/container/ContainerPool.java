@@ -0,0 +1,278 @@
+package ru.tolboy.ipcounter.container;
+
+import org.tinylog.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Pool of cleared bitmap containers shared by jobs of a long-running process, bounded by a global memory budget.
+ * <p>
+ * A job {@link #reserve reserves} its estimated memory before it starts and takes containers from its
+ * {@link Lease}. {@link ContainerType#CONCURRENT} and {@link ContainerType#BITSET} containers are 512 MB each, so
+ * they are cleared and kept for the next jobs when the lease is closed, other containers are sized by their data
+ * and are not pooled. Idle containers count against the budget too: a reservation takes idle containers of its
+ * type first, then it waits for running jobs. Idle containers of other types are evicted only when the available
+ * memory and theirs together cover the reservation, so warm containers are not dropped while jobs merely wait.
+ * Data which grows during a job, e.g. an {@link OffHeapInt128Set}, takes more of the budget from the lease without
+ * waiting, so it fails the job rather than the process when the budget is exhausted.
+ * <p>
+ * The budget is counted in whole megabytes.
+ */
+public class ContainerPool {
+    private static final long MEGABYTE = 1L << 20;
+    private static final long EVICTION_CHECK_MILLIS = 100;
+
+    private final int budgetMegabytes;
+    private final int maxIdle;
+    private final Semaphore budget;
+    private final Map<ContainerType, Deque<IntContainer>> idle = new EnumMap<>(ContainerType.class);
+
+    /**
+     * @param budgetBytes - memory of all running jobs and idle containers
+     * @param maxIdle     - max number of idle containers of every type
+     */
+    public ContainerPool(long budgetBytes, int maxIdle) {
+        if (budgetBytes < MEGABYTE || budgetBytes / MEGABYTE > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Memory budget must be from 1 MB to 2 PB: " + budgetBytes);
+        }
+        if (maxIdle < 0) {
+            throw new IllegalArgumentException("Number of idle containers must not be negative: " + maxIdle);
+        }
+        this.budgetMegabytes = (int) (budgetBytes / MEGABYTE);
+        this.maxIdle = maxIdle;
+        this.budget = new Semaphore(budgetMegabytes, true);
+        for (ContainerType type : ContainerType.values()) {
+            idle.put(type, new ArrayDeque<>());
+        }
+    }
+
+    /**
+     * @param type - container type
+     * @return memory of one container of the type if such containers are pooled, 0 otherwise
+     */
+    public static long pooledBytes(ContainerType type) {
+        boolean pooled = type == ContainerType.CONCURRENT || type == ContainerType.BITSET;
+        return pooled ? ConcurrentBitmapContainer.BYTES : 0;
+    }
+
+    /**
+     * Reserve memory for a job, waiting until running jobs release enough of it
+     *
+     * @param type  - type of containers of the job
+     * @param bytes - estimated memory of the job
+     * @return lease to take containers from, it must be closed when the job ends
+     * @throws InterruptedException     if the thread is interrupted while waiting
+     * @throws IllegalArgumentException if the job needs more memory than the whole budget
+     */
+    public Lease reserve(ContainerType type, long bytes) throws InterruptedException {
+        int megabytes = megabytes(bytes);
+        if (megabytes > budgetMegabytes) {
+            throw new IllegalArgumentException("Job needs " + megabytes + " MB of " + budgetMegabytes
+                    + " MB memory budget");
+        }
+        Lease lease = new Lease(type);
+        int containerMegabytes = megabytes(pooledBytes(type));
+        int needed = megabytes;
+        synchronized (this) {
+            // idle containers hold their memory already
+            Deque<IntContainer> containers = idle.get(type);
+            while (containerMegabytes > 0 && needed >= containerMegabytes && !containers.isEmpty()) {
+                lease.reused.push(containers.pop());
+                needed -= containerMegabytes;
+            }
+        }
+        lease.megabytes = megabytes - needed;
+        try {
+            evictIdleFor(type, needed);
+            while (!budget.tryAcquire(needed, EVICTION_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                evictIdleFor(type, needed);
+            }
+        } catch (InterruptedException e) {
+            // the reused containers go back to the pool
+            lease.close();
+            throw e;
+        }
+        lease.megabytes = megabytes;
+        return lease;
+    }
+
+    /**
+     * @return number of idle containers of all types
+     */
+    public synchronized int idleCount() {
+        return idle.values().stream().mapToInt(Deque::size).sum();
+    }
+
+    /**
+     * @return megabytes of the budget which are neither reserved by jobs nor held by idle containers
+     */
+    public int availableMegabytes() {
+        return budget.availablePermits();
+    }
+
+    /**
+     * Drop all idle containers, so their memory can be collected and reserved by jobs
+     */
+    public void evictIdle() {
+        int released = 0;
+        synchronized (this) {
+            for (Map.Entry<ContainerType, Deque<IntContainer>> entry : idle.entrySet()) {
+                released += entry.getValue().size() * megabytes(pooledBytes(entry.getKey()));
+                entry.getValue().clear();
+            }
+        }
+        if (released > 0) {
+            Logger.debug("Evicted idle containers of {} MB", released);
+            budget.release(released);
+        }
+    }
+
+    /**
+     * Drop idle containers of types other than the given one if their memory lets a reservation through
+     */
+    private void evictIdleFor(ContainerType type, int needed) {
+        int released = 0;
+        synchronized (this) {
+            int evictable = 0;
+            for (Map.Entry<ContainerType, Deque<IntContainer>> entry : idle.entrySet()) {
+                if (entry.getKey() != type) {
+                    evictable += entry.getValue().size() * megabytes(pooledBytes(entry.getKey()));
+                }
+            }
+            int available = budget.availablePermits();
+            if (evictable == 0 || available >= needed || available + evictable < needed) {
+                return;
+            }
+            for (Map.Entry<ContainerType, Deque<IntContainer>> entry : idle.entrySet()) {
+                if (entry.getKey() != type) {
+                    released += entry.getValue().size() * megabytes(pooledBytes(entry.getKey()));
+                    entry.getValue().clear();
+                }
+            }
+        }
+        Logger.debug("Evicted idle containers of {} MB for a {} job", released, type);
+        budget.release(released);
+    }
+
+    private static int megabytes(long bytes) {
+        return (int) Math.min(Integer.MAX_VALUE, (bytes + MEGABYTE - 1) / MEGABYTE);
+    }
+
+    /**
+     * Memory reserved by one job and containers it has taken
+     */
+    public final class Lease implements AutoCloseable {
+        private final ContainerType type;
+        private final Deque<IntContainer> reused = new ArrayDeque<>();
+        private final List<IntContainer> taken = new ArrayList<>();
+        private int megabytes;
+        private long grownBytes;
+        private int grownMegabytes;
+
+        private Lease(ContainerType type) {
+            this.type = type;
+        }
+
+        /**
+         * Take a cleared pooled container or create a new one, it is safe to call from many threads at once
+         *
+         * @param factory - factory of containers of the lease type
+         * @return empty container which is returned to the pool when the lease is closed
+         */
+        public synchronized IntContainer acquire(Supplier<? extends IntContainer> factory) {
+            IntContainer container = reused.isEmpty() ? factory.get() : reused.pop();
+            taken.add(container);
+            return container;
+        }
+
+        /**
+         * Take more memory for data which grows during the job without waiting, e.g. off-heap sets whose size is
+         * not known when the job is reserved
+         *
+         * @param bytes - memory to take
+         * @return whether the budget had enough free memory
+         */
+        public synchronized boolean tryGrow(long bytes) {
+            int needed = megabytes(grownBytes + bytes) - grownMegabytes;
+            if (needed > 0 && !budget.tryAcquire(needed)) {
+                return false;
+            }
+            grownBytes += bytes;
+            grownMegabytes += needed;
+            return true;
+        }
+
+        /**
+         * Return memory taken by {@link #tryGrow} once the data is freed
+         *
+         * @param bytes - memory to return
+         */
+        public synchronized void shrink(long bytes) {
+            // memory freed after the lease is closed was returned already
+            grownBytes -= Math.min(bytes, grownBytes);
+            int released = grownMegabytes - megabytes(grownBytes);
+            grownMegabytes -= released;
+            budget.release(released);
+        }
+
+        /**
+         * Clear the pooled containers and keep them idle while the pool has room, release the rest of the memory
+         * including the memory taken by {@link #tryGrow}
+         */
+        @Override
+        public synchronized void close() {
+            int containerMegabytes = megabytes(pooledBytes(type));
+            synchronized (ContainerPool.this) {
+                // reused containers which were not taken are still clear
+                while (!reused.isEmpty()) {
+                    IntContainer container = reused.pop();
+                    if (idle.get(type).size() < maxIdle) {
+                        idle.get(type).push(container);
+                        megabytes -= containerMegabytes;
+                    }
+                }
+            }
+            for (IntContainer container : taken) {
+                if (containerMegabytes > 0 && megabytes >= containerMegabytes && keepIdle(container)) {
+                    megabytes -= containerMegabytes;
+                } else if (container instanceof AutoCloseable) {
+                    try {
+                        ((AutoCloseable) container).close();
+                    } catch (Exception e) {
+                        Logger.warn(e, "Can not release {}", container);
+                    }
+                }
+            }
+            taken.clear();
+            budget.release(megabytes + grownMegabytes);
+            megabytes = 0;
+            grownBytes = 0;
+            grownMegabytes = 0;
+        }
+
+        private boolean keepIdle(IntContainer container) {
+            synchronized (ContainerPool.this) {
+                if (idle.get(type).size() >= maxIdle) {
+                    return false;
+                }
+            }
+            container.clear();
+            synchronized (ContainerPool.this) {
+                Deque<IntContainer> containers = idle.get(type);
+                if (containers.size() >= maxIdle) {
+                    return false;
+                }
+                containers.push(container);
+                return true;
+            }
+        }
+    }
+}
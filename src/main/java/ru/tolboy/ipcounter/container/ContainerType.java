@@ -0,0 +1,27 @@
+package ru.tolboy.ipcounter.container;
+
+/**
+ * Supported implementations of {@link IntContainer}.
+ */
+public enum ContainerType {
+    /**
+     * {@link BitSetContainer} shared by all worker threads, which add batches of numbers to it under its lock
+     */
+    BITSET,
+    /**
+     * {@link ConcurrentBitmapContainer} shared by all worker threads
+     */
+    CONCURRENT,
+    /**
+     * {@link RoaringContainer}, every worker thread fills its own one, memory scales with the count of numbers
+     */
+    ROARING,
+    /**
+     * {@link HyperLogLogContainer}, every worker thread fills its own sketch, the count is an estimate
+     */
+    HLL,
+    /**
+     * {@link SpillingContainer}, every worker thread spills to its own files, a memory budget is shared by workers
+     */
+    SPILL
+}
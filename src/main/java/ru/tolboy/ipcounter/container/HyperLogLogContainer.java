@@ -0,0 +1,148 @@
+package ru.tolboy.ipcounter.container;
+
+/**
+ * An implementation of {@link IntContainer} that estimates the count of distinct numbers with HyperLogLog.
+ * <p>
+ * It keeps 2^precision one-byte registers only (16 KB for the default precision of {@value #DEFAULT_PRECISION}),
+ * the relative standard error of the estimate is {@code 1.04 / sqrt(2^precision)}. Sketches of the same precision
+ * are merged by {@link #addAll} taking the register-wise maximum, so workers and files can be counted separately.
+ */
+public class HyperLogLogContainer implements IntContainer {
+    public static final int DEFAULT_PRECISION = 14;
+    public static final int MIN_PRECISION = 4;
+    public static final int MAX_PRECISION = 18;
+
+    private final int precision;
+    private final byte[] registers;
+
+    public HyperLogLogContainer() {
+        this(DEFAULT_PRECISION);
+    }
+
+    /**
+     * @param precision - number of hash bits used to select a register
+     */
+    public HyperLogLogContainer(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("Precision must be between " + MIN_PRECISION
+                    + " and " + MAX_PRECISION + ": " + precision);
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    @Override
+    public void add(int number) {
+        long hash = hash(number);
+        int index = (int) (hash >>> (Long.SIZE - precision));
+        // the guard bit bounds the rank when all the remaining bits are zeros
+        byte rank = (byte) (Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1);
+        if (registers[index] < rank) {
+            registers[index] = rank;
+        }
+    }
+
+    @Override
+    public void addAll(IntContainer other) {
+        byte[] otherRegisters = registers(other);
+        for (int i = 0; i < registers.length; i++) {
+            if (registers[i] < otherRegisters[i]) {
+                registers[i] = otherRegisters[i];
+            }
+        }
+    }
+
+    /**
+     * Estimate the count of distinct numbers, see {@link #relativeError()} for its accuracy
+     *
+     * @return estimated count of distinct numbers in the container
+     */
+    @Override
+    public long countDistinct() {
+        return estimate(registers, registers);
+    }
+
+    /**
+     * Estimate the union from the register-wise maximum without merging the sketches
+     */
+    @Override
+    public long unionCardinality(IntContainer other) {
+        return estimate(registers, registers(other));
+    }
+
+    /**
+     * Estimate the intersection by inclusion-exclusion, its absolute error is about the one of the union
+     */
+    @Override
+    public long intersectCardinality(IntContainer other) {
+        return Math.max(0, countDistinct() + other.countDistinct() - unionCardinality(other));
+    }
+
+    /**
+     * @return relative standard error of {@link #countDistinct()}
+     */
+    @Override
+    public double relativeError() {
+        return 1.04 / Math.sqrt(registers.length);
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    private byte[] registers(IntContainer other) {
+        if (!(other instanceof HyperLogLogContainer)) {
+            throw new UnsupportedOperationException("Unsupported container: " + other.getClass());
+        }
+        HyperLogLogContainer sketch = (HyperLogLogContainer) other;
+        if (sketch.precision != precision) {
+            throw new IllegalArgumentException("Sketches precision differs: " + precision + " and " + sketch.precision);
+        }
+        return sketch.registers;
+    }
+
+    /**
+     * Estimate the cardinality of the sketch made of the register-wise maximum of two sketches
+     */
+    private static long estimate(byte[] first, byte[] second) {
+        int m = first.length;
+        double sum = 0;
+        int zeros = 0;
+        for (int i = 0; i < m; i++) {
+            int register = Math.max(first[i], second[i]);
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double estimate = alpha(m) * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            // linear counting is more accurate for small cardinalities
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    private static double alpha(int m) {
+        switch (m) {
+            case 16:
+                return 0.673;
+            case 32:
+                return 0.697;
+            case 64:
+                return 0.709;
+            default:
+                return 0.7213 / (1 + 1.079 / m);
+        }
+    }
+
+    /**
+     * Spread an int over 64 bits with the SplitMix64 finalizer
+     */
+    private static long hash(int number) {
+        long z = (number & 0xFFFFFFFFL) + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -18,6 +18,15 @@ public interface IntContainer {
      */
     long countDistinct();
 
+    /**
+     * Relative standard error of {@link #countDistinct()}, exact containers have none
+     *
+     * @return relative standard error, 0 for exact containers
+     */
+    default double relativeError() {
+        return 0;
+    }
+
     /**
      * Adds all the elements in the specified container to this container
      * if they're not already present (not supported).
@@ -27,4 +36,101 @@ public interface IntContainer {
     default void addAll(IntContainer other) {
         throw new UnsupportedOperationException();
     }
+
+    /**
+     * Keep only the elements which are present in the specified container too (not supported).
+     *
+     * @param other int container of the same type
+     */
+    default void intersect(IntContainer other) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Remove all the elements which are present in the specified container (not supported).
+     *
+     * @param other int container of the same type
+     */
+    default void andNot(IntContainer other) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Count the elements present in both containers without building the intersection (not supported).
+     *
+     * @param other int container of the same type
+     * @return count of distinct numbers present in both containers
+     */
+    default long intersectCardinality(IntContainer other) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Count the elements present in any of the containers without building the union
+     *
+     * @param other int container of the same type
+     * @return count of distinct numbers present in any of the containers
+     */
+    default long unionCardinality(IntContainer other) {
+        return countDistinct() + other.countDistinct() - intersectCardinality(other);
+    }
+
+    /**
+     * Count the elements of this container absent from the other one without building the difference
+     *
+     * @param other int container of the same type
+     * @return count of distinct numbers present in this container only
+     */
+    default long andNotCardinality(IntContainer other) {
+        return countDistinct() - intersectCardinality(other);
+    }
+
+    /**
+     * Count distinct numbers per prefix of their high bits, e.g. per /24 subnet of IPv4 addresses, in one pass over
+     * the container (not supported).
+     *
+     * @param prefixLength - number of high bits, from {@value PrefixCounts#MIN_PREFIX_LENGTH} to
+     *                     {@value PrefixCounts#MAX_PREFIX_LENGTH}
+     * @return counts of distinct numbers per prefix
+     */
+    default PrefixCounts countByPrefix(int prefixLength) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Remove all numbers keeping the memory, so the container can be reused without allocating it again (not
+     * supported by default).
+     */
+    default void clear() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Estimate the share of all int numbers present in the container without a full count, while other threads may
+     * add numbers to it (not supported by default).
+     *
+     * @return estimated fill ratio from 0 to 1, or NaN if the container can not be sampled while it is filled
+     */
+    default double sampleFillRatio() {
+        return Double.NaN;
+    }
+
+    /**
+     * Check whether numbers can be added to the container from many threads at once
+     *
+     * @return true if the container is thread-safe
+     */
+    default boolean isConcurrent() {
+        return false;
+    }
+
+    /**
+     * Check whether the container takes the same memory whatever numbers it holds, so worker threads should share
+     * it rather than fill copies of it
+     *
+     * @return true if the memory of the container does not depend on its numbers
+     */
+    default boolean isFixedSize() {
+        return false;
+    }
 }
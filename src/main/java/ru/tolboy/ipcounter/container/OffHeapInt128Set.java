@@ -0,0 +1,331 @@
+package ru.tolboy.ipcounter.container;
+
+import org.tinylog.Logger;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.stream.IntStream;
+
+/**
+ * A set of 128-bit values, e.g. IPv6 addresses, kept off-heap: no object is created per value and the garbage
+ * collector does not scan the values.
+ * <p>
+ * The set is split into {@value #SEGMENTS} segments by the high bits of a value hash. Every segment is an open
+ * addressing hash table with linear probing in a direct buffer of 16-byte slots, it grows twice when it is
+ * three quarters full. A slot of two zero longs is empty, the zero value itself is kept as a flag.
+ * <p>
+ * Segments are locked independently, so many threads can add values at once with little contention. Sets are
+ * merged segment by segment in parallel: a value falls into the segment with the same index in every set.
+ * <p>
+ * Buffers are freed as soon as a segment outgrows them and when the set is closed, not when the garbage collector
+ * gets to them, so direct memory of finished runs does not pile up in a long-running process. A set created with a
+ * {@link ContainerPool.Lease} takes the memory of its buffers from the budget of the pool as it grows and fails
+ * when the budget has no free memory.
+ */
+public class OffHeapInt128Set implements AutoCloseable {
+    private static final int SEGMENT_BITS = 6;
+    private static final int SEGMENTS = 1 << SEGMENT_BITS;
+    private static final int SLOT_BYTES = 2 * Long.BYTES;
+    private static final int INITIAL_SLOTS = 1 << 10;
+    // a direct buffer is indexed by int
+    private static final int MAX_SLOTS = 1 << 26;
+    private static final MethodHandle INVOKE_CLEANER = invokeCleaner();
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    public OffHeapInt128Set() {
+        this(null);
+    }
+
+    /**
+     * @param lease - lease to take the memory of the buffers from, null if the memory is not budgeted
+     */
+    public OffHeapInt128Set(ContainerPool.Lease lease) {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(lease);
+        }
+    }
+
+    /**
+     * Add a value, it is safe to call from many threads at once
+     *
+     * @param high - high 64 bits of the value
+     * @param low  - low 64 bits of the value
+     * @return whether the value was absent
+     */
+    public boolean add(long high, long low) {
+        long hash = hash(high, low);
+        Segment segment = segments[(int) (hash >>> (Long.SIZE - SEGMENT_BITS))];
+        synchronized (segment) {
+            return segment.add(high, low, hash);
+        }
+    }
+
+    /**
+     * @param high - high 64 bits of the value
+     * @param low  - low 64 bits of the value
+     * @return whether the set has the value
+     */
+    public boolean contains(long high, long low) {
+        long hash = hash(high, low);
+        Segment segment = segments[(int) (hash >>> (Long.SIZE - SEGMENT_BITS))];
+        synchronized (segment) {
+            return segment.contains(high, low, hash);
+        }
+    }
+
+    /**
+     * Add all values of the other set, segments are merged in parallel
+     *
+     * @param other - set to add the values of, it must not be modified meanwhile
+     */
+    public void addAll(OffHeapInt128Set other) {
+        IntStream.range(0, SEGMENTS).parallel().forEach(i -> {
+            Segment source = other.segments[i];
+            Segment target = segments[i];
+            synchronized (target) {
+                target.addAll(source);
+            }
+        });
+    }
+
+    /**
+     * @return count of distinct values in the set
+     */
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return off-heap memory occupied by the slots in bytes
+     */
+    public long sizeInBytes() {
+        long size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.slots == null ? 0 : segment.slots.capacity();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Free the buffers and return their memory to the budget, the set is empty afterwards. No other thread may use
+     * the set meanwhile, e.g. read it in {@link #addAll}.
+     */
+    @Override
+    public void close() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            synchronized (segments[i]) {
+                segments[i].clear();
+            }
+        }
+    }
+
+    /**
+     * Both halves are mixed by the finalizer of MurmurHash3, so the segment index and the slot index are
+     * independent from each other
+     */
+    static long hash(long high, long low) {
+        long hash = mix(high) * 0x9E3779B97F4A7C15L ^ low;
+        return mix(hash);
+    }
+
+    /**
+     * Free the memory of a direct buffer right away, it must not be used afterwards
+     */
+    private static void free(ByteBuffer buffer) {
+        if (INVOKE_CLEANER == null) {
+            return;
+        }
+        try {
+            INVOKE_CLEANER.invokeExact(buffer);
+        } catch (Throwable e) {
+            Logger.warn(e, "Can not free a direct buffer");
+        }
+    }
+
+    /**
+     * Find the cleaner of direct buffers in the unsupported API, it is exported to all modules
+     *
+     * @return handle of {@code Unsafe.invokeCleaner} bound to the instance, null if it is not available
+     */
+    private static MethodHandle invokeCleaner() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            return MethodHandles.lookup()
+                    .findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+                    .bindTo(field.get(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            Logger.warn(e, "Direct buffers are freed by the garbage collector only");
+            return null;
+        }
+    }
+
+    private static long mix(long value) {
+        long hash = value;
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * Hash table of one segment, guarded by its own monitor
+     */
+    private static final class Segment {
+        private final ContainerPool.Lease lease;
+        private ByteBuffer slots;
+        private int mask;
+        private int size;
+        private boolean containsZero;
+
+        Segment(ContainerPool.Lease lease) {
+            this.lease = lease;
+        }
+
+        boolean add(long high, long low, long hash) {
+            if (high == 0 && low == 0) {
+                if (containsZero) {
+                    return false;
+                }
+                containsZero = true;
+                size++;
+                return true;
+            }
+            if (slots == null) {
+                allocate(INITIAL_SLOTS);
+            }
+            for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+                int offset = slot * SLOT_BYTES;
+                long slotHigh = slots.getLong(offset);
+                long slotLow = slots.getLong(offset + Long.BYTES);
+                if (slotHigh == 0 && slotLow == 0) {
+                    slots.putLong(offset, high);
+                    slots.putLong(offset + Long.BYTES, low);
+                    if (++size > (mask + 1) / 4 * 3) {
+                        grow();
+                    }
+                    return true;
+                }
+                if (slotHigh == high && slotLow == low) {
+                    return false;
+                }
+            }
+        }
+
+        boolean contains(long high, long low, long hash) {
+            if (high == 0 && low == 0) {
+                return containsZero;
+            }
+            if (slots == null) {
+                return false;
+            }
+            for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+                int offset = slot * SLOT_BYTES;
+                long slotHigh = slots.getLong(offset);
+                long slotLow = slots.getLong(offset + Long.BYTES);
+                if (slotHigh == 0 && slotLow == 0) {
+                    return false;
+                }
+                if (slotHigh == high && slotLow == low) {
+                    return true;
+                }
+            }
+        }
+
+        void addAll(Segment other) {
+            if (other.containsZero) {
+                add(0, 0, 0);
+            }
+            if (other.slots == null) {
+                return;
+            }
+            for (int offset = 0; offset < other.slots.capacity(); offset += SLOT_BYTES) {
+                long high = other.slots.getLong(offset);
+                long low = other.slots.getLong(offset + Long.BYTES);
+                if (high != 0 || low != 0) {
+                    add(high, low, hash(high, low));
+                }
+            }
+        }
+
+        void clear() {
+            if (slots != null) {
+                release(slots);
+            }
+            slots = null;
+            mask = 0;
+            size = 0;
+            containsZero = false;
+        }
+
+        private boolean isEmpty(int offset) {
+            return slots.getLong(offset) == 0 && slots.getLong(offset + Long.BYTES) == 0;
+        }
+
+        private void allocate(int capacity) {
+            long bytes = (long) capacity * SLOT_BYTES;
+            if (lease != null && !lease.tryGrow(bytes)) {
+                throw new IllegalStateException("Memory budget is exhausted by " + size + " values of a segment");
+            }
+            try {
+                slots = ByteBuffer.allocateDirect(capacity * SLOT_BYTES).order(ByteOrder.nativeOrder());
+            } catch (OutOfMemoryError e) {
+                if (lease != null) {
+                    lease.shrink(bytes);
+                }
+                throw e;
+            }
+            mask = capacity - 1;
+        }
+
+        private void release(ByteBuffer buffer) {
+            free(buffer);
+            if (lease != null) {
+                lease.shrink(buffer.capacity());
+            }
+        }
+
+        private void grow() {
+            int capacity = mask + 1;
+            if (capacity == MAX_SLOTS) {
+                if (size < capacity - 1) {
+                    // the table is kept over the load factor rather than failing
+                    return;
+                }
+                throw new IllegalStateException("Segment is full: " + size + " values");
+            }
+            ByteBuffer old = slots;
+            allocate(capacity * 2);
+            for (int offset = 0; offset < old.capacity(); offset += SLOT_BYTES) {
+                long high = old.getLong(offset);
+                long low = old.getLong(offset + Long.BYTES);
+                if (high != 0 || low != 0) {
+                    // values are distinct, so the first empty slot is the place
+                    int slot = (int) hash(high, low) & mask;
+                    while (!isEmpty(slot * SLOT_BYTES)) {
+                        slot = (slot + 1) & mask;
+                    }
+                    slots.putLong(slot * SLOT_BYTES, high);
+                    slots.putLong(slot * SLOT_BYTES + Long.BYTES, low);
+                }
+            }
+            release(old);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package ru.tolboy.ipcounter.container;
+
+import ru.tolboy.ipcounter.converter.IPConverter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Counts of distinct numbers per prefix of their high bits, built by {@link IntContainer#countByPrefix}. For IPv4
+ * addresses a prefix is a subnet: prefix length 24 gives counts per /24 subnet.
+ * <p>
+ * Counts are kept in one int array indexed by the prefix, so there is no map of prefixes and the longest prefix
+ * takes 64 MB. Counts of the shortest prefix are at most 2^24, so they never overflow.
+ */
+public class PrefixCounts {
+    /**
+     * Shortest supported prefix length
+     */
+    public static final int MIN_PREFIX_LENGTH = 8;
+    /**
+     * Longest supported prefix length
+     */
+    public static final int MAX_PREFIX_LENGTH = 24;
+
+    private final int prefixLength;
+    private final int[] counts;
+
+    PrefixCounts(int prefixLength, int[] counts) {
+        this.prefixLength = prefixLength;
+        this.counts = counts;
+    }
+
+    static void checkPrefixLength(int prefixLength) {
+        if (prefixLength < MIN_PREFIX_LENGTH || prefixLength > MAX_PREFIX_LENGTH) {
+            throw new IllegalArgumentException("Prefix length must be from " + MIN_PREFIX_LENGTH + " to "
+                    + MAX_PREFIX_LENGTH + ": " + prefixLength);
+        }
+    }
+
+    public int getPrefixLength() {
+        return prefixLength;
+    }
+
+    /**
+     * @return number of prefixes, 2^prefixLength
+     */
+    public int size() {
+        return counts.length;
+    }
+
+    /**
+     * @param prefix - high bits of numbers, from 0 to {@link #size()} exclusive
+     * @return count of distinct numbers with the prefix
+     */
+    public int count(int prefix) {
+        return counts[prefix];
+    }
+
+    /**
+     * @return count of distinct numbers with any prefix
+     */
+    public long total() {
+        long total = 0;
+        for (int count : counts) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Find the prefixes with the largest counts in one pass with a min-heap of k entries
+     *
+     * @param k - max number of prefixes to return
+     * @return non-empty prefixes ordered by count descending, equal counts by prefix ascending
+     */
+    public List<Prefix> top(int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("Number of prefixes must not be negative: " + k);
+        }
+        // count in the high half, inverted prefix in the low one: the larger entry is the better one
+        PriorityQueue<Long> heap = new PriorityQueue<>(Math.max(1, k));
+        for (int prefix = 0; prefix < counts.length && k > 0; prefix++) {
+            if (counts[prefix] == 0) {
+                continue;
+            }
+            long entry = (long) counts[prefix] << Integer.SIZE | (~prefix & 0xFFFFFFFFL);
+            if (heap.size() < k) {
+                heap.add(entry);
+            } else if (entry > heap.peek()) {
+                heap.poll();
+                heap.add(entry);
+            }
+        }
+        List<Prefix> top = new ArrayList<>(heap.size());
+        while (!heap.isEmpty()) {
+            long entry = heap.poll();
+            top.add(new Prefix(~(int) entry, prefixLength, (int) (entry >>> Integer.SIZE)));
+        }
+        Collections.reverse(top);
+        return top;
+    }
+
+    /**
+     * Prefix with its count
+     */
+    public static final class Prefix {
+        private final int prefix;
+        private final int length;
+        private final int count;
+
+        private Prefix(int prefix, int length, int count) {
+            this.prefix = prefix;
+            this.length = length;
+            this.count = count;
+        }
+
+        /**
+         * @return high bits of the numbers
+         */
+        public int getPrefix() {
+            return prefix;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * @return the smallest number with the prefix, the subnet address for IPv4
+         */
+        public int getFirstNumber() {
+            return prefix << (Integer.SIZE - length);
+        }
+
+        /**
+         * @return the prefix as an IPv4 subnet in the CIDR notation, e.g. 10.0.1.0/24
+         */
+        @Override
+        public String toString() {
+            return IPConverter.format(getFirstNumber()) + "/" + length;
+        }
+    }
+}
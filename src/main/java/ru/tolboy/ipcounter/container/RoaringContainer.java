@@ -0,0 +1,702 @@
+package ru.tolboy.ipcounter.container;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * An implementation of {@link IntContainer} in the spirit of Roaring bitmaps, its memory scales with the data
+ * instead of the whole int range.
+ * <p>
+ * Numbers are partitioned on their high 16 bits, the low 16 bits are kept in one of three partition kinds:
+ * <ul>
+ *     <li>array - sorted values, used while a partition holds up to {@value #ARRAY_LIMIT} numbers</li>
+ *     <li>bitmap - 2^16 bits (8 KB), used for dense partitions</li>
+ *     <li>run - sorted intervals, used when consecutive numbers make it the smallest one</li>
+ * </ul>
+ * Array partitions turn into bitmaps when they grow over the limit. Run partitions are chosen by
+ * {@link #runOptimize()}, which is also applied to every partition touched by {@link #addAll}.
+ */
+public class RoaringContainer implements IntContainer {
+    static final int ARRAY_LIMIT = 4096;
+    private static final int PARTITIONS = 1 << 16;
+    private static final int BITMAP_WORDS = PARTITIONS / Long.SIZE;
+    private static final int BITMAP_BYTES = BITMAP_WORDS * Long.BYTES;
+
+    private final Partition[] partitions = new Partition[PARTITIONS];
+
+    @Override
+    public void add(int number) {
+        int key = number >>> 16;
+        char low = (char) number;
+        Partition partition = partitions[key];
+        if (partition == null) {
+            partitions[key] = new ArrayPartition(low);
+        } else {
+            partitions[key] = partition.add(low);
+        }
+    }
+
+    @Override
+    public void addAll(IntContainer other) {
+        Partition[] otherPartitions = partitions(other);
+        // partitions are independent from each other, so they are merged in parallel
+        IntStream.range(0, PARTITIONS).parallel().forEach(key -> {
+            Partition otherPartition = otherPartitions[key];
+            if (otherPartition != null) {
+                Partition partition = partitions[key];
+                partitions[key] = partition == null ? otherPartition.copy() : partition.or(otherPartition).optimize();
+            }
+        });
+    }
+
+    @Override
+    public void intersect(IntContainer other) {
+        Partition[] otherPartitions = partitions(other);
+        IntStream.range(0, PARTITIONS).parallel().forEach(key -> {
+            Partition partition = partitions[key];
+            if (partition != null) {
+                partitions[key] = otherPartitions[key] == null ? null : partition.and(otherPartitions[key]);
+            }
+        });
+    }
+
+    @Override
+    public void andNot(IntContainer other) {
+        Partition[] otherPartitions = partitions(other);
+        IntStream.range(0, PARTITIONS).parallel().forEach(key -> {
+            Partition partition = partitions[key];
+            if (partition != null && otherPartitions[key] != null) {
+                partitions[key] = partition.andNot(otherPartitions[key]);
+            }
+        });
+    }
+
+    @Override
+    public long intersectCardinality(IntContainer other) {
+        Partition[] otherPartitions = partitions(other);
+        return IntStream.range(0, PARTITIONS).parallel()
+                .filter(key -> partitions[key] != null && otherPartitions[key] != null)
+                .mapToLong(key -> partitions[key].andCardinality(otherPartitions[key]))
+                .sum();
+    }
+
+    @Override
+    public long countDistinct() {
+        long count = 0;
+        for (Partition partition : partitions) {
+            if (partition != null) {
+                count += partition.cardinality();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Prefixes up to 16 bits cover whole partitions, their counts are sums of partition cardinalities. Longer
+     * prefixes split partitions, every partition counts its own range of prefixes. Both are done in parallel.
+     *
+     * @param prefixLength - number of high bits, from {@value PrefixCounts#MIN_PREFIX_LENGTH} to
+     *                     {@value PrefixCounts#MAX_PREFIX_LENGTH}
+     * @return counts of distinct numbers per prefix
+     */
+    @Override
+    public PrefixCounts countByPrefix(int prefixLength) {
+        PrefixCounts.checkPrefixLength(prefixLength);
+        int[] counts = new int[1 << prefixLength];
+        if (prefixLength <= 16) {
+            int shift = 16 - prefixLength;
+            IntStream.range(0, counts.length).parallel().forEach(prefix -> {
+                int count = 0;
+                for (int key = prefix << shift, end = key + (1 << shift); key < end; key++) {
+                    if (partitions[key] != null) {
+                        count += partitions[key].cardinality();
+                    }
+                }
+                counts[prefix] = count;
+            });
+        } else {
+            int prefixesPerPartition = 1 << (prefixLength - 16);
+            int shift = Integer.SIZE - prefixLength;
+            IntStream.range(0, PARTITIONS).parallel().forEach(key -> {
+                if (partitions[key] != null) {
+                    partitions[key].countByPrefix(counts, key * prefixesPerPartition, shift);
+                }
+            });
+        }
+        return new PrefixCounts(prefixLength, counts);
+    }
+
+    /**
+     * Convert every partition to the smallest of the array, bitmap and run representations
+     */
+    public void runOptimize() {
+        for (int key = 0; key < PARTITIONS; key++) {
+            if (partitions[key] != null) {
+                partitions[key] = partitions[key].optimize();
+            }
+        }
+    }
+
+    /**
+     * Estimate the memory occupied by partitions payload
+     *
+     * @return size in bytes
+     */
+    public long sizeInBytes() {
+        long size = (long) PARTITIONS * Integer.BYTES;
+        for (Partition partition : partitions) {
+            if (partition != null) {
+                size += partition.sizeInBytes();
+            }
+        }
+        return size;
+    }
+
+    private static Partition[] partitions(IntContainer other) {
+        if (!(other instanceof RoaringContainer)) {
+            throw new UnsupportedOperationException("Unsupported container: " + other.getClass());
+        }
+        return ((RoaringContainer) other).partitions;
+    }
+
+    /**
+     * Set of the low 16 bits of numbers sharing the same high 16 bits.
+     */
+    abstract static class Partition {
+        /**
+         * @return this partition with the value added or a new partition of another kind
+         */
+        abstract Partition add(char value);
+
+        abstract boolean contains(char value);
+
+        abstract int cardinality();
+
+        abstract int sizeInBytes();
+
+        abstract Partition copy();
+
+        abstract long[] toBitmap();
+
+        /**
+         * @return union of the partitions, this partition may be modified and returned
+         */
+        Partition or(Partition other) {
+            long[] words = toBitmap();
+            other.orInto(words);
+            return new BitmapPartition(words);
+        }
+
+        abstract void orInto(long[] words);
+
+        /**
+         * @return words of the partition bitmap which must not be modified
+         */
+        long[] bitmapView() {
+            return toBitmap();
+        }
+
+        /**
+         * @return intersection of the partitions or null if it is empty
+         */
+        Partition and(Partition other) {
+            if (other instanceof ArrayPartition) {
+                return other.and(this);
+            }
+            long[] words = toBitmap();
+            long[] otherWords = other.bitmapView();
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                words[i] &= otherWords[i];
+            }
+            return fromWords(words);
+        }
+
+        /**
+         * @return values of this partition absent from the other one or null if there are none
+         */
+        Partition andNot(Partition other) {
+            long[] words = toBitmap();
+            long[] otherWords = other.bitmapView();
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                words[i] &= ~otherWords[i];
+            }
+            return fromWords(words);
+        }
+
+        int andCardinality(Partition other) {
+            if (other instanceof ArrayPartition) {
+                return other.andCardinality(this);
+            }
+            long[] words = bitmapView();
+            long[] otherWords = other.bitmapView();
+            int cardinality = 0;
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                cardinality += Long.bitCount(words[i] & otherWords[i]);
+            }
+            return cardinality;
+        }
+
+        private static Partition fromWords(long[] words) {
+            BitmapPartition partition = new BitmapPartition(words);
+            return partition.cardinality() == 0 ? null : partition.optimize();
+        }
+
+        /**
+         * @return the smallest representation of the same values
+         */
+        Partition optimize() {
+            int runs = numberOfRuns();
+            int cardinality = cardinality();
+            int runBytes = RunPartition.sizeInBytes(runs);
+            int arrayBytes = cardinality <= ARRAY_LIMIT ? ArrayPartition.sizeInBytes(cardinality) : Integer.MAX_VALUE;
+            if (runBytes < arrayBytes && runBytes < BITMAP_BYTES) {
+                return this instanceof RunPartition ? this : RunPartition.fromBitmap(toBitmap(), runs);
+            }
+            if (arrayBytes <= BITMAP_BYTES) {
+                return this instanceof ArrayPartition ? this : ArrayPartition.fromBitmap(toBitmap(), cardinality);
+            }
+            return this instanceof BitmapPartition ? this : new BitmapPartition(toBitmap());
+        }
+
+        abstract int numberOfRuns();
+
+        /**
+         * Count values per prefix, a prefix is the value shifted right by at least 6 bits
+         *
+         * @param counts - counts of all prefixes
+         * @param offset - index of the first prefix of this partition
+         * @param shift  - number of low bits which are not a part of the prefix
+         */
+        abstract void countByPrefix(int[] counts, int offset, int shift);
+    }
+
+    static final class ArrayPartition extends Partition {
+        private char[] values;
+        private int size;
+
+        ArrayPartition(char value) {
+            values = new char[4];
+            values[0] = value;
+            size = 1;
+        }
+
+        private ArrayPartition(char[] values, int size) {
+            this.values = values;
+            this.size = size;
+        }
+
+        static int sizeInBytes(int cardinality) {
+            return cardinality * Character.BYTES;
+        }
+
+        static ArrayPartition fromBitmap(long[] words, int cardinality) {
+            char[] values = new char[cardinality];
+            int size = 0;
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                for (long word = words[i]; word != 0; word &= word - 1) {
+                    values[size++] = (char) (i * Long.SIZE + Long.numberOfTrailingZeros(word));
+                }
+            }
+            return new ArrayPartition(values, size);
+        }
+
+        @Override
+        Partition add(char value) {
+            int index = Arrays.binarySearch(values, 0, size, value);
+            if (index >= 0) {
+                return this;
+            }
+            if (size == ARRAY_LIMIT) {
+                return new BitmapPartition(toBitmap()).add(value);
+            }
+            index = -index - 1;
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_LIMIT, size + (size >> 1) + 1));
+            }
+            System.arraycopy(values, index, values, index + 1, size - index);
+            values[index] = value;
+            size++;
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, size, value) >= 0;
+        }
+
+        @Override
+        int cardinality() {
+            return size;
+        }
+
+        @Override
+        int sizeInBytes() {
+            return sizeInBytes(values.length);
+        }
+
+        @Override
+        Partition copy() {
+            return new ArrayPartition(Arrays.copyOf(values, size), size);
+        }
+
+        @Override
+        long[] toBitmap() {
+            long[] words = new long[BITMAP_WORDS];
+            orInto(words);
+            return words;
+        }
+
+        @Override
+        Partition or(Partition other) {
+            if (!(other instanceof ArrayPartition) || size + other.cardinality() > ARRAY_LIMIT) {
+                return super.or(other);
+            }
+            // merge of two sorted arrays
+            ArrayPartition array = (ArrayPartition) other;
+            char[] merged = new char[size + array.size];
+            int i = 0;
+            int j = 0;
+            int k = 0;
+            while (i < size && j < array.size) {
+                char a = values[i];
+                char b = array.values[j];
+                if (a <= b) {
+                    i++;
+                    if (a == b) {
+                        j++;
+                    }
+                    merged[k++] = a;
+                } else {
+                    j++;
+                    merged[k++] = b;
+                }
+            }
+            while (i < size) {
+                merged[k++] = values[i++];
+            }
+            while (j < array.size) {
+                merged[k++] = array.values[j++];
+            }
+            return new ArrayPartition(merged, k);
+        }
+
+        @Override
+        void orInto(long[] words) {
+            for (int i = 0; i < size; i++) {
+                words[values[i] >>> 6] |= 1L << values[i];
+            }
+        }
+
+        @Override
+        Partition and(Partition other) {
+            return filter(other, true);
+        }
+
+        @Override
+        Partition andNot(Partition other) {
+            return filter(other, false);
+        }
+
+        @Override
+        int andCardinality(Partition other) {
+            int cardinality = 0;
+            for (int i = 0; i < size; i++) {
+                if (other.contains(values[i])) {
+                    cardinality++;
+                }
+            }
+            return cardinality;
+        }
+
+        /**
+         * @return values which are (or are not) contained in the other partition or null if there are none
+         */
+        private Partition filter(Partition other, boolean contained) {
+            char[] kept = new char[size];
+            int keptSize = 0;
+            for (int i = 0; i < size; i++) {
+                if (other.contains(values[i]) == contained) {
+                    kept[keptSize++] = values[i];
+                }
+            }
+            return keptSize == 0 ? null : new ArrayPartition(kept, keptSize);
+        }
+
+        @Override
+        int numberOfRuns() {
+            int runs = 0;
+            for (int i = 0; i < size; i++) {
+                if (i == 0 || values[i] != values[i - 1] + 1) {
+                    runs++;
+                }
+            }
+            return runs;
+        }
+
+        @Override
+        void countByPrefix(int[] counts, int offset, int shift) {
+            for (int i = 0; i < size; i++) {
+                counts[offset + (values[i] >>> shift)]++;
+            }
+        }
+    }
+
+    static final class BitmapPartition extends Partition {
+        private final long[] words;
+        private int cardinality;
+
+        BitmapPartition(long[] words) {
+            this.words = words;
+            for (long word : words) {
+                cardinality += Long.bitCount(word);
+            }
+        }
+
+        @Override
+        Partition add(char value) {
+            int index = value >>> 6;
+            long mask = 1L << value;
+            if ((words[index] & mask) == 0) {
+                words[index] |= mask;
+                cardinality++;
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        int sizeInBytes() {
+            return BITMAP_BYTES;
+        }
+
+        @Override
+        Partition copy() {
+            return new BitmapPartition(words.clone());
+        }
+
+        @Override
+        long[] toBitmap() {
+            return words.clone();
+        }
+
+        @Override
+        long[] bitmapView() {
+            return words;
+        }
+
+        @Override
+        Partition or(Partition other) {
+            other.orInto(words);
+            cardinality = 0;
+            for (long word : words) {
+                cardinality += Long.bitCount(word);
+            }
+            return this;
+        }
+
+        @Override
+        void orInto(long[] target) {
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                target[i] |= words[i];
+            }
+        }
+
+        @Override
+        int numberOfRuns() {
+            int runs = 0;
+            long previousBit = 0;
+            for (long word : words) {
+                // a run starts at every set bit whose lower neighbour is not set
+                runs += Long.bitCount(word & ~((word << 1) | previousBit));
+                previousBit = word >>> 63;
+            }
+            return runs;
+        }
+
+        @Override
+        void countByPrefix(int[] counts, int offset, int shift) {
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                if (words[i] != 0) {
+                    counts[offset + (i * Long.SIZE >>> shift)] += Long.bitCount(words[i]);
+                }
+            }
+        }
+    }
+
+    static final class RunPartition extends Partition {
+        private static final int RUN_LIMIT = 2048;
+        // pairs of a run start and a run length minus one
+        private char[] runs;
+        private int runCount;
+        private int cardinality;
+
+        private RunPartition(char[] runs, int runCount) {
+            this.runs = runs;
+            this.runCount = runCount;
+            for (int i = 0; i < runCount; i++) {
+                cardinality += runs[2 * i + 1] + 1;
+            }
+        }
+
+        static int sizeInBytes(int runCount) {
+            return runCount * 2 * Character.BYTES;
+        }
+
+        static RunPartition fromBitmap(long[] words, int runCount) {
+            char[] runs = new char[runCount * 2];
+            int run = 0;
+            int start = -1;
+            for (int value = 0; value < PARTITIONS; value++) {
+                boolean set = (words[value >>> 6] & (1L << value)) != 0;
+                if (set && start < 0) {
+                    start = value;
+                } else if (!set && start >= 0) {
+                    runs[run++] = (char) start;
+                    runs[run++] = (char) (value - 1 - start);
+                    start = -1;
+                }
+            }
+            if (start >= 0) {
+                runs[run++] = (char) start;
+                runs[run++] = (char) (PARTITIONS - 1 - start);
+            }
+            return new RunPartition(runs, run / 2);
+        }
+
+        private int start(int run) {
+            return runs[2 * run];
+        }
+
+        private int end(int run) {
+            return runs[2 * run] + runs[2 * run + 1];
+        }
+
+        /**
+         * @return index of the last run starting not after the value, or -1
+         */
+        private int floorRun(int value) {
+            int low = 0;
+            int high = runCount - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (start(middle) <= value) {
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return high;
+        }
+
+        @Override
+        Partition add(char value) {
+            int run = floorRun(value);
+            if (run >= 0 && value <= end(run)) {
+                return this;
+            }
+            boolean extendsPrevious = run >= 0 && end(run) + 1 == value;
+            boolean extendsNext = run + 1 < runCount && start(run + 1) == value + 1;
+            cardinality++;
+            if (extendsPrevious && extendsNext) {
+                // the value glues two runs together
+                runs[2 * run + 1] = (char) (end(run + 1) - start(run));
+                System.arraycopy(runs, 2 * (run + 2), runs, 2 * (run + 1), 2 * (runCount - run - 2));
+                runCount--;
+            } else if (extendsPrevious) {
+                runs[2 * run + 1]++;
+            } else if (extendsNext) {
+                runs[2 * (run + 1)]--;
+                runs[2 * (run + 1) + 1]++;
+            } else {
+                if (runCount == RUN_LIMIT) {
+                    cardinality--;
+                    return new BitmapPartition(toBitmap()).add(value);
+                }
+                if (2 * runCount == runs.length) {
+                    runs = Arrays.copyOf(runs, Math.min(2 * RUN_LIMIT, runs.length + runs.length / 2 + 2));
+                }
+                int index = run + 1;
+                System.arraycopy(runs, 2 * index, runs, 2 * (index + 1), 2 * (runCount - index));
+                runs[2 * index] = value;
+                runs[2 * index + 1] = 0;
+                runCount++;
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            int run = floorRun(value);
+            return run >= 0 && value <= end(run);
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        int sizeInBytes() {
+            return runs.length * Character.BYTES;
+        }
+
+        @Override
+        Partition copy() {
+            return new RunPartition(Arrays.copyOf(runs, 2 * runCount), runCount);
+        }
+
+        @Override
+        long[] toBitmap() {
+            long[] words = new long[BITMAP_WORDS];
+            orInto(words);
+            return words;
+        }
+
+        @Override
+        void orInto(long[] words) {
+            for (int run = 0; run < runCount; run++) {
+                int start = start(run);
+                int end = end(run) + 1;
+                int firstWord = start >>> 6;
+                int lastWord = (end - 1) >>> 6;
+                long firstMask = -1L << start;
+                long lastMask = -1L >>> -end;
+                if (firstWord == lastWord) {
+                    words[firstWord] |= firstMask & lastMask;
+                } else {
+                    words[firstWord] |= firstMask;
+                    for (int i = firstWord + 1; i < lastWord; i++) {
+                        words[i] = -1L;
+                    }
+                    words[lastWord] |= lastMask;
+                }
+            }
+        }
+
+        @Override
+        int numberOfRuns() {
+            return runCount;
+        }
+
+        @Override
+        void countByPrefix(int[] counts, int offset, int shift) {
+            for (int run = 0; run < runCount; run++) {
+                // a run may span many prefixes
+                for (int start = start(run), end = end(run); start <= end; ) {
+                    int prefixEnd = Math.min(end, ((start >>> shift) + 1 << shift) - 1);
+                    counts[offset + (start >>> shift)] += prefixEnd - start + 1;
+                    start = prefixEnd + 1;
+                }
+            }
+        }
+    }
+}
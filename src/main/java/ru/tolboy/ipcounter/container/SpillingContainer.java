@@ -0,0 +1,215 @@
+package ru.tolboy.ipcounter.container;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An implementation of {@link IntContainer} for hosts with little memory: numbers are radix-partitioned by their
+ * high bits into temporary spill files, then every partition is counted with a small bitmap.
+ * <p>
+ * The memory budget is split in halves. One half is the bitmap of a single partition, so the number of partitions
+ * is the smallest power of two whose partition bitmap fits into it. The other half is shared by the write buffers
+ * of the partitions. Spill files are written and read sequentially with NIO channels, so the count is bound by disk
+ * throughput. The files are deleted by {@link #close()}.
+ */
+public class SpillingContainer implements IntContainer, AutoCloseable {
+    private static final int MAX_PARTITION_BITS = 10;
+    private static final int MIN_BUFFER_SIZE = 4 * 1024;
+    private static final int MAX_BUFFER_SIZE = 1 << 20;
+    /**
+     * The smallest memory budget of a container in bytes: the bitmap of a partition at the max partitioning
+     */
+    public static final long MIN_MEMORY_BUDGET = 2 * partitionBitmapBytes(MAX_PARTITION_BITS);
+
+    private final Path directory;
+    private final int partitionBits;
+    private final int bufferSize;
+    private final List<List<Path>> spillFiles = new ArrayList<>();
+    private final ByteBuffer[] buffers;
+    private final FileChannel[] channels;
+
+    /**
+     * @param memoryBudget - memory the container may use in bytes
+     * @param directory    - directory for spill files
+     */
+    public SpillingContainer(long memoryBudget, Path directory) {
+        int bits = 0;
+        while (bits < MAX_PARTITION_BITS && partitionBitmapBytes(bits) > memoryBudget / 2) {
+            bits++;
+        }
+        if (partitionBitmapBytes(bits) > memoryBudget / 2) {
+            throw new IllegalArgumentException("Memory budget is too small: " + memoryBudget);
+        }
+        this.directory = directory;
+        this.partitionBits = bits;
+        this.bufferSize = (int) Math.max(MIN_BUFFER_SIZE,
+                Math.min(MAX_BUFFER_SIZE, memoryBudget / 2 / (1 << bits)) / Integer.BYTES * Integer.BYTES);
+        this.buffers = new ByteBuffer[1 << bits];
+        this.channels = new FileChannel[1 << bits];
+        for (int i = 0; i < 1 << bits; i++) {
+            spillFiles.add(new ArrayList<>());
+        }
+    }
+
+    @Override
+    public void add(int number) {
+        int partition = partitionBits == 0 ? 0 : number >>> (Integer.SIZE - partitionBits);
+        ByteBuffer buffer = buffers[partition];
+        if (buffer == null) {
+            buffer = buffers[partition] = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.nativeOrder());
+        }
+        buffer.putInt(number);
+        if (!buffer.hasRemaining()) {
+            flush(partition);
+        }
+    }
+
+    /**
+     * Adopt the spill files of the other container, no numbers are copied
+     *
+     * @param other int container
+     */
+    @Override
+    public void addAll(IntContainer other) {
+        if (!(other instanceof SpillingContainer)) {
+            throw new UnsupportedOperationException("Unsupported container: " + other.getClass());
+        }
+        SpillingContainer spilling = (SpillingContainer) other;
+        if (spilling.partitionBits != partitionBits) {
+            throw new IllegalArgumentException("Partitioning differs: " + partitionBits + " and " + spilling.partitionBits);
+        }
+        spilling.flushAll();
+        spilling.closeChannels();
+        for (int partition = 0; partition < spillFiles.size(); partition++) {
+            spillFiles.get(partition).addAll(spilling.spillFiles.get(partition));
+            spilling.spillFiles.get(partition).clear();
+        }
+    }
+
+    /**
+     * Count every partition one by one with a bitmap of its low bits
+     *
+     * @return count of distinct numbers in the container
+     */
+    @Override
+    public long countDistinct() {
+        flushAll();
+        long[] bitmap = new long[(int) (partitionBitmapBytes(partitionBits) / Long.BYTES)];
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.nativeOrder());
+        int lowMask = (int) ((1L << (Integer.SIZE - partitionBits)) - 1);
+        long count = 0;
+        for (List<Path> files : spillFiles) {
+            for (Path file : files) {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    buffer.clear();
+                    int read;
+                    do {
+                        read = channel.read(buffer);
+                        buffer.flip();
+                        for (int i = buffer.remaining() / Integer.BYTES; i > 0; i--) {
+                            int low = buffer.getInt() & lowMask;
+                            bitmap[low >>> 6] |= 1L << low;
+                        }
+                        buffer.compact();
+                    } while (read >= 0);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            for (int i = 0; i < bitmap.length; i++) {
+                count += Long.bitCount(bitmap[i]);
+                bitmap[i] = 0;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return number of partitions derived from the memory budget
+     */
+    public int getPartitions() {
+        return 1 << partitionBits;
+    }
+
+    /**
+     * Close and delete all spill files, every file is deleted even if others can not be
+     */
+    @Override
+    public void close() {
+        IOException failure = null;
+        try {
+            closeChannels();
+        } catch (UncheckedIOException e) {
+            failure = e.getCause();
+        }
+        for (List<Path> files : spillFiles) {
+            for (Path file : files) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+            files.clear();
+        }
+        if (failure != null) {
+            throw new UncheckedIOException(failure);
+        }
+    }
+
+    private static long partitionBitmapBytes(int partitionBits) {
+        return (1L << (Integer.SIZE - partitionBits)) / Byte.SIZE;
+    }
+
+    private void closeChannels() {
+        try {
+            for (int partition = 0; partition < channels.length; partition++) {
+                if (channels[partition] != null) {
+                    channels[partition].close();
+                    channels[partition] = null;
+                }
+                buffers[partition] = null;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void flushAll() {
+        for (int partition = 0; partition < buffers.length; partition++) {
+            if (buffers[partition] != null && buffers[partition].position() > 0) {
+                flush(partition);
+            }
+        }
+    }
+
+    private void flush(int partition) {
+        ByteBuffer buffer = buffers[partition];
+        try {
+            if (channels[partition] == null) {
+                Path file = Files.createTempFile(directory, "ip-spill-" + partition + "-", ".bin");
+                spillFiles.get(partition).add(file);
+                channels[partition] = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channels[partition].write(buffer);
+            }
+            buffer.clear();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -1,45 +1,216 @@
 package ru.tolboy.ipcounter.converter;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.function.IntConsumer;
 import java.util.function.ToIntFunction;
 
 /**
  * The converter to transform an IP address as CharSequence to an integer data type.
+ * <p>
+ * Besides the {@link ToIntFunction} contract, it has an exception-free API for bulk parsing of US-ASCII bytes:
+ * {@code parse} methods return {@link #INVALID} for a malformed address instead of throwing, so dirty input
+ * costs no more than clean one.
  */
 public class IPConverter implements ToIntFunction<CharSequence> {
+    /**
+     * Result of {@code parse} methods for a malformed address, valid addresses are returned as unsigned ints
+     */
+    public static final long INVALID = -1L;
+
+    private static final byte LINE_FEED = '\n';
+    private static final byte CARRIAGE_RETURN = '\r';
+    private static final long ONES = 0x0101010101010101L;
+    private static final long LOW_SEVEN_BITS = 0x7F7F7F7F7F7F7F7FL;
+    private static final long LINE_FEEDS = ONES * LINE_FEED;
+
     /**
      * This implementation processes the CharSequence character by character, parsing each octet as it is encountered.
-     * It maintains a running count of the number of octets seen so far, and shifts and adds each octet to the integer
-     * representation of the IP address as it is parsed. The implementation also includes error checking to ensure that
-     * the input CharSequence represents a valid IPv4 address with four octets, each in the range from 0 to 255.
+     * It shifts and adds each octet to the integer representation of the IP address as it is parsed. The input must
+     * be a valid IPv4 address with four octets, each of one to three digits in the range from 0 to 255.
      *
      * @param ipAddress - IPs char sequence
      * @return IP as integer
+     * @throws IllegalArgumentException if the address is malformed
      */
     @Override
     public int applyAsInt(CharSequence ipAddress) {
-        int octetCount = 0;
-        int octet = 0;
-        int ipAsInt = 0;
-
-        for (int i = 0; i < ipAddress.length(); i++) {
-            char c = ipAddress.charAt(i);
-            if (c == '.') {
-                ipAsInt = (ipAsInt << 8) + octet;
-                octet = 0;
-                octetCount++;
-            } else if (c >= '0' && c <= '9') {
-                octet = (octet * 10) + (c - '0');
-            } else {
-                throw new IllegalArgumentException("Invalid IP address: " + ipAddress);
+        long ip = parse(ipAddress);
+        if (ip == INVALID) {
+            throw new IllegalArgumentException("Invalid IP address: " + ipAddress);
+        }
+        return (int) ip;
+    }
+
+    /**
+     * Format an IP address in the dotted-decimal notation
+     *
+     * @param ip - IP as int
+     * @return IP address string
+     */
+    public static String format(int ip) {
+        return (ip >>> 24) + "." + (ip >>> 16 & 0xFF) + "." + (ip >>> 8 & 0xFF) + "." + (ip & 0xFF);
+    }
+
+    /**
+     * Parse an IP address without throwing
+     *
+     * @param ipAddress - IPs char sequence
+     * @return IP as unsigned int or {@link #INVALID}
+     */
+    public static long parse(CharSequence ipAddress) {
+        int length = ipAddress.length();
+        int position = 0;
+        int ip = 0;
+        for (int octetIndex = 0; octetIndex < 4; octetIndex++) {
+            int octet = 0;
+            int start = position;
+            int digit;
+            while (position < length && (digit = ipAddress.charAt(position) - '0') >= 0 && digit <= 9) {
+                octet = octet * 10 + digit;
+                position++;
+            }
+            if (position == start || position - start > 3 || octet > 255) {
+                return INVALID;
+            }
+            ip = (ip << 8) | octet;
+            if (octetIndex < 3) {
+                if (position == length || ipAddress.charAt(position) != '.') {
+                    return INVALID;
+                }
+                position++;
             }
         }
+        return position == length ? ip & 0xFFFFFFFFL : INVALID;
+    }
 
-        if (octetCount != 3 || octet < 0 || octet > 255) {
-            throw new IllegalArgumentException("Invalid IP address: " + ipAddress);
+    /**
+     * Parse an IP address from US-ASCII bytes of the buffer range without throwing
+     *
+     * @param buffer - buffer with IPs bytes
+     * @param from   - index of the first byte of the IP (inclusive)
+     * @param to     - index of the last byte of the IP (exclusive)
+     * @return IP as unsigned int or {@link #INVALID}
+     */
+    public static long parse(ByteBuffer buffer, int from, int to) {
+        int position = from;
+        int ip = 0;
+        for (int octetIndex = 0; octetIndex < 4; octetIndex++) {
+            int octet = 0;
+            int start = position;
+            int digit;
+            while (position < to && (digit = buffer.get(position) - '0') >= 0 && digit <= 9) {
+                octet = octet * 10 + digit;
+                position++;
+            }
+            if (position == start || position - start > 3 || octet > 255) {
+                return INVALID;
+            }
+            ip = (ip << 8) | octet;
+            if (octetIndex < 3) {
+                if (position == to || buffer.get(position) != '.') {
+                    return INVALID;
+                }
+                position++;
+            }
+        }
+        return position == to ? ip & 0xFFFFFFFFL : INVALID;
+    }
+
+    /**
+     * The same as {@link #parse(ByteBuffer, int, int)} for a byte array
+     *
+     * @param bytes - array with IPs bytes
+     * @param from  - index of the first byte of the IP (inclusive)
+     * @param to    - index of the last byte of the IP (exclusive)
+     * @return IP as unsigned int or {@link #INVALID}
+     */
+    public static long parse(byte[] bytes, int from, int to) {
+        return parse(ByteBuffer.wrap(bytes), from, to);
+    }
+
+    /**
+     * Parse every line of the buffer range, valid addresses are passed to the consumer, malformed ones are counted.
+     * The range must start at the beginning of a line, its last line may have no line feed. Line ends are found
+     * eight bytes at a time (SWAR), a trailing carriage return of a line is ignored.
+     *
+     * @param buffer   - buffer with IPs bytes separated by line feeds
+     * @param from     - index of the first byte of the range (inclusive)
+     * @param to       - index of the last byte of the range (exclusive)
+     * @param consumer - consumer of valid IPs as ints
+     * @param stats    - stats to count the lines to
+     */
+    public static void parseLines(ByteBuffer buffer, int from, int to, IntConsumer consumer, ParseStats stats) {
+        parseLines(buffer, from, to, consumer, null, stats);
+    }
+
+    /**
+     * Parse every line of the buffer range as an IPv4 or an IPv6 address. Only the lines which are not IPv4
+     * addresses are parsed by {@link IPv6Converter}, so IPv4 input costs the same as without IPv6 support.
+     *
+     * @param buffer       - buffer with IPs bytes separated by line feeds
+     * @param from         - index of the first byte of the range (inclusive)
+     * @param to           - index of the last byte of the range (exclusive)
+     * @param consumer     - consumer of valid IPv4 addresses as ints
+     * @param ipv6Consumer - consumer of valid IPv6 addresses, null if they are counted as malformed
+     * @param stats        - stats to count the lines to
+     */
+    public static void parseLines(ByteBuffer buffer, int from, int to, IntConsumer consumer,
+                                  IPv6Consumer ipv6Consumer, ParseStats stats) {
+        long[] ipv6 = ipv6Consumer == null ? null : new long[2];
+        int lineStart = from;
+        while (lineStart < to) {
+            int lineFeed = indexOfLineFeed(buffer, lineStart, to);
+            int lineEnd = lineFeed > lineStart && buffer.get(lineFeed - 1) == CARRIAGE_RETURN ? lineFeed - 1 : lineFeed;
+            long ip = parse(buffer, lineStart, lineEnd);
+            if (ip != INVALID) {
+                stats.countLine();
+                consumer.accept((int) ip);
+            } else if (ipv6 != null && IPv6Converter.parse(buffer, lineStart, lineEnd, ipv6)) {
+                stats.countIpv6Line();
+                ipv6Consumer.accept(ipv6[0], ipv6[1]);
+            } else {
+                stats.countMalformed();
+            }
+            lineStart = lineFeed + 1;
         }
+    }
+
+    /**
+     * The same as {@link #parseLines(ByteBuffer, int, int, IntConsumer, ParseStats)} for a byte array
+     */
+    public static void parseLines(byte[] bytes, int from, int to, IntConsumer consumer, ParseStats stats) {
+        parseLines(ByteBuffer.wrap(bytes), from, to, consumer, stats);
+    }
 
-        ipAsInt = (ipAsInt << 8) + octet;
-        return ipAsInt;
+    /**
+     * The same as {@link #parseLines(ByteBuffer, int, int, IntConsumer, IPv6Consumer, ParseStats)} for a byte array
+     */
+    public static void parseLines(byte[] bytes, int from, int to, IntConsumer consumer, IPv6Consumer ipv6Consumer,
+                                  ParseStats stats) {
+        parseLines(ByteBuffer.wrap(bytes), from, to, consumer, ipv6Consumer, stats);
     }
 
+    /**
+     * @return index of the first line feed in the range or its end if there is none
+     */
+    static int indexOfLineFeed(ByteBuffer buffer, int from, int to) {
+        int position = from;
+        for (; position + Long.BYTES <= to; position += Long.BYTES) {
+            long word = buffer.getLong(position) ^ LINE_FEEDS;
+            // the high bit of every byte which was a line feed (exact, no false positives from borrows)
+            long found = ~(((word & LOW_SEVEN_BITS) + LOW_SEVEN_BITS) | word | LOW_SEVEN_BITS);
+            if (found != 0) {
+                int index = buffer.order() == ByteOrder.BIG_ENDIAN
+                        ? Long.numberOfLeadingZeros(found) : Long.numberOfTrailingZeros(found);
+                return position + (index >>> 3);
+            }
+        }
+        for (; position < to; position++) {
+            if (buffer.get(position) == LINE_FEED) {
+                return position;
+            }
+        }
+        return to;
+    }
 }
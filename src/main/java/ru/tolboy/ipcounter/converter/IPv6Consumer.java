@@ -0,0 +1,13 @@
+package ru.tolboy.ipcounter.converter;
+
+/**
+ * Consumer of IPv6 addresses as two longs, so no object is created per address.
+ */
+@FunctionalInterface
+public interface IPv6Consumer {
+    /**
+     * @param high - high 64 bits of the address
+     * @param low  - low 64 bits of the address
+     */
+    void accept(long high, long low);
+}
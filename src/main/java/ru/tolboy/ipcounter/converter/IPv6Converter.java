@@ -0,0 +1,157 @@
+package ru.tolboy.ipcounter.converter;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The parser of IPv6 addresses into two longs: the high and the low 64 bits of the address.
+ * <p>
+ * Supported forms are eight groups of one to four hex digits separated by colons, one {@code ::} standing for one
+ * or more zero groups, and an embedded IPv4 address as the last 32 bits, e.g. {@code ::ffff:10.0.0.1}. Zone ids
+ * and brackets are not accepted. Like {@link IPConverter}, parsing does not throw and allocates nothing: the result
+ * is written to a caller-provided array.
+ */
+public class IPv6Converter {
+    private static final int GROUPS = 8;
+    private static final int GROUP_BITS = 16;
+    private static final int MAX_GROUP_DIGITS = 4;
+    private static final byte COLON = ':';
+    private static final byte DOT = '.';
+
+    private IPv6Converter() {
+    }
+
+    /**
+     * Parse an IPv6 address without throwing
+     *
+     * @param ipAddress - IPs char sequence
+     * @param result    - array of at least two elements for the high and the low 64 bits of the address
+     * @return whether the address is valid, the result is undefined if it is not
+     */
+    public static boolean parse(CharSequence ipAddress, long[] result) {
+        for (int i = 0; i < ipAddress.length(); i++) {
+            if (ipAddress.charAt(i) > 0x7F) {
+                return false;
+            }
+        }
+        byte[] bytes = ipAddress.toString().getBytes(StandardCharsets.US_ASCII);
+        return parse(ByteBuffer.wrap(bytes), 0, bytes.length, result);
+    }
+
+    /**
+     * Parse an IPv6 address from US-ASCII bytes of the buffer range without throwing
+     *
+     * @param buffer - buffer with IPs bytes
+     * @param from   - index of the first byte of the IP (inclusive)
+     * @param to     - index of the last byte of the IP (exclusive)
+     * @param result - array of at least two elements for the high and the low 64 bits of the address
+     * @return whether the address is valid, the result is undefined if it is not
+     */
+    public static boolean parse(ByteBuffer buffer, int from, int to, long[] result) {
+        // groups are shifted in from the right, so the groups after "::" are moved to the end at last
+        long high = 0;
+        long low = 0;
+        int groups = 0;
+        // number of groups before "::" or -1
+        int compressedAt = -1;
+        int position = from;
+        if (to - from >= 2 && buffer.get(from) == COLON && buffer.get(from + 1) == COLON) {
+            compressedAt = 0;
+            position += 2;
+        }
+        while (position < to) {
+            int start = position;
+            int group = 0;
+            int digit;
+            while (position < to && position - start < MAX_GROUP_DIGITS
+                    && (digit = hexDigit(buffer.get(position))) >= 0) {
+                group = group << 4 | digit;
+                position++;
+            }
+            if (position < to && buffer.get(position) == DOT) {
+                // embedded IPv4 address, it is the last 32 bits
+                long ip = IPConverter.parse(buffer, start, to);
+                if (ip == IPConverter.INVALID || groups > GROUPS - 2) {
+                    return false;
+                }
+                high = high << 32 | low >>> 32;
+                low = low << 32 | ip;
+                groups += 2;
+                break;
+            }
+            if (position == start || groups == GROUPS) {
+                return false;
+            }
+            high = high << GROUP_BITS | low >>> (Long.SIZE - GROUP_BITS);
+            low = low << GROUP_BITS | group;
+            groups++;
+            if (position == to) {
+                break;
+            }
+            if (buffer.get(position++) != COLON || position == to) {
+                return false;
+            }
+            if (buffer.get(position) == COLON) {
+                if (compressedAt >= 0) {
+                    return false;
+                }
+                compressedAt = groups;
+                position++;
+            }
+        }
+        if (compressedAt < 0) {
+            if (groups != GROUPS) {
+                return false;
+            }
+            result[0] = high;
+            result[1] = low;
+            return true;
+        }
+        if (groups == GROUPS) {
+            return false;
+        }
+        // head groups go to the top, the zero groups of "::" stay between them and the tail groups
+        int tailBits = (groups - compressedAt) * GROUP_BITS;
+        int headShift = (GROUPS - compressedAt) * GROUP_BITS;
+        long tailHigh = tailBits > Long.SIZE ? high & ((1L << (tailBits - Long.SIZE)) - 1) : 0;
+        long tailLow = tailBits >= Long.SIZE ? low : low & ((1L << tailBits) - 1);
+        long headHigh = shiftRightHigh(high, tailBits);
+        long headLow = shiftRightLow(high, low, tailBits);
+        result[0] = shiftLeftHigh(headHigh, headLow, headShift) | tailHigh;
+        result[1] = shiftLeftLow(headLow, headShift) | tailLow;
+        return true;
+    }
+
+    private static int hexDigit(byte b) {
+        if (b >= '0' && b <= '9') {
+            return b - '0';
+        } else if (b >= 'a' && b <= 'f') {
+            return b - 'a' + 10;
+        } else if (b >= 'A' && b <= 'F') {
+            return b - 'A' + 10;
+        }
+        return -1;
+    }
+
+    private static long shiftRightHigh(long high, int bits) {
+        return bits >= Long.SIZE ? 0 : high >>> bits;
+    }
+
+    private static long shiftRightLow(long high, long low, int bits) {
+        if (bits == 0) {
+            return low;
+        }
+        return bits >= Long.SIZE ? high >>> (bits - Long.SIZE) : low >>> bits | high << (Long.SIZE - bits);
+    }
+
+    private static long shiftLeftHigh(long high, long low, int bits) {
+        if (bits == 0) {
+            return high;
+        }
+        return bits >= Long.SIZE ? low << (bits - Long.SIZE) : high << bits | low >>> (Long.SIZE - bits);
+    }
+
+    private static long shiftLeftLow(long low, int bits) {
+        return bits >= Long.SIZE ? 0 : low << bits;
+    }
+}
@@ -0,0 +1,70 @@
+package ru.tolboy.ipcounter.converter;
+
+/**
+ * Counters of parsed lines, not thread-safe: every worker keeps its own one, they are merged with {@link #add}.
+ */
+public class ParseStats {
+    private long lines;
+    private long malformed;
+    private long ipv6;
+
+    /**
+     * Count a valid line
+     */
+    public void countLine() {
+        lines++;
+    }
+
+    /**
+     * Count a valid IPv6 line
+     */
+    public void countIpv6Line() {
+        lines++;
+        ipv6++;
+    }
+
+    /**
+     * Count a malformed line
+     */
+    public void countMalformed() {
+        lines++;
+        malformed++;
+    }
+
+    /**
+     * Add counters of other stats to this one
+     *
+     * @param other - stats to add
+     */
+    public void add(ParseStats other) {
+        lines += other.lines;
+        malformed += other.malformed;
+        ipv6 += other.ipv6;
+    }
+
+    /**
+     * @return count of all parsed lines including malformed ones
+     */
+    public long getLines() {
+        return lines;
+    }
+
+    /**
+     * @return count of lines which are not valid addresses
+     */
+    public long getMalformed() {
+        return malformed;
+    }
+
+    /**
+     * @return count of valid IPv6 lines, they are counted only if IPv6 addresses are parsed
+     */
+    public long getIpv6() {
+        return ipv6;
+    }
+
+    @Override
+    public String toString() {
+        return "lines=" + lines + ", malformed=" + malformed + ", ipv6=" + ipv6;
+    }
+}
@@ -0,0 +1,342 @@
+package ru.tolboy.ipcounter.generator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Generator of synthetic files with IP addresses, one per line, whose distinct count is known exactly.
+ * <p>
+ * Every line is a pure function of its number, so the lines are rendered by many threads without coordination:
+ * <ul>
+ *     <li>malformed lines are spread evenly, line {@code i} is malformed if {@code floor((i + 1) * rate)} grows</li>
+ *     <li>valid lines are numbered apart, a bijection shuffles the numbers, the lines which get numbers below the
+ *     distinct count hold every distinct address exactly once, the others repeat addresses drawn from the
+ *     duplicate distribution</li>
+ *     <li>an address number is turned into an IPv4 address by a bijection of 32-bit ints or into an IPv6 address
+ *     of the 2001:db8::/32 documentation prefix by a bijection of longs, so different numbers give different
+ *     addresses</li>
+ * </ul>
+ * Workers render blocks of {@value #BLOCK_LINES} lines into their own arrays, copy them to their own direct buffers,
+ * so the channel does not copy them again, and write them at offsets reserved atomically. The order of blocks in
+ * the file depends on thread timing, their content does not.
+ */
+public class DatasetGenerator {
+    private static final int BLOCK_LINES = 1 << 18;
+    // "2001:db8::ffff:ffff:ffff:ffff" and a line feed
+    private static final int MAX_LINE_BYTES = 30;
+    private static final byte[] IPV6_PREFIX_TEXT = "2001:db8::".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[][] MALFORMED_LINES = {
+            bytes("256.1.1.1"), bytes("10.0.0"), bytes("not an ip"), bytes("1::2::3"), bytes("")
+    };
+    private static final byte[][] OCTETS = new byte[256][];
+    private static final byte[] HEX_DIGITS = bytes("0123456789abcdef");
+    private static final byte LINE_FEED = '\n';
+    private static final byte DOT = '.';
+    private static final byte COLON = ':';
+
+    static {
+        for (int i = 0; i < OCTETS.length; i++) {
+            OCTETS[i] = bytes(String.valueOf(i));
+        }
+    }
+
+    private final long lines;
+    private final double malformedRate;
+    private final double skew;
+    private final long seed;
+    private final int threads;
+    private final long validLines;
+    private final long ipv4Distinct;
+    private final long ipv6Distinct;
+    private final int validBits;
+
+    /**
+     * @param lines         - number of lines
+     * @param distinctRatio - share of distinct addresses among valid lines, from 0 exclusive to 1
+     * @param ipv6Ratio     - share of IPv6 addresses among distinct ones, from 0 to 1
+     * @param malformedRate - share of malformed lines, from 0 to 1 exclusive
+     * @param skew          - exponent of the duplicate distribution, 1 repeats all addresses evenly, larger values
+     *                      repeat addresses with small numbers more often
+     * @param seed          - seed of the bijections, equal seeds give equal lines
+     * @param threads       - number of writer threads
+     * @throws IllegalArgumentException if a parameter is out of its range or there are more distinct IPv4
+     *                                  addresses than 2^32
+     */
+    public DatasetGenerator(long lines, double distinctRatio, double ipv6Ratio, double malformedRate, double skew,
+                            long seed, int threads) {
+        if (lines < 0) {
+            throw new IllegalArgumentException("Number of lines must not be negative: " + lines);
+        }
+        if (!(distinctRatio > 0 && distinctRatio <= 1)) {
+            throw new IllegalArgumentException("Distinct ratio must be from 0 exclusive to 1: " + distinctRatio);
+        }
+        if (!(ipv6Ratio >= 0 && ipv6Ratio <= 1)) {
+            throw new IllegalArgumentException("IPv6 ratio must be from 0 to 1: " + ipv6Ratio);
+        }
+        if (!(malformedRate >= 0 && malformedRate < 1)) {
+            throw new IllegalArgumentException("Malformed rate must be from 0 to 1 exclusive: " + malformedRate);
+        }
+        if (!(skew >= 1)) {
+            throw new IllegalArgumentException("Skew must be at least 1: " + skew);
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("Threads count must be positive: " + threads);
+        }
+        this.lines = lines;
+        this.malformedRate = malformedRate;
+        this.skew = skew;
+        this.seed = seed;
+        this.threads = threads;
+        this.validLines = lines - malformedBefore(lines);
+        long distinct = Math.max(Math.min(validLines, 1), Math.min(validLines, Math.round(validLines * distinctRatio)));
+        this.ipv6Distinct = Math.round(distinct * ipv6Ratio);
+        this.ipv4Distinct = distinct - ipv6Distinct;
+        if (ipv4Distinct > 1L << Integer.SIZE) {
+            throw new IllegalArgumentException("There are only 2^32 IPv4 addresses: " + ipv4Distinct);
+        }
+        this.validBits = validLines <= 1 ? 0 : Long.SIZE - Long.numberOfLeadingZeros(validLines - 1);
+    }
+
+    /**
+     * Write the lines to the file, it is replaced if it exists
+     *
+     * @param path - path to the target file
+     * @return exact counts of the generated file
+     * @throws IOException if the file can not be written
+     */
+    public Result generate(Path path) throws IOException {
+        long blocks = (lines + BLOCK_LINES - 1) / BLOCK_LINES;
+        int workers = (int) Math.max(1, Math.min(threads, blocks));
+        AtomicLong nextBlock = new AtomicLong();
+        AtomicLong nextOffset = new AtomicLong();
+        LongAdder ipv6Lines = new LongAdder();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ExecutorService executor = Executors.newFixedThreadPool(workers);
+            try {
+                List<Future<?>> results = new ArrayList<>(workers);
+                for (int i = 0; i < workers; i++) {
+                    results.add(executor.submit(() -> {
+                        byte[] bytes = new byte[BLOCK_LINES * MAX_LINE_BYTES];
+                        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+                        for (long block = nextBlock.getAndIncrement(); block < blocks;
+                             block = nextBlock.getAndIncrement()) {
+                            long from = block * BLOCK_LINES;
+                            long to = Math.min(lines, from + BLOCK_LINES);
+                            int length = 0;
+                            long blockIpv6Lines = 0;
+                            for (long line = from; line < to; line++) {
+                                int lineEnd = writeLine(bytes, length, line);
+                                blockIpv6Lines += lineEnd < 0 ? 1 : 0;
+                                length = lineEnd < 0 ? ~lineEnd : lineEnd;
+                            }
+                            ipv6Lines.add(blockIpv6Lines);
+                            buffer.clear();
+                            buffer.put(bytes, 0, length).flip();
+                            long position = nextOffset.getAndAdd(buffer.remaining());
+                            while (buffer.hasRemaining()) {
+                                position += channel.write(buffer, position);
+                            }
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> result : results) {
+                    result.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Generation of " + path + " was interrupted", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+        return new Result(lines, lines - validLines, ipv6Lines.sum(), ipv4Distinct, ipv6Distinct, nextOffset.get());
+    }
+
+    /**
+     * @return index right after the line, inverted if the line is an IPv6 address
+     */
+    private int writeLine(byte[] bytes, int position, long line) {
+        long malformed = malformedBefore(line);
+        if (malformedBefore(line + 1) > malformed) {
+            byte[] text = MALFORMED_LINES[(int) Long.remainderUnsigned(mix(line ^ seed), MALFORMED_LINES.length)];
+            System.arraycopy(text, 0, bytes, position, text.length);
+            bytes[position + text.length] = LINE_FEED;
+            return position + text.length + 1;
+        }
+        long address = addressNumber(line - malformed);
+        if (address < ipv4Distinct) {
+            return writeIpv4(bytes, position, (int) permute(address, Integer.SIZE, seed));
+        }
+        return ~writeIpv6(bytes, position, mix(address - ipv4Distinct + seed));
+    }
+
+    private long malformedBefore(long line) {
+        return (long) Math.floor(line * malformedRate);
+    }
+
+    /**
+     * @param valid - number of the valid line
+     * @return number of the address of the line, from 0 to the distinct count exclusive
+     */
+    private long addressNumber(long valid) {
+        long shuffled = valid;
+        // cycle walking: the bijection of the power-of-two range is applied until the number is in range again
+        do {
+            shuffled = permute(shuffled, validBits, ~seed);
+        } while (shuffled >= validLines);
+        long distinct = ipv4Distinct + ipv6Distinct;
+        if (shuffled < distinct) {
+            return shuffled;
+        }
+        double uniform = (mix(shuffled ^ seed) >>> 11) * 0x1.0p-53;
+        return (long) (distinct * (skew == 1 ? uniform : Math.pow(uniform, skew)));
+    }
+
+    /**
+     * @return index right after the line
+     */
+    private static int writeIpv4(byte[] bytes, int position, int ip) {
+        int end = position;
+        for (int shift = Integer.SIZE - 8; shift >= 0; shift -= 8) {
+            byte[] octet = OCTETS[ip >>> shift & 0xFF];
+            for (byte digit : octet) {
+                bytes[end++] = digit;
+            }
+            bytes[end++] = shift == 0 ? LINE_FEED : DOT;
+        }
+        return end;
+    }
+
+    /**
+     * Write an address of the documentation prefix, the zero groups after the prefix are compressed
+     *
+     * @return index right after the line
+     */
+    private static int writeIpv6(byte[] bytes, int position, long low) {
+        System.arraycopy(IPV6_PREFIX_TEXT, 0, bytes, position, IPV6_PREFIX_TEXT.length);
+        int end = position + IPV6_PREFIX_TEXT.length;
+        for (int shift = Long.SIZE - 16; shift >= 0; shift -= 16) {
+            int group = (int) (low >>> shift) & 0xFFFF;
+            boolean leading = true;
+            for (int digitShift = 12; digitShift >= 0; digitShift -= 4) {
+                int digit = group >>> digitShift & 0xF;
+                if (digit != 0 || !leading || digitShift == 0) {
+                    bytes[end++] = HEX_DIGITS[digit];
+                    leading = false;
+                }
+            }
+            bytes[end++] = shift == 0 ? LINE_FEED : COLON;
+        }
+        return end;
+    }
+
+    /**
+     * Bijection of numbers of the given bit length: multiplication by an odd number, xor with the high half and
+     * addition of a key are invertible modulo 2^bits
+     */
+    static long permute(long value, int bits, long key) {
+        long mask = bits == Long.SIZE ? -1 : (1L << bits) - 1;
+        int shift = (bits + 1) / 2;
+        long result = value;
+        for (int round = 0; round < 3; round++) {
+            result = (result * 0x9E3779B97F4A7C15L + key) & mask;
+            result ^= result >>> shift;
+        }
+        return result;
+    }
+
+    /**
+     * Finalizer of MurmurHash3, a bijection of longs
+     */
+    private static long mix(long value) {
+        long hash = value;
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Exact counts of a generated file, the distinct counts are what a correct counter reports
+     */
+    public static final class Result {
+        private final long lines;
+        private final long malformed;
+        private final long ipv6Lines;
+        private final long ipv4Distinct;
+        private final long ipv6Distinct;
+        private final long bytes;
+
+        private Result(long lines, long malformed, long ipv6Lines, long ipv4Distinct, long ipv6Distinct,
+                       long bytes) {
+            this.lines = lines;
+            this.malformed = malformed;
+            this.ipv6Lines = ipv6Lines;
+            this.ipv4Distinct = ipv4Distinct;
+            this.ipv6Distinct = ipv6Distinct;
+            this.bytes = bytes;
+        }
+
+        public long getLines() {
+            return lines;
+        }
+
+        public long getMalformed() {
+            return malformed;
+        }
+
+        public long getIpv6Lines() {
+            return ipv6Lines;
+        }
+
+        public long getIpv4Distinct() {
+            return ipv4Distinct;
+        }
+
+        public long getIpv6Distinct() {
+            return ipv6Distinct;
+        }
+
+        /**
+         * @return count of distinct IPv4 and IPv6 addresses
+         */
+        public long getDistinct() {
+            return ipv4Distinct + ipv6Distinct;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public String toString() {
+            return "lines=" + lines + ", malformed=" + malformed + ", ipv6Lines=" + ipv6Lines + ", ipv4Distinct="
+                    + ipv4Distinct + ", ipv6Distinct=" + ipv6Distinct + ", bytes=" + bytes;
+        }
+    }
+}
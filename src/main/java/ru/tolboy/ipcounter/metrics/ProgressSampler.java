@@ -0,0 +1,102 @@
+package ru.tolboy.ipcounter.metrics;
+
+import org.tinylog.Logger;
+import ru.tolboy.ipcounter.container.IntContainer;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples {@link ScanMetrics} periodically on a daemon thread: logs throughput, progress and ETA, and commits a
+ * {@link ScanProgressEvent}. Rates are computed from the difference to the previous sample, ETA from the average
+ * throughput of the whole scan. The scanner threads are not touched, the sampler only reads the counters.
+ */
+public class ProgressSampler implements AutoCloseable {
+    private static final double MEGABYTE = 1 << 20;
+
+    private final ScanMetrics metrics;
+    private final IntContainer container;
+    private final ScheduledExecutorService executor;
+    private long lastNanos;
+    private long lastBytes;
+    private long lastLines;
+    private long lastGcMillis;
+
+    /**
+     * @param metrics   - metrics of the scan
+     * @param container - target container, its fill ratio is sampled if it supports it
+     * @param interval  - time between samples
+     */
+    public ProgressSampler(ScanMetrics metrics, IntContainer container, Duration interval) {
+        this.metrics = metrics;
+        this.container = container;
+        this.lastNanos = metrics.getElapsedNanos();
+        this.executor = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, getClass().getSimpleName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleAtFixedRate(this::sample, interval.toNanos(), interval.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param metrics   - metrics of the scan
+     * @param container - target container
+     * @param interval  - time between samples, zero disables sampling
+     * @return started sampler, or null if sampling is disabled
+     */
+    public static ProgressSampler start(ScanMetrics metrics, IntContainer container, Duration interval) {
+        return interval.isZero() ? null : new ProgressSampler(metrics, container, interval);
+    }
+
+    /**
+     * Take one sample
+     */
+    synchronized void sample() {
+        long nanos = metrics.getElapsedNanos();
+        long bytes = metrics.getBytes();
+        long lines = metrics.getLines();
+        long gcMillis = metrics.getGcMillis();
+        double seconds = Math.max(1, nanos - lastNanos) / 1e9;
+        long bytesPerSecond = (long) ((bytes - lastBytes) / seconds);
+        long linesPerSecond = (long) ((lines - lastLines) / seconds);
+        double gcRatio = Math.min(1, (gcMillis - lastGcMillis) / 1e3 / seconds);
+        double fillRatio = container.sampleFillRatio();
+        long eta = metrics.getEtaSeconds();
+        lastNanos = nanos;
+        lastBytes = bytes;
+        lastLines = lines;
+        lastGcMillis = gcMillis;
+
+        Logger.info(String.format(Locale.ROOT,
+                "Scanned %.0f of %.0f MB, %.1f MB/s, %d lines/s, %d malformed, fill %s, GC %.1f%%, ETA %s",
+                bytes / MEGABYTE, metrics.getTotalBytes() / MEGABYTE, bytesPerSecond / MEGABYTE, linesPerSecond,
+                metrics.getMalformed(), Double.isNaN(fillRatio) ? "n/a" : String.format(Locale.ROOT, "%.2f%%",
+                        fillRatio * 100), gcRatio * 100, eta < 0 ? "n/a" : eta + " s"));
+
+        ScanProgressEvent event = new ScanProgressEvent();
+        if (event.isEnabled()) {
+            event.bytes = bytes;
+            event.totalBytes = metrics.getTotalBytes();
+            event.lines = lines;
+            event.malformed = metrics.getMalformed();
+            event.bytesPerSecond = bytesPerSecond;
+            event.linesPerSecond = linesPerSecond;
+            event.fillRatio = fillRatio;
+            event.gcRatio = gcRatio;
+            event.eta = eta;
+            event.readTime = metrics.getNanos(ScanStage.READ);
+            event.waitTime = metrics.getNanos(ScanStage.WAIT);
+            event.parseTime = metrics.getNanos(ScanStage.PARSE);
+            event.commit();
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,120 @@
+package ru.tolboy.ipcounter.metrics;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live counters of one scan. Scanner threads update them once per chunk or block, not per line, and the counters
+ * are striped {@link LongAdder}s, so threads do not contend on them. Readers such as {@link ProgressSampler} see
+ * the progress while the scan goes on.
+ * <p>
+ * Time and GC time are measured from the creation of the metrics.
+ */
+public class ScanMetrics {
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder lines = new LongAdder();
+    private final LongAdder malformed = new LongAdder();
+    private final LongAdder[] stageNanos = new LongAdder[ScanStage.values().length];
+    private final long startNanos = System.nanoTime();
+    private final long startGcMillis = totalGcMillis();
+    private volatile long totalBytes;
+
+    public ScanMetrics() {
+        for (int i = 0; i < stageNanos.length; i++) {
+            stageNanos[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Count a scanned piece of input
+     *
+     * @param bytes     - bytes of the input read, compressed ones for compressed files
+     * @param lines     - lines parsed including malformed ones
+     * @param malformed - malformed lines
+     */
+    public void addProgress(long bytes, long lines, long malformed) {
+        if (bytes != 0) {
+            this.bytes.add(bytes);
+        }
+        if (lines != 0) {
+            this.lines.add(lines);
+        }
+        if (malformed != 0) {
+            this.malformed.add(malformed);
+        }
+    }
+
+    /**
+     * @param stage - stage of the scan
+     * @param nanos - time spent in the stage by one thread
+     */
+    public void addTime(ScanStage stage, long nanos) {
+        stageNanos[stage.ordinal()].add(nanos);
+    }
+
+    /**
+     * @param totalBytes - size of the whole input in bytes, 0 if it is unknown
+     */
+    public void setTotalBytes(long totalBytes) {
+        this.totalBytes = totalBytes;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    public long getLines() {
+        return lines.sum();
+    }
+
+    public long getMalformed() {
+        return malformed.sum();
+    }
+
+    /**
+     * @param stage - stage of the scan
+     * @return time spent in the stage by all threads
+     */
+    public long getNanos(ScanStage stage) {
+        return stageNanos[stage.ordinal()].sum();
+    }
+
+    /**
+     * @return time since the metrics were created
+     */
+    public long getElapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    /**
+     * @return time spent by garbage collectors since the metrics were created, summed over the collectors
+     */
+    public long getGcMillis() {
+        return totalGcMillis() - startGcMillis;
+    }
+
+    /**
+     * @return estimated time left from the average throughput so far, or -1 if it is unknown
+     */
+    public long getEtaSeconds() {
+        long scanned = getBytes();
+        long total = totalBytes;
+        if (total <= 0 || scanned <= 0) {
+            return -1;
+        }
+        return Math.max(0, (long) ((double) (total - scanned) / scanned * getElapsedNanos() / 1e9));
+    }
+
+    static long totalGcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, collector.getCollectionTime());
+        }
+        return millis;
+    }
+}
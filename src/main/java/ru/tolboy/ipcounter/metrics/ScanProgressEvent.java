@@ -0,0 +1,70 @@
+package ru.tolboy.ipcounter.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Frequency;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Percentage;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event with a sample of {@link ScanMetrics}, committed by {@link ProgressSampler} on every sample
+ */
+@Name("ru.tolboy.ipcounter.ScanProgress")
+@Label("Scan Progress")
+@Category("IP Counter")
+@Description("Periodic sample of the progress of an IP scan")
+@StackTrace(false)
+final class ScanProgressEvent extends Event {
+    @Label("Bytes Scanned")
+    @DataAmount
+    long bytes;
+
+    @Label("Total Bytes")
+    @DataAmount
+    long totalBytes;
+
+    @Label("Lines")
+    long lines;
+
+    @Label("Malformed Lines")
+    long malformed;
+
+    @Label("Read Rate")
+    @DataAmount
+    @Frequency
+    long bytesPerSecond;
+
+    @Label("Line Rate")
+    @Frequency
+    long linesPerSecond;
+
+    @Label("Container Fill Ratio")
+    @Percentage
+    double fillRatio;
+
+    @Label("GC Time Ratio")
+    @Description("Share of the sample interval spent in garbage collection")
+    @Percentage
+    double gcRatio;
+
+    @Label("Estimated Time Left")
+    @Timespan(Timespan.SECONDS)
+    long eta;
+
+    @Label("Read Time")
+    @Timespan
+    long readTime;
+
+    @Label("Wait Time")
+    @Timespan
+    long waitTime;
+
+    @Label("Parse Time")
+    @Timespan
+    long parseTime;
+}
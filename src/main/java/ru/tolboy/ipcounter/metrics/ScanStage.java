@@ -0,0 +1,29 @@
+package ru.tolboy.ipcounter.metrics;
+
+/**
+ * Stages of a scan timed by {@link ScanMetrics}. Times of the stages run by many threads are summed over the
+ * threads.
+ */
+public enum ScanStage {
+    /**
+     * Reading and decompression of files, for memory-mapped files only mapping: their page faults happen while
+     * the bytes are parsed
+     */
+    READ,
+    /**
+     * Waiting of pipeline stages for each other: readers for free blocks, parsers for filled ones
+     */
+    WAIT,
+    /**
+     * Parsing of lines and adding the addresses to containers
+     */
+    PARSE,
+    /**
+     * Merging of per-thread containers into the target one
+     */
+    MERGE,
+    /**
+     * Counting of distinct addresses in the target container
+     */
+    COUNT
+}
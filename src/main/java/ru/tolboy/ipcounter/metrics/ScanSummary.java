@@ -0,0 +1,108 @@
+package ru.tolboy.ipcounter.metrics;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Final machine-readable summary of a scan: the totals of {@link ScanMetrics} and any fields of the caller,
+ * rendered as one JSON object.
+ */
+public class ScanSummary {
+    private final Map<String, Object> fields = new LinkedHashMap<>();
+
+    /**
+     * @param metrics - metrics of a complete scan
+     * @return summary with throughput, GC time and stage timings of the scan
+     */
+    public static ScanSummary of(ScanMetrics metrics) {
+        ScanSummary summary = new ScanSummary();
+        long nanos = metrics.getElapsedNanos();
+        double seconds = Math.max(1, nanos) / 1e9;
+        summary.put("elapsedMillis", nanos / 1_000_000)
+                .put("bytes", metrics.getBytes())
+                .put("lines", metrics.getLines())
+                .put("malformed", metrics.getMalformed())
+                .put("bytesPerSecond", (long) (metrics.getBytes() / seconds))
+                .put("linesPerSecond", (long) (metrics.getLines() / seconds))
+                .put("gcMillis", metrics.getGcMillis());
+        Map<String, Object> stages = new LinkedHashMap<>();
+        for (ScanStage stage : ScanStage.values()) {
+            stages.put(stage.name().toLowerCase(Locale.ROOT), metrics.getNanos(stage) / 1_000_000);
+        }
+        return summary.put("stageMillis", stages);
+    }
+
+    /**
+     * @param name  - name of the field
+     * @param value - number, string, boolean or a map of them
+     * @return this summary
+     */
+    public ScanSummary put(String name, Object value) {
+        fields.put(name, value);
+        return this;
+    }
+
+    /**
+     * @return the summary as a JSON object, numbers which are not finite are written as null
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        appendValue(json, fields);
+        return json.toString();
+    }
+
+    /**
+     * @param file - file to write the JSON summary to, it is replaced if it exists
+     * @throws IOException if the file can not be written
+     */
+    public void writeTo(Path file) throws IOException {
+        Files.writeString(file, toJson() + System.lineSeparator(), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return toJson();
+    }
+
+    private static void appendValue(StringBuilder json, Object value) {
+        if (value instanceof Map) {
+            json.append('{');
+            String separator = "";
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                json.append(separator);
+                appendString(json, String.valueOf(entry.getKey()));
+                json.append(':');
+                appendValue(json, entry.getValue());
+                separator = ",";
+            }
+            json.append('}');
+        } else if (value instanceof Double || value instanceof Float) {
+            double number = ((Number) value).doubleValue();
+            json.append(Double.isFinite(number) ? String.valueOf(number) : "null");
+        } else if (value instanceof Number || value instanceof Boolean || value == null) {
+            json.append(value);
+        } else {
+            appendString(json, value.toString());
+        }
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < ' ') {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+}
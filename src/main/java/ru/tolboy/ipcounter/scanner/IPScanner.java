@@ -0,0 +1,39 @@
+package ru.tolboy.ipcounter.scanner;
+
+import ru.tolboy.ipcounter.container.IntContainer;
+import ru.tolboy.ipcounter.converter.ParseStats;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Reader of a source file with one IP address per line.
+ */
+public interface IPScanner {
+    /**
+     * Parse every IP address of the file and add it to the target container, malformed lines are skipped
+     *
+     * @param path   - path to a source file
+     * @param target - container to add the parsed addresses to
+     * @return count of parsed and malformed lines
+     * @throws IOException if the file can not be read
+     */
+    ParseStats scan(Path path, IntContainer target) throws IOException;
+
+    /**
+     * Parse every IP address of all the files into one target container, by default files are scanned one by one
+     *
+     * @param paths  - paths to source files
+     * @param target - container to add the parsed addresses to
+     * @return count of parsed and malformed lines of all files
+     * @throws IOException if a file can not be read
+     */
+    default ParseStats scanAll(List<Path> paths, IntContainer target) throws IOException {
+        ParseStats stats = new ParseStats();
+        for (Path path : paths) {
+            stats.add(scan(path, target));
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,75 @@
+package ru.tolboy.ipcounter.scanner;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Resolver of the source files given on the command line.
+ */
+public final class InputFiles {
+    private static final String GZIP_EXTENSION = ".gz";
+    private static final String GLOB_CHARACTERS = "*?[{";
+
+    private InputFiles() {
+    }
+
+    /**
+     * Expand the arguments into regular files: a directory is replaced by all regular files under it and a glob in
+     * the file name part is matched against the files of its directory. The order of the arguments is kept, files
+     * of one argument are sorted by name.
+     *
+     * @param arguments - files, directories or globs
+     * @return list of regular files
+     * @throws IOException if a directory can not be read or nothing matches an argument
+     */
+    public static List<Path> resolve(List<Path> arguments) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (Path argument : arguments) {
+            List<Path> resolved = resolve(argument);
+            if (resolved.isEmpty()) {
+                throw new IOException("No files found for " + argument);
+            }
+            files.addAll(resolved);
+        }
+        return files;
+    }
+
+    /**
+     * @return true if the file is gzip-compressed judging by its name
+     */
+    public static boolean isGzip(Path file) {
+        return file.getFileName().toString().endsWith(GZIP_EXTENSION);
+    }
+
+    private static List<Path> resolve(Path argument) throws IOException {
+        String name = argument.getFileName() == null ? "" : argument.getFileName().toString();
+        if (name.chars().anyMatch(c -> GLOB_CHARACTERS.indexOf(c) >= 0)) {
+            Path directory = argument.getParent() == null ? Path.of("") : argument.getParent();
+            List<Path> files = new ArrayList<>();
+            try (DirectoryStream<Path> matches = Files.newDirectoryStream(directory.toAbsolutePath(), name)) {
+                for (Path match : matches) {
+                    if (Files.isRegularFile(match)) {
+                        files.add(match);
+                    }
+                }
+            }
+            files.sort(null);
+            return files;
+        }
+        if (Files.isDirectory(argument)) {
+            try (Stream<Path> tree = Files.walk(argument)) {
+                return tree.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+            }
+        }
+        if (!Files.isRegularFile(argument)) {
+            throw new IOException("File not found: " + argument);
+        }
+        return List.of(argument);
+    }
+}
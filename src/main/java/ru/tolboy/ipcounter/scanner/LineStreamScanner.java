@@ -0,0 +1,84 @@
+package ru.tolboy.ipcounter.scanner;
+
+import ru.tolboy.ipcounter.container.IntContainer;
+import ru.tolboy.ipcounter.container.OffHeapInt128Set;
+import ru.tolboy.ipcounter.converter.IPConverter;
+import ru.tolboy.ipcounter.converter.IPv6Converter;
+import ru.tolboy.ipcounter.converter.ParseStats;
+import ru.tolboy.ipcounter.metrics.ScanMetrics;
+import ru.tolboy.ipcounter.metrics.ScanStage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+/**
+ * Single-threaded {@link IPScanner} that reads the file line by line as strings.
+ * It is slow, but it is kept as a reference to compare other scanners with.
+ * <p>
+ * IPv6 addresses are added to an {@link OffHeapInt128Set} if one is given, otherwise they are malformed lines.
+ * <p>
+ * Progress is published to {@link ScanMetrics} every {@value #PUBLISH_LINES} lines, bytes are counted as the
+ * lengths of the lines plus one line feed each.
+ */
+public class LineStreamScanner implements IPScanner {
+    private static final int PUBLISH_LINES = 1 << 16;
+
+    private final ScanMetrics metrics;
+    private final OffHeapInt128Set ipv6;
+
+    public LineStreamScanner() {
+        this(new ScanMetrics());
+    }
+
+    /**
+     * @param metrics - live metrics to publish the progress to
+     */
+    public LineStreamScanner(ScanMetrics metrics) {
+        this(metrics, null);
+    }
+
+    /**
+     * @param metrics - live metrics to publish the progress to
+     * @param ipv6    - set to add IPv6 addresses to, null if they are malformed lines
+     */
+    public LineStreamScanner(ScanMetrics metrics, OffHeapInt128Set ipv6) {
+        this.metrics = metrics;
+        this.ipv6 = ipv6;
+    }
+
+    @Override
+    public ParseStats scan(Path path, IntContainer target) throws IOException {
+        ParseStats stats = new ParseStats();
+        // bytes, lines and malformed lines not published yet
+        long[] unpublished = new long[3];
+        long[] ipv6Address = new long[2];
+        long start = System.nanoTime();
+        try (Stream<String> ipAddresses = Files.lines(path, StandardCharsets.US_ASCII)) {
+            ipAddresses.forEach(ipAddress -> {
+                long ip = IPConverter.parse(ipAddress);
+                if (ip != IPConverter.INVALID) {
+                    stats.countLine();
+                    target.add((int) ip);
+                } else if (ipv6 != null && IPv6Converter.parse(ipAddress, ipv6Address)) {
+                    stats.countIpv6Line();
+                    ipv6.add(ipv6Address[0], ipv6Address[1]);
+                } else {
+                    stats.countMalformed();
+                    unpublished[2]++;
+                }
+                unpublished[0] += ipAddress.length() + 1;
+                if (++unpublished[1] == PUBLISH_LINES) {
+                    metrics.addProgress(unpublished[0], unpublished[1], unpublished[2]);
+                    unpublished[0] = unpublished[1] = unpublished[2] = 0;
+                }
+            });
+        } finally {
+            metrics.addProgress(unpublished[0], unpublished[1], unpublished[2]);
+            metrics.addTime(ScanStage.PARSE, System.nanoTime() - start);
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,45 @@
+package ru.tolboy.ipcounter.scanner;
+
+import ru.tolboy.ipcounter.container.IntContainer;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Consumer of one worker thread that adds numbers to a container shared with other workers, which is not
+ * thread-safe itself. Numbers are collected into a batch and the whole batch is added under the lock of the
+ * container, so workers take the lock once per batch rather than once per number.
+ */
+final class LockedBatch implements IntConsumer {
+    private static final int SIZE = 1 << 14;
+
+    private final IntContainer target;
+    private final int[] numbers = new int[SIZE];
+    private int size;
+
+    /**
+     * @param target - container shared by workers, it is locked while a batch is added
+     */
+    LockedBatch(IntContainer target) {
+        this.target = target;
+    }
+
+    @Override
+    public void accept(int number) {
+        numbers[size++] = number;
+        if (size == SIZE) {
+            flush();
+        }
+    }
+
+    /**
+     * Add the collected numbers to the container, it must be called when the worker is done
+     */
+    void flush() {
+        synchronized (target) {
+            for (int i = 0; i < size; i++) {
+                target.add(numbers[i]);
+            }
+        }
+        size = 0;
+    }
+}
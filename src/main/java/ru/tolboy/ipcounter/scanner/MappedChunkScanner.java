@@ -0,0 +1,244 @@
+package ru.tolboy.ipcounter.scanner;
+
+import ru.tolboy.ipcounter.container.IntContainer;
+import ru.tolboy.ipcounter.container.OffHeapInt128Set;
+import ru.tolboy.ipcounter.converter.IPConverter;
+import ru.tolboy.ipcounter.converter.ParseStats;
+import ru.tolboy.ipcounter.metrics.ScanMetrics;
+import ru.tolboy.ipcounter.metrics.ScanStage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Multithreaded {@link IPScanner} that memory-maps the file.
+ * <p>
+ * The file is split into chunks which end right after a line feed, so every line belongs to exactly one chunk.
+ * Worker threads take chunks one by one, map them and parse the addresses from bytes directly. A
+ * {@link IntContainer#isConcurrent() concurrent} target container is shared by all workers. A
+ * {@link IntContainer#isFixedSize() fixed-size} one is shared too, workers add batches of addresses to it under its
+ * lock, so a bitmap is never allocated per worker. Otherwise every worker fills its own container: the first worker
+ * fills the target one, the containers of the others are merged into it with {@link IntContainer#addAll} at the end.
+ * <p>
+ * IPv6 addresses are added to an {@link OffHeapInt128Set} shared by all workers if one is given, otherwise they
+ * are counted as malformed lines.
+ * <p>
+ * Progress is published to {@link ScanMetrics} once per chunk.
+ */
+public class MappedChunkScanner implements IPScanner {
+    private static final long DEFAULT_CHUNK_SIZE = 64L << 20;
+    private static final int BOUNDARY_WINDOW = 256;
+    private static final byte LINE_FEED = '\n';
+
+    private final int threads;
+    private final long chunkSize;
+    private final Supplier<? extends IntContainer> containerFactory;
+    private final ScanMetrics metrics;
+    private final OffHeapInt128Set ipv6;
+
+    /**
+     * @param threads          - number of worker threads
+     * @param containerFactory - factory of containers for all workers but the first one, unused for shared targets
+     */
+    public MappedChunkScanner(int threads, Supplier<? extends IntContainer> containerFactory) {
+        this(threads, containerFactory, new ScanMetrics());
+    }
+
+    /**
+     * @param threads          - number of worker threads
+     * @param containerFactory - factory of containers for all workers but the first one, unused for shared targets
+     * @param metrics          - live metrics to publish the progress to
+     */
+    public MappedChunkScanner(int threads, Supplier<? extends IntContainer> containerFactory, ScanMetrics metrics) {
+        this(threads, containerFactory, metrics, null);
+    }
+
+    /**
+     * @param threads          - number of worker threads
+     * @param containerFactory - factory of containers for all workers but the first one, unused for shared targets
+     * @param metrics          - live metrics to publish the progress to
+     * @param ipv6             - set to add IPv6 addresses to, null if they are malformed lines
+     */
+    public MappedChunkScanner(int threads, Supplier<? extends IntContainer> containerFactory, ScanMetrics metrics,
+                              OffHeapInt128Set ipv6) {
+        this(threads, DEFAULT_CHUNK_SIZE, containerFactory, metrics, ipv6);
+    }
+
+    MappedChunkScanner(int threads, long chunkSize, Supplier<? extends IntContainer> containerFactory,
+                       ScanMetrics metrics, OffHeapInt128Set ipv6) {
+        if (chunkSize < 1 || chunkSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Chunk size must fit into one mapping: " + chunkSize);
+        }
+        this.threads = threads;
+        this.chunkSize = chunkSize;
+        this.containerFactory = containerFactory;
+        this.metrics = metrics;
+        this.ipv6 = ipv6;
+    }
+
+    @Override
+    public ParseStats scan(Path path, IntContainer target) throws IOException {
+        return scan(path, target, 0, Files.size(path));
+    }
+
+    /**
+     * Parse every IP address of the file range, both range ends must be line boundaries
+     *
+     * @param path   - path to a source file
+     * @param target - container to add the parsed addresses to
+     * @param from   - offset of the first byte to parse (inclusive)
+     * @param to     - offset of the last byte to parse (exclusive)
+     * @return count of parsed and malformed lines
+     * @throws IOException if the file can not be read
+     */
+    public ParseStats scan(Path path, IntContainer target, long from, long to) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long[] boundaries = chunkBoundaries(channel, from, to);
+            int chunks = boundaries.length - 1;
+            int workers = Math.min(threads, chunks);
+            ParseStats stats = new ParseStats();
+            if (workers == 0) {
+                return stats;
+            }
+            AtomicInteger nextChunk = new AtomicInteger();
+            ExecutorService executor = Executors.newFixedThreadPool(workers);
+            WorkerContainers workerContainers = new WorkerContainers(containerFactory);
+            try {
+                List<Future<IntContainer>> results = new ArrayList<>(workers);
+                ParseStats[] workerStats = new ParseStats[workers];
+                boolean shared = target.isConcurrent() || target.isFixedSize();
+                for (int i = 0; i < workers; i++) {
+                    IntContainer container = i == 0 || shared ? target : null;
+                    ParseStats chunkStats = workerStats[i] = new ParseStats();
+                    results.add(executor.submit(() -> {
+                        IntContainer workerContainer = container == null ? workerContainers.create() : container;
+                        LockedBatch batch = shared && !target.isConcurrent() ? new LockedBatch(target) : null;
+                        IntConsumer consumer = batch == null ? workerContainer::add : batch;
+                        for (int chunk = nextChunk.getAndIncrement(); chunk < chunks; chunk = nextChunk.getAndIncrement()) {
+                            long start = boundaries[chunk];
+                            long size = boundaries[chunk + 1] - start;
+                            long mapStart = System.nanoTime();
+                            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+                            long parseStart = System.nanoTime();
+                            long lines = chunkStats.getLines();
+                            long malformed = chunkStats.getMalformed();
+                            IPConverter.parseLines(buffer, 0, buffer.limit(), consumer,
+                                    ipv6 == null ? null : ipv6::add, chunkStats);
+                            metrics.addTime(ScanStage.READ, parseStart - mapStart);
+                            metrics.addTime(ScanStage.PARSE, System.nanoTime() - parseStart);
+                            metrics.addProgress(size, chunkStats.getLines() - lines,
+                                    chunkStats.getMalformed() - malformed);
+                        }
+                        if (batch != null) {
+                            batch.flush();
+                        }
+                        return workerContainer;
+                    }));
+                }
+                for (int i = 0; i < workers; i++) {
+                    IntContainer workerContainer = results.get(i).get();
+                    if (workerContainer != target) {
+                        long mergeStart = System.nanoTime();
+                        target.addAll(workerContainer);
+                        metrics.addTime(ScanStage.MERGE, System.nanoTime() - mergeStart);
+                    }
+                    stats.add(workerStats[i]);
+                }
+                return stats;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Scanning of " + path + " was interrupted", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            } finally {
+                // the other workers stop after their current chunks if the scan failed
+                nextChunk.set(chunks);
+                executor.shutdownNow();
+                workerContainers.closeAfter(executor);
+            }
+        }
+    }
+
+    /**
+     * Find the end of the last complete line, so a line which is still being appended is not parsed
+     *
+     * @param path - path to a source file
+     * @return offset right after the last line feed of the file or 0 if there is none
+     * @throws IOException if the file can not be read
+     */
+    public static long completeLinesEnd(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer window = ByteBuffer.allocate(BOUNDARY_WINDOW);
+            for (long end = channel.size(); end > 0; end -= window.limit()) {
+                window.clear();
+                window.limit((int) Math.min(BOUNDARY_WINDOW, end));
+                channel.read(window, end - window.limit());
+                for (int i = window.limit() - 1; i >= 0; i--) {
+                    if (window.get(i) == LINE_FEED) {
+                        return end - window.limit() + i + 1;
+                    }
+                }
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * Split the range into chunks of about {@link #chunkSize} bytes, every chunk but the last one ends with a line feed
+     *
+     * @return offsets of chunk starts followed by the range end
+     */
+    private long[] chunkBoundaries(FileChannel channel, long from, long to) throws IOException {
+        List<Long> boundaries = new ArrayList<>();
+        if (from >= to) {
+            return new long[]{from};
+        }
+        boundaries.add(from);
+        ByteBuffer window = ByteBuffer.allocate(BOUNDARY_WINDOW);
+        long position = from + chunkSize;
+        while (position < to) {
+            long lineEnd = findLineFeed(channel, position - 1, window);
+            if (lineEnd < 0 || lineEnd + 1 >= to) {
+                break;
+            }
+            boundaries.add(lineEnd + 1);
+            position = lineEnd + 1 + chunkSize;
+        }
+        boundaries.add(to);
+        return boundaries.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private static long findLineFeed(FileChannel channel, long from, ByteBuffer window) throws IOException {
+        long position = from;
+        while (true) {
+            window.clear();
+            int read = channel.read(window, position);
+            if (read <= 0) {
+                return -1;
+            }
+            for (int i = 0; i < read; i++) {
+                if (window.get(i) == LINE_FEED) {
+                    return position + i;
+                }
+            }
+            position += read;
+        }
+    }
+}
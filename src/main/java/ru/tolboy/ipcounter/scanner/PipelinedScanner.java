@@ -0,0 +1,296 @@
+package ru.tolboy.ipcounter.scanner;
+
+import ru.tolboy.ipcounter.container.IntContainer;
+import ru.tolboy.ipcounter.container.OffHeapInt128Set;
+import ru.tolboy.ipcounter.converter.IPConverter;
+import ru.tolboy.ipcounter.converter.ParseStats;
+import ru.tolboy.ipcounter.metrics.ScanMetrics;
+import ru.tolboy.ipcounter.metrics.ScanStage;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Multithreaded {@link IPScanner} for many plain or gzip-compressed files.
+ * <p>
+ * Reading is split into stages connected by bounded queues of reusable blocks:
+ * <ol>
+ *     <li>readers take files one by one, decompress them if needed and fill free blocks; a block is cut right
+ *     after its last line feed and the tail is carried over to the next block, so every block holds whole lines</li>
+ *     <li>parsers take filled blocks, parse them with {@link IPConverter#parseLines} and return them to the pool</li>
+ * </ol>
+ * CPU-bound decompression of some files overlaps with parsing of others, a reader waits for a free block when
+ * parsers fall behind. All files feed one target container, which is shared by parsers if it is
+ * {@link IntContainer#isConcurrent() concurrent} or {@link IntContainer#isFixedSize() fixed-size} (batches of
+ * addresses are added to the latter under its lock), otherwise per-parser containers are merged into it at the end.
+ * IPv6 addresses go to an {@link OffHeapInt128Set} shared by all parsers if one is given.
+ * <p>
+ * Progress is published to {@link ScanMetrics} once per block: readers count bytes of the files as they are stored,
+ * compressed or not, and the time they wait for free blocks, parsers count lines and the time they wait for filled
+ * blocks, so the metrics show which stage is the bottleneck.
+ */
+public class PipelinedScanner implements IPScanner {
+    private static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+    private static final byte LINE_FEED = '\n';
+    private static final Block END_OF_INPUT = new Block(0);
+
+    private final int threads;
+    private final int blockSize;
+    private final Supplier<? extends IntContainer> containerFactory;
+    private final ScanMetrics metrics;
+    private final OffHeapInt128Set ipv6;
+
+    /**
+     * @param threads          - number of parser threads, the number of reader threads is at most the same
+     * @param containerFactory - factory of containers for all parsers but the first one
+     */
+    public PipelinedScanner(int threads, Supplier<? extends IntContainer> containerFactory) {
+        this(threads, containerFactory, new ScanMetrics());
+    }
+
+    /**
+     * @param threads          - number of parser threads, the number of reader threads is at most the same
+     * @param containerFactory - factory of containers for all parsers but the first one
+     * @param metrics          - live metrics to publish the progress to
+     */
+    public PipelinedScanner(int threads, Supplier<? extends IntContainer> containerFactory, ScanMetrics metrics) {
+        this(threads, containerFactory, metrics, null);
+    }
+
+    /**
+     * @param threads          - number of parser threads, the number of reader threads is at most the same
+     * @param containerFactory - factory of containers for all parsers but the first one
+     * @param metrics          - live metrics to publish the progress to
+     * @param ipv6             - set to add IPv6 addresses to, null if they are malformed lines
+     */
+    public PipelinedScanner(int threads, Supplier<? extends IntContainer> containerFactory, ScanMetrics metrics,
+                            OffHeapInt128Set ipv6) {
+        this(threads, DEFAULT_BLOCK_SIZE, containerFactory, metrics, ipv6);
+    }
+
+    PipelinedScanner(int threads, int blockSize, Supplier<? extends IntContainer> containerFactory,
+                     ScanMetrics metrics, OffHeapInt128Set ipv6) {
+        this.threads = threads;
+        this.blockSize = blockSize;
+        this.containerFactory = containerFactory;
+        this.metrics = metrics;
+        this.ipv6 = ipv6;
+    }
+
+    @Override
+    public ParseStats scan(Path path, IntContainer target) throws IOException {
+        return scanAll(List.of(path), target);
+    }
+
+    @Override
+    public ParseStats scanAll(List<Path> paths, IntContainer target) throws IOException {
+        int readers = Math.max(1, Math.min(paths.size(), threads));
+        int parsers = threads;
+        // two blocks per thread: one is being filled or parsed, the other one waits in a queue
+        BlockingQueue<Block> free = new ArrayBlockingQueue<>(2 * (readers + parsers));
+        BlockingQueue<Block> filled = new ArrayBlockingQueue<>(2 * (readers + parsers) + parsers);
+        while (free.remainingCapacity() > 0) {
+            free.add(new Block(blockSize));
+        }
+        AtomicInteger nextFile = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(readers + parsers);
+        WorkerContainers workerContainers = new WorkerContainers(containerFactory);
+        try {
+            List<Future<?>> readerResults = new ArrayList<>(readers);
+            for (int i = 0; i < readers; i++) {
+                readerResults.add(executor.submit(() -> {
+                    for (int file = nextFile.getAndIncrement(); file < paths.size(); file = nextFile.getAndIncrement()) {
+                        read(paths.get(file), free, filled, metrics);
+                    }
+                    return null;
+                }));
+            }
+            List<Future<IntContainer>> parserResults = new ArrayList<>(parsers);
+            ParseStats[] parserStats = new ParseStats[parsers];
+            boolean shared = target.isConcurrent() || target.isFixedSize();
+            for (int i = 0; i < parsers; i++) {
+                IntContainer container = i == 0 || shared ? target : null;
+                ParseStats stats = parserStats[i] = new ParseStats();
+                parserResults.add(executor.submit(() -> {
+                    try {
+                        IntContainer parserContainer = container == null ? workerContainers.create() : container;
+                        LockedBatch batch = shared && !target.isConcurrent() ? new LockedBatch(target) : null;
+                        parse(batch == null ? parserContainer::add : batch, ipv6, stats, free, filled, metrics);
+                        if (batch != null) {
+                            batch.flush();
+                        }
+                        return parserContainer;
+                    } catch (RuntimeException e) {
+                        // readers would wait for free blocks forever
+                        executor.shutdownNow();
+                        throw e;
+                    }
+                }));
+            }
+            for (Future<?> result : readerResults) {
+                result.get();
+            }
+            for (int i = 0; i < parsers; i++) {
+                filled.put(END_OF_INPUT);
+            }
+            ParseStats stats = new ParseStats();
+            for (int i = 0; i < parsers; i++) {
+                IntContainer container = parserResults.get(i).get();
+                if (container != target) {
+                    long mergeStart = System.nanoTime();
+                    target.addAll(container);
+                    metrics.addTime(ScanStage.MERGE, System.nanoTime() - mergeStart);
+                }
+                stats.add(parserStats[i]);
+            }
+            return stats;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Scanning was interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            // stops the other stages if one of them failed
+            executor.shutdownNow();
+            workerContainers.closeAfter(executor);
+        }
+    }
+
+    private static void read(Path path, BlockingQueue<Block> free, BlockingQueue<Block> filled, ScanMetrics metrics)
+            throws IOException, InterruptedException {
+        try (InputStream input = open(path, metrics)) {
+            Block block = take(free, metrics);
+            while (true) {
+                long readStart = System.nanoTime();
+                int read = input.read(block.bytes, block.length, block.bytes.length - block.length);
+                metrics.addTime(ScanStage.READ, System.nanoTime() - readStart);
+                if (read < 0) {
+                    break;
+                }
+                block.length += read;
+                if (block.length < block.bytes.length) {
+                    continue;
+                }
+                int lastLineEnd = lastLineFeed(block) + 1;
+                if (lastLineEnd == 0) {
+                    // a line longer than a block, it is parsed in pieces and counted as malformed
+                    lastLineEnd = block.length;
+                }
+                Block next = take(free, metrics);
+                next.length = block.length - lastLineEnd;
+                System.arraycopy(block.bytes, lastLineEnd, next.bytes, 0, next.length);
+                block.length = lastLineEnd;
+                put(filled, block, metrics);
+                block = next;
+            }
+            if (block.length > 0) {
+                put(filled, block, metrics);
+            } else {
+                free.put(block);
+            }
+        }
+    }
+
+    private static void parse(IntConsumer consumer, OffHeapInt128Set ipv6, ParseStats stats,
+                              BlockingQueue<Block> free, BlockingQueue<Block> filled, ScanMetrics metrics)
+            throws InterruptedException {
+        for (Block block = take(filled, metrics); block != END_OF_INPUT; block = take(filled, metrics)) {
+            long parseStart = System.nanoTime();
+            long lines = stats.getLines();
+            long malformed = stats.getMalformed();
+            IPConverter.parseLines(block.bytes, 0, block.length, consumer, ipv6 == null ? null : ipv6::add, stats);
+            metrics.addTime(ScanStage.PARSE, System.nanoTime() - parseStart);
+            metrics.addProgress(0, stats.getLines() - lines, stats.getMalformed() - malformed);
+            block.length = 0;
+            free.put(block);
+        }
+    }
+
+    private static Block take(BlockingQueue<Block> queue, ScanMetrics metrics) throws InterruptedException {
+        long waitStart = System.nanoTime();
+        Block block = queue.take();
+        metrics.addTime(ScanStage.WAIT, System.nanoTime() - waitStart);
+        return block;
+    }
+
+    private static void put(BlockingQueue<Block> queue, Block block, ScanMetrics metrics) throws InterruptedException {
+        long waitStart = System.nanoTime();
+        queue.put(block);
+        metrics.addTime(ScanStage.WAIT, System.nanoTime() - waitStart);
+    }
+
+    private static InputStream open(Path path, ScanMetrics metrics) throws IOException {
+        InputStream input = new CountingInputStream(Files.newInputStream(path), metrics);
+        return InputFiles.isGzip(path) ? new GZIPInputStream(input, GZIP_BUFFER_SIZE) : input;
+    }
+
+    private static int lastLineFeed(Block block) {
+        for (int i = block.length - 1; i >= 0; i--) {
+            if (block.bytes[i] == LINE_FEED) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Publishes bytes read from a file as they are stored
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        private final ScanMetrics metrics;
+
+        private CountingInputStream(InputStream input, ScanMetrics metrics) {
+            super(input);
+            this.metrics = metrics;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value >= 0) {
+                metrics.addProgress(1, 0, 0);
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            int read = super.read(bytes, offset, length);
+            if (read > 0) {
+                metrics.addProgress(read, 0, 0);
+            }
+            return read;
+        }
+    }
+
+    /**
+     * Reusable buffer with whole lines of a file.
+     */
+    private static final class Block {
+        private final byte[] bytes;
+        private int length;
+
+        private Block(int size) {
+            this.bytes = new byte[size];
+        }
+    }
+}
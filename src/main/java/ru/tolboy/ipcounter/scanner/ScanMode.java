@@ -0,0 +1,19 @@
+package ru.tolboy.ipcounter.scanner;
+
+/**
+ * Supported ways to read a source file with IP addresses.
+ */
+public enum ScanMode {
+    /**
+     * The file is memory-mapped in newline-aligned chunks which are parsed as bytes by all worker threads
+     */
+    MMAP,
+    /**
+     * The file is read line by line on a single thread via {@link java.nio.file.Files#lines}
+     */
+    LINES,
+    /**
+     * Many plain or gzip-compressed files are read, decompressed and parsed in pipelined stages
+     */
+    PIPELINE
+}
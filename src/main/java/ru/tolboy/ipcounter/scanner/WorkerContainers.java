@@ -0,0 +1,71 @@
+package ru.tolboy.ipcounter.scanner;
+
+import org.tinylog.Logger;
+import ru.tolboy.ipcounter.container.IntContainer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Containers created for the worker threads of one scan. They are closed when the scan ends, whether their numbers
+ * were merged into the target or the scan failed before, so e.g. spill files of workers do not outlive the scan.
+ */
+final class WorkerContainers {
+    private static final long TERMINATION_SECONDS = 60;
+
+    private final Supplier<? extends IntContainer> factory;
+    private final List<IntContainer> created = new ArrayList<>();
+
+    /**
+     * @param factory - factory of worker containers
+     */
+    WorkerContainers(Supplier<? extends IntContainer> factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Create a container for a worker, it is safe to call from many threads at once
+     *
+     * @return new container which is closed by {@link #closeAfter}
+     */
+    IntContainer create() {
+        IntContainer container = factory.get();
+        synchronized (this) {
+            created.add(container);
+        }
+        return container;
+    }
+
+    /**
+     * Wait for the workers to stop and close the containers they created
+     *
+     * @param executor - executor of the workers, it must be shut down already
+     */
+    void closeAfter(ExecutorService executor) {
+        try {
+            if (!executor.awaitTermination(TERMINATION_SECONDS, TimeUnit.SECONDS)) {
+                Logger.warn("Workers did not stop in {} seconds, their containers are closed anyway",
+                        TERMINATION_SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<IntContainer> containers;
+        synchronized (this) {
+            containers = new ArrayList<>(created);
+            created.clear();
+        }
+        for (IntContainer container : containers) {
+            if (container instanceof AutoCloseable) {
+                try {
+                    ((AutoCloseable) container).close();
+                } catch (Exception e) {
+                    Logger.warn(e, "Can not release {}", container);
+                }
+            }
+        }
+    }
+}
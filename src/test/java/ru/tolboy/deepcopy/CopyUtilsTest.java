@@ -1,10 +1,25 @@
 package ru.tolboy.deepcopy;
 
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 import org.junit.jupiter.api.Test;
 import ru.tolboy.deepcopy.testentities.Man;
 import ru.tolboy.deepcopy.testentities.ManOfMen;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -92,4 +107,667 @@ class CopyUtilsTest {
         assertArrayEquals(originalLinkedList.toArray(), copiedLinkedList.toArray());
     }
 
-}
\ No newline at end of file
+    @Test
+    void deepCopyInheritedFields() {
+        Employee original = new Employee("Smith", 40, new ArrayList<>(List.of("Book_1")), 1234.5, "Zion");
+        Employee copied = CopyUtils.deepCopy(original);
+
+        assertNotSame(original, copied);
+        assertEquals("Smith", copied.getName());
+        assertEquals(40, copied.getAge());
+        assertEquals(1234.5, copied.salary);
+        assertEquals("Zion", copied.department);
+        assertNotSame(original.getFavoriteBooks(), copied.getFavoriteBooks());
+        assertEquals(original.getFavoriteBooks(), copied.getFavoriteBooks());
+    }
+
+    @Test
+    void deepCopyKeepsStaticFields() {
+        Counted.instances = 0;
+        Counted original = new Counted(7);
+        Counted.instances = 100;
+
+        Counted copied = CopyUtils.deepCopy(original);
+
+        assertEquals(7, copied.value);
+        // the copy is created by the default constructor, the static field is not overwritten by the original's value
+        assertEquals(101, Counted.instances);
+    }
+
+    @Test
+    void deepCopyWithGeneratedCopier() {
+        CopyPlan plan = CopyPlan.of(Node.class);
+        plan.compile();
+        assertTrue(plan.isCompiled());
+
+        Node original = new Node(1, "root");
+        original.weight = Long.MAX_VALUE;
+        original.score = 0.5;
+        original.codes = new int[]{1, 2, 3};
+        original.tags = new ArrayList<>(List.of("a", "b"));
+        original.next = new Node(2, "leaf");
+        original.next.next = original;
+
+        Node copied = CopyUtils.deepCopy(original);
+
+        assertNotSame(original, copied);
+        assertEquals(1, copied.id);
+        assertEquals("root", copied.label);
+        assertEquals(Long.MAX_VALUE, copied.weight);
+        assertEquals(0.5, copied.score);
+        assertNotSame(original.codes, copied.codes);
+        assertArrayEquals(original.codes, copied.codes);
+        assertNotSame(original.tags, copied.tags);
+        assertEquals(original.tags, copied.tags);
+        assertNotSame(original.next, copied.next);
+        assertEquals(2, copied.next.id);
+        assertSame(copied, copied.next.next);
+    }
+
+    @Test
+    void concurrentCopiesOfHotClassGenerateCopier() throws Exception {
+        // Given: threads copy a class which has not been copied yet, beyond the default threshold together
+        int threads = 8;
+        int copiesPerThread = 2000;
+        CopyPlan plan = CopyPlan.of(Hot.class);
+        assertFalse(plan.isCompiled());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                int value = i;
+                results.add(executor.submit(() -> {
+                    start.await();
+                    Hot original = new Hot(value);
+                    boolean copied = true;
+                    for (int j = 0; j < copiesPerThread; j++) {
+                        copied &= CopyUtils.deepCopy(original).value == value;
+                    }
+                    return copied;
+                }));
+            }
+            start.countDown();
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        // Then: no copy is lost by the shared counter
+        assertTrue(plan.isCompiled());
+        assertEquals(7, CopyUtils.deepCopy(new Hot(7)).value);
+    }
+
+    @Test
+    void concurrentDeepCopyKeepsCyclesAndSharedReferences() throws Exception {
+        int threads = 8;
+        int copiesPerThread = 100;
+        Node first = new Node(1, "first");
+        Node second = new Node(2, "second");
+        first.next = second;
+        second.next = first;
+        first.codes = second.codes = new int[]{1, 2, 3};
+        first.tags = second.tags = new ArrayList<>(List.of("shared"));
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<List<Node>>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    List<Node> copies = new ArrayList<>(copiesPerThread);
+                    for (int j = 0; j < copiesPerThread; j++) {
+                        copies.add(CopyUtils.deepCopy(first));
+                    }
+                    return copies;
+                }));
+            }
+            start.countDown();
+
+            Set<Node> distinct = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (Future<List<Node>> result : results) {
+                for (Node copy : result.get()) {
+                    assertTrue(distinct.add(copy));
+                    assertNotSame(first, copy);
+                    assertEquals(2, copy.next.id);
+                    assertSame(copy, copy.next.next);
+                    assertSame(copy.codes, copy.next.codes);
+                    assertSame(copy.tags, copy.next.tags);
+                    assertNotSame(first.tags, copy.tags);
+                    assertEquals(List.of("shared"), copy.tags);
+                }
+            }
+            assertEquals(threads * copiesPerThread, distinct.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void deepCopyLongChainInSmallStack() throws Exception {
+        int length = 20_000;
+        Node head = new Node(0, "head");
+        Node tail = head;
+        for (int i = 1; i < length; i++) {
+            tail.next = new Node(i, "node");
+            tail = tail.next;
+        }
+        tail.next = head;
+        Node[] copied = new Node[1];
+        Throwable[] failure = new Throwable[1];
+        // a recursive copy would need a frame per node, it would not fit into this stack
+        Thread thread = new Thread(null, () -> {
+            try {
+                copied[0] = CopyUtils.deepCopy(head);
+            } catch (Throwable e) {
+                failure[0] = e;
+            }
+        }, "small-stack", 256 * 1024);
+        thread.start();
+        thread.join();
+
+        assertNull(failure[0]);
+        Node node = copied[0];
+        for (int i = 0; i < length; i++) {
+            assertEquals(i, node.id);
+            node = node.next;
+        }
+        assertSame(copied[0], node);
+    }
+
+    @Test
+    void deepCopyNestedSetsAndMaps() {
+        Set<List<String>> keys = new HashSet<>();
+        keys.add(new ArrayList<>(List.of("a", "b")));
+        keys.add(new ArrayList<>(List.of("c")));
+        Map<Set<List<String>>, List<Set<List<String>>>> original = new HashMap<>();
+        original.put(keys, new ArrayList<>(List.of(keys)));
+
+        Map<Set<List<String>>, List<Set<List<String>>>> copied = CopyUtils.deepCopy(original);
+
+        assertEquals(original, copied);
+        Set<List<String>> copiedKeys = copied.keySet().iterator().next();
+        assertNotSame(keys, copiedKeys);
+        assertSame(copiedKeys, copied.get(copiedKeys).get(0));
+        assertTrue(copiedKeys.contains(List.of("a", "b")));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void deepCopyFillsSharedKeySetsBeforeTheirOuterSets() {
+        // Given: an inner set is a key of two outer sets and it is reached apart from them too
+        Set<List<String>> inner = new HashSet<>();
+        inner.add(new ArrayList<>(List.of("a")));
+        Set<Set<List<String>>> first = new HashSet<>(Set.of(inner));
+        Set<Set<List<String>>> second = new HashSet<>(Set.of(inner));
+        for (Object[] original : List.of(new Object[]{first, second, inner}, new Object[]{inner, first, second})) {
+            // When
+            Object[] copied = CopyUtils.deepCopy(original);
+            Object[] compiled = CopyUtils.compile(original).newCopy();
+            // Then: the keys are hashed with their content
+            for (Object[] copy : List.of(copied, compiled)) {
+                Set<List<String>> copiedInner = (Set<List<String>>) copy[original[0] == inner ? 0 : 2];
+                assertEquals(inner, copiedInner);
+                for (Object outer : copy) {
+                    if (outer != copiedInner) {
+                        assertTrue(((Set<Set<List<String>>>) outer).contains(copiedInner));
+                        assertSame(copiedInner, ((Set<?>) outer).iterator().next());
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void deepCopyDouble() {
+        Double original = 0.1;
+        Double copied = CopyUtils.deepCopy(original);
+
+        assertNotSame(original, copied);
+        assertEquals(original, copied);
+    }
+
+    @Test
+    void deepCopySharesImmutableValues() {
+        CopyOptions sharing = CopyOptions.DEFAULT.withImmutableSharing(true);
+        Point point = new Point(1, 2, "origin");
+        Configuration original = new Configuration();
+        original.port = 8080;
+        original.date = LocalDate.of(2024, 1, 1);
+        original.names = List.of("a", "b");
+        original.limits = Map.of("a", 1L);
+        original.point = point;
+        original.mixed = List.of(new ArrayList<>(List.of("mutable")));
+        original.mutable = new ArrayList<>(List.of(point));
+
+        Configuration copied = CopyUtils.deepCopy(original, sharing);
+
+        assertNotSame(original, copied);
+        assertSame(original.port, copied.port);
+        assertSame(original.date, copied.date);
+        assertSame(original.names, copied.names);
+        assertSame(original.limits, copied.limits);
+        assertSame(point, copied.point);
+        assertNotSame(original.mixed, copied.mixed);
+        assertNotSame(original.mixed.get(0), copied.mixed.get(0));
+        assertEquals(original.mixed, copied.mixed);
+        assertNotSame(original.mutable, copied.mutable);
+        assertSame(point, copied.mutable.get(0));
+    }
+
+    @Test
+    void deepCopySharesRegisteredTypes() {
+        CopyOptions sharing = CopyOptions.DEFAULT.withImmutableSharing(true);
+        Counted original = new Counted(1);
+        assertNotSame(original, CopyUtils.deepCopy(original, sharing));
+
+        ImmutableTypes.register(Counted.class);
+
+        assertSame(original, CopyUtils.deepCopy(original, sharing));
+        assertNotSame(original, CopyUtils.deepCopy(original));
+    }
+
+    @Test
+    void immutableTypes() {
+        assertTrue(ImmutableTypes.isImmutable(Integer.class));
+        assertTrue(ImmutableTypes.isImmutable(LocalDate.class));
+        assertTrue(ImmutableTypes.isImmutable(KICK.getClass()));
+        assertTrue(ImmutableTypes.isImmutable(Point.class));
+        assertFalse(ImmutableTypes.isImmutable(Node.class));
+        assertFalse(ImmutableTypes.isImmutable(ArrayList.class));
+        assertFalse(ImmutableTypes.isImmutable(int[].class));
+        assertTrue(ImmutableTypes.isImmutableValue(Map.of("a", List.of(1, 2))));
+        assertFalse(ImmutableTypes.isImmutableValue(List.of(new int[0])));
+    }
+
+    @Test
+    void deepCopyCopiesMutableTimeBuilders() {
+        // Given: a final mutable class of a java.time subpackage
+        Formats original = new Formats();
+        original.format = DateTimeFormatter.ISO_LOCAL_DATE;
+        original.builder = new DateTimeFormatterBuilder().appendPattern("yyyy-MM-dd");
+        // When
+        Formats copied = CopyUtils.deepCopy(original, CopyOptions.DEFAULT.withImmutableSharing(true));
+        copied.builder.appendLiteral('!');
+        // Then: the builder is copied, the formatter is shared
+        assertFalse(ImmutableTypes.isImmutable(DateTimeFormatterBuilder.class));
+        assertNotSame(original.builder, copied.builder);
+        assertSame(original.format, copied.format);
+        LocalDate date = LocalDate.of(2024, 1, 2);
+        assertEquals("2024-01-02", original.builder.toFormatter().format(date));
+        assertEquals("2024-01-02!", copied.builder.toFormatter().format(date));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void parallelDeepCopyKeepsOrderAndSharedReferences() {
+        int size = 2000;
+        Node[] nodes = new Node[size];
+        for (int i = 0; i < size; i++) {
+            nodes[i] = new Node(i, "node");
+        }
+        Map<Integer, Node> map = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            // references across the ranges of different tasks
+            nodes[i].next = nodes[(i + size / 2) % size];
+            map.put(i, nodes[size - 1 - i]);
+        }
+        Object[] original = {new ArrayList<>(Arrays.asList(nodes)), map, nodes};
+
+        Object[] copied = CopyUtils.deepCopy(original, CopyOptions.DEFAULT.withParallelThreshold(64));
+
+        List<Node> copiedList = (List<Node>) copied[0];
+        Map<Integer, Node> copiedMap = (Map<Integer, Node>) copied[1];
+        Node[] copiedArray = (Node[]) copied[2];
+        assertEquals(size, copiedList.size());
+        assertEquals(size, copiedMap.size());
+        for (int i = 0; i < size; i++) {
+            assertNotSame(nodes[i], copiedArray[i]);
+            assertEquals(i, copiedArray[i].id);
+            assertSame(copiedArray[i], copiedList.get(i));
+            assertSame(copiedArray[(i + size / 2) % size], copiedArray[i].next);
+            assertSame(copiedArray[size - 1 - i], copiedMap.get(i));
+        }
+    }
+
+    @Test
+    void copyIntoReusesTargetGraph() {
+        Node template = new Node(1, "root");
+        template.codes = new int[]{1, 2, 3};
+        template.tags = new ArrayList<>(List.of("a", "b"));
+        template.next = new Node(2, "child");
+        Node target = CopyUtils.deepCopy(template);
+        Node targetChild = target.next;
+        int[] targetCodes = target.codes;
+        List<String> targetTags = target.tags;
+
+        template.id = 10;
+        template.codes[0] = 100;
+        template.tags.add("c");
+        template.next.id = 20;
+        Node copied = CopyUtils.copyInto(template, target);
+
+        assertSame(target, copied);
+        assertEquals(10, target.id);
+        assertSame(targetChild, target.next);
+        assertEquals(20, target.next.id);
+        assertSame(targetCodes, target.codes);
+        assertArrayEquals(template.codes, target.codes);
+        assertSame(targetTags, target.tags);
+        assertEquals(List.of("a", "b", "c"), target.tags);
+        assertNotSame(template.next, target.next);
+    }
+
+    @Test
+    void copyIntoAllocatesWhereShapesDiffer() {
+        Node template = new Node(1, "root");
+        template.codes = new int[]{1, 2, 3};
+        template.next = new Node(2, "child");
+        template.next.next = template;
+        Node target = new Node(0, "target");
+        target.codes = new int[]{1};
+
+        Node copied = CopyUtils.copyInto(template, target);
+
+        assertSame(target, copied);
+        assertArrayEquals(template.codes, target.codes);
+        assertNotSame(template.codes, target.codes);
+        assertNotNull(target.next);
+        assertNotSame(template.next, target.next);
+        assertSame(target, target.next.next);
+        assertNull(target.tags);
+        assertNotSame(template, CopyUtils.copyInto(template, null));
+    }
+
+    @Test
+    void copyIntoRefillsMapsInPlace() {
+        Map<String, Node> template = new HashMap<>();
+        template.put("kept", new Node(1, "kept"));
+        template.put("added", new Node(2, "added"));
+        Map<String, Node> target = new HashMap<>();
+        Node kept = new Node(0, "old");
+        target.put("kept", kept);
+        target.put("removed", new Node(3, "removed"));
+
+        Map<String, Node> copied = CopyUtils.copyInto(template, target);
+
+        assertSame(target, copied);
+        assertEquals(Set.of("kept", "added"), target.keySet());
+        assertSame(kept, target.get("kept"));
+        assertEquals(1, kept.id);
+        assertEquals(2, target.get("added").id);
+        assertNotSame(template.get("added"), target.get("added"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void deepCopyPreservesCollectionTypes() {
+        TreeSet<String> reversed = new TreeSet<>(Comparator.reverseOrder());
+        reversed.addAll(List.of("a", "b", "c"));
+        LinkedHashMap<String, Node> linked = new LinkedHashMap<>();
+        linked.put("z", new Node(1, "z"));
+        linked.put("a", new Node(2, "a"));
+        EnumMap<ManOfMen.Possibilities, List<String>> enumMap = new EnumMap<>(ManOfMen.Possibilities.class);
+        EnumSet<ManOfMen.Possibilities> enumSet = EnumSet.of(PUNCH);
+        ArrayDeque<Node> deque = new ArrayDeque<>(List.of(new Node(3, "first"), new Node(4, "second")));
+        PriorityQueue<String> queue = new PriorityQueue<>(Comparator.reverseOrder());
+        queue.addAll(List.of("a", "c", "b"));
+        Map<String, String> concurrent = new ConcurrentHashMap<>(Map.of("key", "value"));
+        List<Node> copyOnWrite = new CopyOnWriteArrayList<>(List.of(new Node(5, "cow")));
+        Object[] original = {reversed, linked, enumMap, enumSet, deque, queue, concurrent, copyOnWrite};
+
+        Object[] copied = CopyUtils.deepCopy(original);
+
+        for (int i = 0; i < original.length; i++) {
+            assertSame(original[i].getClass(), copied[i].getClass());
+            assertNotSame(original[i], copied[i]);
+        }
+        TreeSet<String> copiedReversed = (TreeSet<String>) copied[0];
+        assertEquals(List.of("c", "b", "a"), new ArrayList<>(copiedReversed));
+        assertNotNull(copiedReversed.comparator());
+        assertEquals(List.of("z", "a"), new ArrayList<>(((Map<String, Node>) copied[1]).keySet()));
+        // the key type is kept
+        assertThrows(ClassCastException.class, () -> ((Map<Object, Object>) copied[2]).put("KICK", "value"));
+        assertEquals(enumSet, copied[3]);
+        assertEquals(4, ((ArrayDeque<Node>) copied[4]).peekLast().id);
+        assertEquals("c", ((PriorityQueue<String>) copied[5]).peek());
+        assertEquals(concurrent, copied[6]);
+        assertEquals(5, ((List<Node>) copied[7]).get(0).id);
+        assertNotSame(copyOnWrite.get(0), ((List<Node>) copied[7]).get(0));
+    }
+
+    @Test
+    void deepCopyOfAccessOrderedMapKeepsIterationOrderOnly() {
+        // Given: java.util is not opened to the tests, the ordering mode of the map can not be read
+        LinkedHashMap<String, Integer> original = new LinkedHashMap<>(16, 0.75f, true);
+        original.put("a", 1);
+        original.put("b", 2);
+        original.get("a");
+        // When
+        LinkedHashMap<String, Integer> copied = CopyUtils.deepCopy(original);
+        copied.get("b");
+        // Then: the copy starts in the same order, but it is insertion-ordered
+        assertEquals(List.of("b", "a"), new ArrayList<>(copied.keySet()));
+        original.get("b");
+        assertEquals(List.of("a", "b"), new ArrayList<>(original.keySet()));
+    }
+
+    @Test
+    void compiledCopyKeepsCyclesSharedReferencesAndSnapshot() {
+        Node first = new Node(1, "first");
+        Node second = new Node(2, "second");
+        first.next = second;
+        second.next = first;
+        first.weight = Long.MIN_VALUE;
+        first.score = -0.5;
+        first.codes = second.codes = new int[]{1, 2, 3};
+        first.tags = second.tags = new ArrayList<>(List.of("shared"));
+
+        CopyProgram<Node> program = CopyUtils.compile(first);
+        first.id = 10;
+        first.codes[0] = 10;
+        first.tags.add("changed");
+        Node copied = program.newCopy();
+        Node another = program.newCopy();
+
+        assertEquals(4, program.size());
+        assertNotSame(copied, another);
+        assertEquals(1, copied.id);
+        assertEquals("first", copied.label);
+        assertEquals(Long.MIN_VALUE, copied.weight);
+        assertEquals(-0.5, copied.score);
+        assertSame(copied, copied.next.next);
+        assertSame(copied.codes, copied.next.codes);
+        assertSame(copied.tags, copied.next.tags);
+        assertArrayEquals(new int[]{1, 2, 3}, copied.codes);
+        assertEquals(List.of("shared"), copied.tags);
+        assertNotSame(copied.codes, another.codes);
+        assertNotSame(copied.tags, another.tags);
+        assertNull(CopyUtils.compile(null).newCopy());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void compiledCopyOfCollectionsAndMaps() {
+        Set<List<String>> keys = new HashSet<>();
+        keys.add(new ArrayList<>(List.of("a", "b")));
+        Map<Set<List<String>>, List<Set<List<String>>>> nested = new HashMap<>();
+        nested.put(keys, new ArrayList<>(List.of(keys)));
+        TreeSet<String> reversed = new TreeSet<>(Comparator.reverseOrder());
+        reversed.addAll(List.of("a", "b", "c"));
+        EnumSet<ManOfMen.Possibilities> enumSet = EnumSet.of(PUNCH);
+        Point point = new Point(1, 2, "origin");
+        Object[] original = {nested, reversed, enumSet, point, 42, new Point[]{point, point}, List.of(1.5)};
+
+        Object[] copied = CopyUtils.compile(original).newCopy();
+
+        assertSame(Object[].class, copied.getClass());
+        Map<Set<List<String>>, List<Set<List<String>>>> copiedNested =
+                (Map<Set<List<String>>, List<Set<List<String>>>>) copied[0];
+        assertEquals(nested, copiedNested);
+        Set<List<String>> copiedKeys = copiedNested.keySet().iterator().next();
+        assertNotSame(keys, copiedKeys);
+        assertSame(copiedKeys, copiedNested.get(copiedKeys).get(0));
+        assertEquals(List.of("c", "b", "a"), new ArrayList<>((TreeSet<String>) copied[1]));
+        assertEquals(enumSet, copied[2]);
+        assertNotSame(enumSet, copied[2]);
+        Point copiedPoint = (Point) copied[3];
+        assertNotSame(point, copiedPoint);
+        assertEquals(2, copiedPoint.y);
+        assertEquals(42, copied[4]);
+        assertNotSame(original[4], copied[4]);
+        assertSame(Point[].class, copied[5].getClass());
+        assertSame(copiedPoint, ((Point[]) copied[5])[1]);
+        assertEquals(List.of(1.5), copied[6]);
+    }
+
+    @Test
+    void compiledCopySharesImmutableValues() {
+        Point point = new Point(1, 2, "origin");
+        Configuration original = new Configuration();
+        original.point = point;
+        original.names = List.of("a", "b");
+        original.mutable = new ArrayList<>(List.of(point));
+
+        Configuration copied = CopyUtils.compile(original, CopyOptions.DEFAULT.withImmutableSharing(true)).newCopy();
+
+        assertSame(point, copied.point);
+        assertSame(original.names, copied.names);
+        assertNotSame(original.mutable, copied.mutable);
+        assertSame(point, copied.mutable.get(0));
+    }
+
+    static class Employee extends Man {
+        private final double salary;
+        private final String department;
+
+        Employee(String name, int age, List<String> favoriteBooks, double salary, String department) {
+            super(name, age, favoriteBooks);
+            this.salary = salary;
+            this.department = department;
+        }
+    }
+
+    private static class Counted {
+        private static int instances;
+        private int value;
+
+        private Counted() {
+            instances++;
+        }
+
+        private Counted(int value) {
+            this();
+            this.value = value;
+        }
+    }
+
+    @Test
+    void deepCopyCollectsStatistics() {
+        Node root = new Node(1, "root");
+        root.codes = new int[]{1, 2, 3};
+        root.tags = new ArrayList<>(List.of("a"));
+        root.next = new Node(2, "child");
+        root.next.next = root;
+        CopyStats stats = new CopyStats();
+        CopyOptions options = CopyOptions.DEFAULT.withStats(stats);
+
+        Node copied = CopyUtils.deepCopy(root, options);
+
+        assertSame(copied, copied.next.next);
+        assertEquals(1, stats.getOperations());
+        assertEquals(4, stats.getCopies());
+        assertEquals(1, stats.getCacheHits());
+        assertTrue(stats.getVisited() >= stats.getCopies() + stats.getCacheHits());
+        Map<Class<?>, CopyStats.ClassStats> histogram = stats.getHistogram().stream()
+                .collect(Collectors.toMap(CopyStats.ClassStats::getType, classStats -> classStats));
+        assertEquals(Set.of(Node.class, int[].class, ArrayList.class), histogram.keySet());
+        assertEquals(2, histogram.get(Node.class).getCopies());
+        // 12 bytes header, 3 references, int, long and double
+        assertEquals(2 * 48, histogram.get(Node.class).getEstimatedBytes());
+        assertEquals(32, histogram.get(int[].class).getEstimatedBytes());
+
+        CopyUtils.deepCopy(root, options);
+        CopyUtils.copyInto(root, copied, options);
+
+        assertEquals(3, stats.getOperations());
+        assertEquals(8, stats.getCopies());
+        stats.reset();
+        assertEquals(0, stats.getOperations());
+        assertTrue(stats.getHistogram().isEmpty());
+    }
+
+    @Test
+    void deepCopyRecordsFlightRecorderEvents() throws Exception {
+        Node root = new Node(1, "root");
+        root.next = new Node(2, "child");
+        Path file = Files.createTempFile("deepcopy", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("ru.tolboy.deepcopy.Copy").withThreshold(Duration.ZERO);
+            recording.start();
+            CopyUtils.deepCopy(root);
+            recording.stop();
+            recording.dump(file);
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+
+            assertEquals(1, events.size());
+            assertEquals(Node.class.getName(), events.get(0).getClass("rootClass").getName());
+            assertEquals(2, events.get(0).getLong("copies"));
+            assertFalse(events.get(0).getBoolean("into"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static class Node {
+        private final String label;
+        private int id;
+        private long weight;
+        private double score;
+        private int[] codes;
+        private List<String> tags;
+        private Node next;
+
+        private Node(int id, String label) {
+            this.id = id;
+            this.label = label;
+        }
+    }
+
+    private static final class Point {
+        private final int x;
+        private final int y;
+        private final String name;
+
+        private Point(int x, int y, String name) {
+            this.x = x;
+            this.y = y;
+            this.name = name;
+        }
+    }
+
+    private static class Hot {
+        private int value;
+
+        private Hot(int value) {
+            this.value = value;
+        }
+    }
+
+    private static class Formats {
+        private DateTimeFormatter format;
+        private DateTimeFormatterBuilder builder;
+    }
+
+    private static class Configuration {
+        private Integer port;
+        private LocalDate date;
+        private List<String> names;
+        private Map<String, Long> limits;
+        private Point point;
+        private List<List<String>> mixed;
+        private List<Point> mutable;
+    }
+}
@@ -0,0 +1,47 @@
+package ru.tolboy.ipcounter;
+
+import org.junit.jupiter.api.Test;
+import ru.tolboy.ipcounter.container.ContainerType;
+import ru.tolboy.ipcounter.scanner.ScanMode;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CounterOptionsTest {
+
+    @Test
+    void valuesAreParsedWithDefaults() {
+        CounterOptions options = CounterOptions.parse(new String[]{"ips.txt", "--subnets=/24", "--threads=3",
+                "--container=roaring", "--memory-budget=2m"});
+
+        assertEquals(List.of(Path.of("ips.txt")), options.getPaths());
+        assertEquals(24, options.getSubnetPrefixLength());
+        assertEquals(100, options.getTop());
+        assertEquals(3, options.getThreads());
+        assertEquals(ContainerType.ROARING, options.getContainerType());
+        assertEquals(2L << 20, options.getMemoryBudget());
+        assertEquals(Duration.ofSeconds(10), options.getProgressInterval());
+        assertEquals(ScanMode.MMAP, options.getMode(options.getPaths()));
+        assertNull(options.getCheckpoint());
+    }
+
+    @Test
+    void malformedValuesFailTheParsing() {
+        for (String option : List.of("--subnets=7", "--subnets=/33", "--top=0", "--threads=0", "--progress=-1",
+                "--mode=random", "--container=list", "--precision=high", "--precision=3", "--precision=19",
+                "--memory-budget=lots", "--memory-budget=0", "--memory-budget=-1m", "--top")) {
+            assertThrows(IllegalArgumentException.class,
+                    () -> CounterOptions.parse(new String[]{"ips.txt", option}), option);
+        }
+        // spilling containers of all threads share the budget
+        assertThrows(IllegalArgumentException.class, () -> CounterOptions.parse(
+                new String[]{"ips.txt", "--container=spill", "--memory-budget=4m", "--threads=8"}));
+        assertEquals(4L << 20, CounterOptions.parse(
+                new String[]{"ips.txt", "--container=spill", "--memory-budget=4m", "--threads=4"}).getMemoryBudget());
+        assertEquals(4L << 20, CounterOptions.parse(
+                new String[]{"ips.txt", "--container=roaring", "--memory-budget=4m", "--threads=8"}).getMemoryBudget());
+    }
+}
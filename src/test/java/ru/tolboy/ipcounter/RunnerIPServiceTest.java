@@ -0,0 +1,98 @@
+package ru.tolboy.ipcounter;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.tolboy.ipcounter.container.ContainerPool;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RunnerIPServiceTest {
+    private static final String OPTIONS = " --container=roaring --threads=2 --progress=0";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void concurrentJobsOnTheSameFileAreAnsweredUntilQuit() throws Exception {
+        // Given: two jobs share a file, a third job counts another one, the fourth file does not exist
+        Path shared = write("shared.txt", "1.1.1.1", "2.2.2.2", "1.1.1.1", "3.3.3.3");
+        Path other = write("other.txt", "4.4.4.4", "5.5.5.5");
+        String input = String.join("\n", shared + OPTIONS, shared + OPTIONS, other + OPTIONS,
+                directory.resolve("missing.txt") + OPTIONS, "", "quit", other + OPTIONS);
+        RunnerIPService service = new RunnerIPService(new String[0]);
+        // When
+        List<String> responses = serve(service, input);
+        // Then: the job after quit is not run
+        assertEquals(8, responses.size(), responses.toString());
+        assertEquals(Set.of("1 queued", "2 queued", "3 queued", "4 queued", "1 3", "2 3", "3 2",
+                "4 error invalid job, see the log"), Set.copyOf(responses));
+    }
+
+    @Test
+    void shutdownStopsTheService() throws Exception {
+        // Given
+        Path file = write("ips.txt", "1.1.1.1", "2.2.2.2");
+        RunnerIPService service = new RunnerIPService(new String[0]);
+        // When: a session runs a job and shuts the service down
+        List<String> responses = serve(service, String.join("\n", file + OPTIONS, "shutdown", file + OPTIONS));
+        // Then: jobs after shutdown are not run, other sessions are not served anymore
+        assertEquals(Set.of("1 queued", "1 2"), Set.copyOf(responses));
+        assertEquals(2, responses.size());
+        assertTrue(serve(service, file + OPTIONS).isEmpty());
+    }
+
+    @Test
+    void failedJobIsAnsweredWithTheErrorType() throws Exception {
+        // Given: a plain text file named as a compressed one
+        Path file = write("ips.gz", "1.1.1.1");
+        // When
+        String response = RunnerIPService.run(new String[]{file.toString(), "--container=roaring", "--progress=0"},
+                new ContainerPool(64L << 20, 1));
+        // Then
+        assertTrue(response.startsWith("error ZipException: "), response);
+    }
+
+    @Test
+    void malformedServiceOptionsFailTheParsing() {
+        ServiceOptions options = ServiceOptions.parse(new String[]{"--port=8080", "--executor=FIXED"});
+        assertEquals(8080, options.getPort());
+        assertFalse(options.isVirtualExecutor());
+        assertEquals(2, options.getJobs());
+
+        for (String option : List.of("--port=65536", "--port=-1", "--executor=pooled", "--jobs=0", "--idle=-1",
+                "--memory-budget=lots", "ips.txt")) {
+            assertThrows(IllegalArgumentException.class, () -> ServiceOptions.parse(new String[]{option}), option);
+        }
+    }
+
+    private List<String> serve(RunnerIPService service, String input) throws Exception {
+        StringWriter output = new StringWriter();
+        ExecutorService jobs = RunnerIPService.newJobExecutor(false, 2);
+        try {
+            service.serve(new BufferedReader(new StringReader(input)), new PrintWriter(output, true), jobs,
+                    new ContainerPool(64L << 20, 1));
+        } finally {
+            jobs.shutdownNow();
+        }
+        return Arrays.stream(output.toString().split("\\R"))
+                .filter(line -> !line.isEmpty())
+                .collect(Collectors.toList());
+    }
+
+    private Path write(String name, String... lines) throws IOException {
+        return Files.write(directory.resolve(name), List.of(lines));
+    }
+}
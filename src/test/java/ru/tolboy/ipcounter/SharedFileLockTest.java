@@ -0,0 +1,91 @@
+package ru.tolboy.ipcounter;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SharedFileLockTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void runsOfOneFileShareTheLock() throws Exception {
+        Path file = Files.writeString(directory.resolve("ips.txt"), "1.1.1.1\n");
+
+        try (SharedFileLock first = SharedFileLock.acquire(file)) {
+            try (SharedFileLock second = SharedFileLock.acquire(directory.resolve(".").resolve("ips.txt"))) {
+                assertSame(first, second);
+            }
+        }
+        // the lock is released by the last holder, so the file can be locked again
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE);
+             FileLock ignored = channel.lock()) {
+            assertThrows(IOException.class, () -> SharedFileLock.acquire(file));
+        }
+        SharedFileLock.acquire(file).close();
+    }
+
+    @Test
+    void lockWaitingForAnotherProcessDoesNotStallOtherFiles() throws Exception {
+        // Given: another process holds an exclusive lock of one file
+        Path busy = Files.writeString(directory.resolve("busy.txt"), "1.1.1.1\n");
+        Path free = Files.writeString(directory.resolve("free.txt"), "2.2.2.2\n");
+        Process holder = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), ExclusiveLockHolder.class.getName(), busy.toString())
+                .redirectErrorStream(true)
+                .start();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            BufferedReader output = new BufferedReader(
+                    new InputStreamReader(holder.getInputStream(), StandardCharsets.UTF_8));
+            assertEquals(ExclusiveLockHolder.LOCKED, output.readLine());
+            // When: a run waits for the busy file
+            Future<?> waiting = executor.submit(() -> {
+                SharedFileLock.acquire(busy).close();
+                return null;
+            });
+            assertThrows(TimeoutException.class, () -> waiting.get(300, TimeUnit.MILLISECONDS));
+            // Then: runs of other files take and release their locks meanwhile
+            assertTimeoutPreemptively(Duration.ofSeconds(5), () -> SharedFileLock.acquire(free).close());
+            holder.destroy();
+            waiting.get(10, TimeUnit.SECONDS);
+        } finally {
+            holder.destroyForcibly();
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Process which holds an exclusive lock of a file until it is killed
+     */
+    public static class ExclusiveLockHolder {
+        static final String LOCKED = "locked";
+
+        public static void main(String[] args) throws Exception {
+            try (FileChannel channel = FileChannel.open(Path.of(args[0]), StandardOpenOption.WRITE);
+                 FileLock ignored = channel.lock()) {
+                System.out.println(LOCKED);
+                System.out.flush();
+                Thread.sleep(Long.MAX_VALUE);
+            }
+        }
+    }
+}
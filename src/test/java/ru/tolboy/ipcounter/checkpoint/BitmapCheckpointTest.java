@@ -0,0 +1,101 @@
+package ru.tolboy.ipcounter.checkpoint;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.tolboy.ipcounter.RunnerIPCounter;
+import ru.tolboy.ipcounter.container.ConcurrentBitmapContainer;
+import ru.tolboy.ipcounter.container.ContainerPool;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BitmapCheckpointTest {
+    // one cleared bitmap is reused by all runs of a test
+    private final ContainerPool pool = new ContainerPool(ConcurrentBitmapContainer.BYTES, 1);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void resumedCountEqualsFullRescan() throws IOException {
+        // Given: a snapshot of the first lines
+        Path source = directory.resolve("ips.txt");
+        Path snapshot = directory.resolve("ips.snapshot");
+        Files.write(source, List.of("1.1.1.1", "2.2.2.2", "1.1.1.1"));
+        assertEquals(2, countIncrementally(source, snapshot));
+        assertEquals(24, BitmapCheckpoint.load(snapshot).orElseThrow().getOffset());
+        // When: lines with old and new addresses are appended
+        append(source, "2.2.2.2\n3.3.3.3\n4.4.4.4\n");
+        long resumed = countIncrementally(source, snapshot);
+        // Then
+        assertEquals(countFully(source), resumed);
+        assertEquals(4, resumed);
+        assertEquals(Files.size(source), BitmapCheckpoint.load(snapshot).orElseThrow().getOffset());
+    }
+
+    @Test
+    void rewrittenOrTruncatedSourceIsCountedFromScratch() throws IOException {
+        // Given
+        Path source = directory.resolve("ips.txt");
+        Path snapshot = directory.resolve("ips.snapshot");
+        Files.write(source, List.of("1.1.1.1", "2.2.2.2", "3.3.3.3"));
+        assertEquals(3, countIncrementally(source, snapshot));
+        BitmapCheckpoint checkpoint = BitmapCheckpoint.load(snapshot).orElseThrow();
+        // When: the source is rewritten with other addresses and more lines
+        Files.write(source, List.of("4.4.4.4", "5.5.5.5", "6.6.6.6", "7.7.7.7"));
+        // Then: the fingerprint of the head does not match, old addresses are not counted
+        assertFalse(checkpoint.matches(source));
+        assertEquals(4, countIncrementally(source, snapshot));
+        // When: the source is truncated below the offset of the snapshot
+        Files.write(source, List.of("4.4.4.4"));
+        // Then
+        assertFalse(BitmapCheckpoint.load(snapshot).orElseThrow().matches(source));
+        assertEquals(1, countIncrementally(source, snapshot));
+        assertEquals(8, BitmapCheckpoint.load(snapshot).orElseThrow().getOffset());
+    }
+
+    @Test
+    void partialLastLineIsCountedWhenComplete() throws IOException {
+        // Given: the last line is being written
+        Path source = directory.resolve("ips.txt");
+        Path snapshot = directory.resolve("ips.snapshot");
+        Files.writeString(source, "1.1.1.1\n2.2.2.");
+        // When
+        assertEquals(1, countIncrementally(source, snapshot));
+        // Then: the snapshot ends before the partial line
+        assertEquals(8, BitmapCheckpoint.load(snapshot).orElseThrow().getOffset());
+        // When: the line is completed
+        append(source, "2\n");
+        // Then: it is parsed from its start
+        assertEquals(2, countIncrementally(source, snapshot));
+        assertEquals(2, countFully(source));
+    }
+
+    @Test
+    void notSnapshotIsRejected() throws IOException {
+        Path snapshot = Files.writeString(directory.resolve("ips.snapshot"), "not a snapshot");
+
+        assertThrows(IOException.class, () -> BitmapCheckpoint.load(snapshot));
+        assertTrue(BitmapCheckpoint.load(directory.resolve("missing.snapshot")).isEmpty());
+    }
+
+    private long countIncrementally(Path source, Path snapshot) {
+        return new RunnerIPCounter(new String[]{source.toString(), "--checkpoint=" + snapshot, "--mode=mmap",
+                "--container=concurrent", "--threads=2", "--progress=0"}, pool).call();
+    }
+
+    private long countFully(Path source) {
+        return new RunnerIPCounter(new String[]{source.toString(), "--mode=mmap", "--container=concurrent",
+                "--threads=2", "--progress=0"}, pool).call();
+    }
+
+    private static void append(Path source, String lines) throws IOException {
+        Files.write(source, lines.getBytes(StandardCharsets.US_ASCII), StandardOpenOption.APPEND);
+    }
+}
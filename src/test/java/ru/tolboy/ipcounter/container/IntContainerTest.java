@@ -0,0 +1,450 @@
+package ru.tolboy.ipcounter.container;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IntContainerTest {
+
+    @Test
+    void concurrentBitmapCountsEdgeValues() {
+        // Given
+        IntContainer container = new ConcurrentBitmapContainer();
+        // When
+        IntStream.of(0, 1, -1, Integer.MAX_VALUE, Integer.MIN_VALUE, 63, 64, 1, -1).forEach(container::add);
+        // Then
+        assertEquals(7, container.countDistinct());
+    }
+
+    @Test
+    void concurrentBitmapSharedByManyThreads() throws Exception {
+        // Given
+        IntContainer container = new ConcurrentBitmapContainer();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        // When
+        try {
+            Future<?>[] futures = new Future<?>[4];
+            for (int t = 0; t < futures.length; t++) {
+                // every thread adds the same numbers, so all of them hit the same words at once
+                futures[t] = executor.submit(() -> IntStream.range(0, 1_000_000).forEach(i -> container.add(i * 31)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        // Then
+        assertTrue(container.isConcurrent());
+        assertEquals(1_000_000, container.countDistinct());
+    }
+
+    @Test
+    void concurrentBitmapSamplesFillRatio() {
+        ConcurrentBitmapContainer container = new ConcurrentBitmapContainer();
+        assertEquals(0, container.sampleFillRatio());
+        // two of every 1024 numbers, so two bits of every sampled word
+        for (long number = 0; number < 1L << 32; number += 1 << 10) {
+            container.add((int) number);
+            container.add((int) number + 2);
+        }
+        assertEquals(2.0 / 64, container.sampleFillRatio(), 1e-9);
+        assertTrue(Double.isNaN(new RoaringContainer().sampleFillRatio()));
+    }
+
+    @Test
+    void concurrentBitmapAddAll() {
+        // Given
+        IntContainer first = new ConcurrentBitmapContainer();
+        IntContainer second = new ConcurrentBitmapContainer();
+        IntStream.range(0, 1000).forEach(first::add);
+        IntStream.range(500, 1500).map(i -> -i).forEach(second::add);
+        IntStream.range(500, 1500).forEach(second::add);
+        // When
+        first.addAll(second);
+        // Then
+        assertEquals(2500, first.countDistinct());
+        assertThrows(UnsupportedOperationException.class, () -> first.addAll(new BitSetContainer()));
+    }
+
+    @Test
+    void roaringMatchesHashSetOnMixedDensities() {
+        // Given
+        Random random = new Random(42);
+        Set<Integer> expected = new HashSet<>();
+        RoaringContainer container = new RoaringContainer();
+        // When: sparse values all over the range, one dense partition and long runs
+        for (int i = 0; i < 200_000; i++) {
+            int sparse = random.nextInt();
+            int dense = 0x7F000000 | random.nextInt(1 << 16);
+            int run = 0x0A000000 + i;
+            for (int value : new int[]{sparse, dense, run}) {
+                expected.add(value);
+                container.add(value);
+            }
+        }
+        long sizeBeforeOptimization = container.sizeInBytes();
+        container.runOptimize();
+        IntStream.range(-100, 100).forEach(i -> {
+            expected.add(i);
+            container.add(i);
+        });
+        // Then
+        assertEquals(expected.size(), container.countDistinct());
+        assertTrue(container.sizeInBytes() < sizeBeforeOptimization);
+    }
+
+    @Test
+    void prefixCountsMatchHashMapOfPrefixes() {
+        // Given: sparse values, a dense partition, a run crossing /24 boundaries and negative values
+        Random random = new Random(11);
+        Set<Integer> values = new HashSet<>();
+        for (int i = 0; i < 50_000; i++) {
+            values.add(random.nextInt());
+            values.add(0x7F000000 | random.nextInt(1 << 16));
+            values.add(0x0A0000F0 + i);
+        }
+        RoaringContainer roaring = new RoaringContainer();
+        ConcurrentBitmapContainer bitmap = new ConcurrentBitmapContainer();
+        values.forEach(value -> {
+            roaring.add(value);
+            bitmap.add(value);
+        });
+        roaring.runOptimize();
+        for (int prefixLength : new int[]{8, 16, 20, 24}) {
+            Map<Integer, Integer> expected = new HashMap<>();
+            values.forEach(value -> expected.merge(value >>> (32 - prefixLength), 1, Integer::sum));
+            // When
+            for (IntContainer container : new IntContainer[]{roaring, bitmap}) {
+                PrefixCounts counts = container.countByPrefix(prefixLength);
+                // Then
+                assertEquals(1 << prefixLength, counts.size());
+                assertEquals(values.size(), counts.total());
+                for (int prefix = 0; prefix < counts.size(); prefix++) {
+                    int checked = prefix;
+                    assertEquals(expected.getOrDefault(prefix, 0), counts.count(prefix),
+                            () -> container.getClass().getSimpleName() + " /" + prefixLength + " prefix " + checked);
+                }
+            }
+        }
+        assertThrows(IllegalArgumentException.class, () -> roaring.countByPrefix(25));
+        assertThrows(UnsupportedOperationException.class, () -> new HyperLogLogContainer(10).countByPrefix(24));
+    }
+
+    @Test
+    void topPrefixesAreTheBusiestSubnets() {
+        RoaringContainer container = new RoaringContainer();
+        // 10.0.3.0/24 has 30 addresses, 10.0.1.0/24 and 10.0.2.0/24 have 20, 10.0.0.0/24 has 10
+        int[] sizes = {10, 20, 20, 30};
+        for (int subnet = 0; subnet < sizes.length; subnet++) {
+            for (int host = 0; host < sizes[subnet]; host++) {
+                container.add(0x0A000000 | subnet << 8 | host);
+            }
+        }
+
+        List<PrefixCounts.Prefix> top = container.countByPrefix(24).top(3);
+
+        assertEquals(List.of("10.0.3.0/24", "10.0.1.0/24", "10.0.2.0/24"),
+                top.stream().map(PrefixCounts.Prefix::toString).collect(Collectors.toList()));
+        assertEquals(List.of(30, 20, 20), top.stream().map(PrefixCounts.Prefix::getCount).collect(Collectors.toList()));
+        assertEquals(4, container.countByPrefix(24).top(10).size());
+        assertEquals(1, container.countByPrefix(8).top(10).size());
+    }
+
+    @Test
+    void roaringAddAllMergesEveryPartitionKind() {
+        // Given
+        Set<Integer> expected = new HashSet<>();
+        RoaringContainer first = new RoaringContainer();
+        RoaringContainer second = new RoaringContainer();
+        for (int i = 0; i < 100_000; i++) {
+            // arrays, bitmaps and runs overlapping each other
+            int[] toFirst = {i * 7, 0x10000 + i % 5000, 0x20000 + i};
+            int[] toSecond = {i * 11, 0x10000 + i % 3000 * 3, 0x20000 + i / 2 * 2, -i};
+            for (int value : toFirst) {
+                expected.add(value);
+                first.add(value);
+            }
+            for (int value : toSecond) {
+                expected.add(value);
+                second.add(value);
+            }
+        }
+        second.runOptimize();
+        // When
+        first.addAll(second);
+        // Then
+        assertEquals(expected.size(), first.countDistinct());
+        assertThrows(UnsupportedOperationException.class, () -> first.addAll(new ConcurrentBitmapContainer()));
+    }
+
+    @Test
+    void hyperLogLogEstimateIsWithinErrorBound() {
+        // Given
+        HyperLogLogContainer first = new HyperLogLogContainer();
+        HyperLogLogContainer second = new HyperLogLogContainer();
+        // When: two overlapping halves counted separately and merged
+        IntStream.range(0, 600_000).forEach(i -> first.add(i * 7919));
+        IntStream.range(400_000, 1_000_000).forEach(i -> second.add(i * 7919));
+        first.addAll(second);
+        // Then
+        double error = Math.abs(first.countDistinct() - 1_000_000) / 1_000_000.0;
+        assertTrue(error < 3 * first.relativeError(), "error " + error);
+        assertEquals(0, new RoaringContainer().relativeError());
+        assertThrows(IllegalArgumentException.class, () -> first.addAll(new HyperLogLogContainer(12)));
+    }
+
+    @Test
+    void hyperLogLogSmallCardinalityIsNearlyExact() {
+        // Given
+        HyperLogLogContainer container = new HyperLogLogContainer();
+        // When
+        IntStream.range(0, 1000).forEach(container::add);
+        // Then
+        assertEquals(1000, container.countDistinct(), 10);
+    }
+
+    @Test
+    void spillingContainerCountsPartitionsFromDisk(@TempDir Path directory) throws Exception {
+        // Given: 4 MB budget gives 2 MB partition bitmaps, so 2^8 partitions
+        Set<Integer> expected = new HashSet<>();
+        Random random = new Random(3);
+        try (SpillingContainer first = new SpillingContainer(4 << 20, directory);
+             SpillingContainer second = new SpillingContainer(4 << 20, directory)) {
+            // When
+            for (int i = 0; i < 300_000; i++) {
+                int value = random.nextInt();
+                int duplicate = i % 1000;
+                expected.add(value);
+                expected.add(duplicate);
+                first.add(value);
+                second.add(duplicate);
+                second.add(-duplicate);
+                expected.add(-duplicate);
+            }
+            first.addAll(second);
+            // Then
+            assertEquals(256, first.getPartitions());
+            assertEquals(expected.size(), first.countDistinct());
+            assertEquals(expected.size(), first.countDistinct());
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void setAlgebraOfExactContainers() {
+        List<Supplier<IntContainer>> kinds = List.of(RoaringContainer::new, ConcurrentBitmapContainer::new,
+                BitSetContainer::new);
+        for (Supplier<IntContainer> kind : kinds) {
+            // Given: 0 - 99_999 and 50_000 - 199_999 spread over arrays, bitmaps and runs, some of them negative
+            IntContainer first = kind.get();
+            IntContainer second = kind.get();
+            IntStream.range(0, 100_000).forEach(i -> first.add(i * 3 - 30_000));
+            IntStream.range(50_000, 200_000).forEach(i -> second.add(i * 3 - 30_000));
+            if (first instanceof RoaringContainer) {
+                ((RoaringContainer) second).runOptimize();
+            }
+            // Then: cardinalities are counted without changing the containers
+            assertEquals(50_000, first.intersectCardinality(second));
+            assertEquals(200_000, first.unionCardinality(second));
+            assertEquals(50_000, first.andNotCardinality(second));
+            assertEquals(100_000, second.andNotCardinality(first));
+            // When
+            first.andNot(second);
+            // Then
+            assertEquals(50_000, first.countDistinct());
+            assertEquals(0, first.intersectCardinality(second));
+            // When
+            first.addAll(second);
+            first.intersect(second);
+            // Then
+            assertEquals(150_000, first.countDistinct());
+        }
+    }
+
+    @Test
+    void hyperLogLogEstimatesOverlap() {
+        HyperLogLogContainer first = new HyperLogLogContainer(16);
+        HyperLogLogContainer second = new HyperLogLogContainer(16);
+        IntStream.range(0, 1_000_000).forEach(first::add);
+        IntStream.range(500_000, 1_500_000).forEach(second::add);
+
+        assertEquals(1_500_000, first.unionCardinality(second), 1_500_000 * 3 * first.relativeError());
+        assertEquals(500_000, first.intersectCardinality(second), 1_500_000 * 3 * first.relativeError());
+        assertEquals(1_000_000, first.countDistinct(), 1_000_000 * 3 * first.relativeError());
+    }
+
+    @Test
+    void offHeapSetSharedByManyThreads() throws Exception {
+        // Given: every thread adds an overlapping range, so the segments grow while they are contended
+        int threads = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (OffHeapInt128Set set = new OffHeapInt128Set()) {
+            // When
+            List<Future<?>> results = IntStream.range(0, threads)
+                    .mapToObj(t -> executor.submit(() -> {
+                        for (long i = t * 50_000L; i < t * 50_000L + 100_000; i++) {
+                            set.add(i >>> 3, i * 0x9E3779B97F4A7C15L);
+                        }
+                    }))
+                    .collect(Collectors.toList());
+            for (Future<?> result : results) {
+                result.get();
+            }
+            // Then
+            assertEquals(250_000, set.size());
+            assertTrue(set.contains(0, 0));
+            assertTrue(set.contains(249_999 >>> 3, 249_999 * 0x9E3779B97F4A7C15L));
+            assertFalse(set.contains(250_000 >>> 3, 250_000 * 0x9E3779B97F4A7C15L));
+            assertTrue(set.sizeInBytes() >= 250_000 * 16);
+            set.close();
+            assertEquals(0, set.size());
+            assertEquals(0, set.sizeInBytes());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void offHeapSetAddAllAndZeroValue() {
+        // Given
+        try (OffHeapInt128Set first = new OffHeapInt128Set(); OffHeapInt128Set second = new OffHeapInt128Set()) {
+            assertFalse(first.contains(0, 0));
+            assertTrue(first.add(0, 0));
+            assertFalse(first.add(0, 0));
+            LongStream.range(1, 1000).forEach(i -> first.add(0, i));
+            LongStream.range(500, 1500).forEach(i -> second.add(0, i));
+            LongStream.range(1, 1000).forEach(i -> second.add(i, 0));
+            second.add(0, 0);
+            // When
+            first.addAll(second);
+            // Then
+            assertEquals(2499, first.size());
+            assertTrue(first.contains(0, 0));
+            assertTrue(first.contains(0, 1499));
+            assertTrue(first.contains(999, 0));
+            assertFalse(first.contains(1000, 0));
+            assertEquals(2000, second.size());
+        }
+    }
+
+    @Test
+    void offHeapSetTakesItsMemoryFromTheLease() throws Exception {
+        // Given: a budget of 4 MB, a job reserves 1 MB of it
+        ContainerPool pool = new ContainerPool(4L << 20, 0);
+        try (ContainerPool.Lease lease = pool.reserve(ContainerType.ROARING, 1L << 20)) {
+            OffHeapInt128Set set = new OffHeapInt128Set(lease);
+            // When: the set grows
+            LongStream.range(0, 50_000).forEach(i -> set.add(i, i));
+            // Then
+            assertEquals(3 - (set.sizeInBytes() + (1 << 20) - 1 >> 20), pool.availableMegabytes());
+            // When: the set outgrows the budget
+            assertThrows(IllegalStateException.class, () -> LongStream.range(0, 1_000_000).forEach(i -> set.add(i, i)));
+            assertEquals(0, pool.availableMegabytes());
+            // Then: its memory is returned before the lease is closed
+            set.close();
+            assertEquals(0, set.sizeInBytes());
+            assertEquals(3, pool.availableMegabytes());
+        }
+        assertEquals(4, pool.availableMegabytes());
+    }
+
+    @Test
+    void poolReusesClearedBitmaps() throws Exception {
+        // Given
+        ContainerPool pool = new ContainerPool(ConcurrentBitmapContainer.BYTES, 1);
+        IntContainer first;
+        try (ContainerPool.Lease lease = pool.reserve(ContainerType.CONCURRENT, ConcurrentBitmapContainer.BYTES)) {
+            first = lease.acquire(ConcurrentBitmapContainer::new);
+            IntStream.range(0, 1000).forEach(first::add);
+            assertEquals(0, pool.availableMegabytes());
+        }
+        // When
+        IntContainer second;
+        try (ContainerPool.Lease lease = pool.reserve(ContainerType.CONCURRENT, ConcurrentBitmapContainer.BYTES)) {
+            second = lease.acquire(() -> fail("the idle bitmap must be reused"));
+            // Then
+            assertSame(first, second);
+            assertEquals(0, second.countDistinct());
+        }
+        assertEquals(1, pool.idleCount());
+        // the idle bitmap keeps its memory until it is evicted
+        assertEquals(0, pool.availableMegabytes());
+        pool.evictIdle();
+        assertEquals(0, pool.idleCount());
+        assertEquals(512, pool.availableMegabytes());
+        assertThrows(IllegalArgumentException.class,
+                () -> pool.reserve(ContainerType.BITSET, 2 * ConcurrentBitmapContainer.BYTES));
+    }
+
+    @Test
+    void poolBudgetMakesJobsWaitAndEvictsIdleContainers() throws Exception {
+        // Given: the budget fits one bitmap, which is idle after the first job
+        ContainerPool pool = new ContainerPool(ConcurrentBitmapContainer.BYTES, 1);
+        try (ContainerPool.Lease lease = pool.reserve(ContainerType.CONCURRENT, ConcurrentBitmapContainer.BYTES)) {
+            lease.acquire(ConcurrentBitmapContainer::new);
+        }
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // When: a job of another type needs the memory of the idle bitmap
+            ContainerPool.Lease roaring = pool.reserve(ContainerType.ROARING, 300L << 20);
+            assertEquals(0, pool.idleCount());
+            assertEquals(212, pool.availableMegabytes());
+            // Then: the next job waits for the running one
+            Future<ContainerPool.Lease> waiting = executor.submit(() -> pool.reserve(ContainerType.HLL, 300L << 20));
+            assertThrows(TimeoutException.class, () -> waiting.get(300, TimeUnit.MILLISECONDS));
+            roaring.close();
+            waiting.get(10, TimeUnit.SECONDS).close();
+            assertEquals(512, pool.availableMegabytes());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void poolKeepsIdleContainersWhileJobsWaitForRunningOnes() throws Exception {
+        // Given: one idle bitmap and a running job which leave 112 MB of the budget
+        ContainerPool pool = new ContainerPool(2 * ConcurrentBitmapContainer.BYTES, 1);
+        try (ContainerPool.Lease lease = pool.reserve(ContainerType.CONCURRENT, ConcurrentBitmapContainer.BYTES)) {
+            lease.acquire(ConcurrentBitmapContainer::new);
+        }
+        ContainerPool.Lease roaring = pool.reserve(ContainerType.ROARING, 400L << 20);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // When: a job needs more than the free memory and the idle bitmap together
+            Future<ContainerPool.Lease> waiting = executor.submit(() -> pool.reserve(ContainerType.HLL, 700L << 20));
+            // Then: it waits for the running job and keeps the warm bitmap
+            assertThrows(TimeoutException.class, () -> waiting.get(300, TimeUnit.MILLISECONDS));
+            assertEquals(1, pool.idleCount());
+            // the bitmap is evicted once its memory lets the job through
+            roaring.close();
+            waiting.get(10, TimeUnit.SECONDS).close();
+            assertEquals(0, pool.idleCount());
+            assertEquals(1024, pool.availableMegabytes());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
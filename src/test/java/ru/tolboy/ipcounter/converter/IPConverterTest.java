@@ -0,0 +1,121 @@
+package ru.tolboy.ipcounter.converter;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IPConverterTest {
+
+    @Test
+    void applyAsIntParsesValidAddresses() {
+        IPConverter converter = new IPConverter();
+
+        assertEquals(0, converter.applyAsInt("0.0.0.0"));
+        assertEquals(-1, converter.applyAsInt("255.255.255.255"));
+        assertEquals(0x0A000001, converter.applyAsInt("10.0.0.1"));
+        assertEquals(0xC0A80101, converter.applyAsInt("192.168.1.1"));
+    }
+
+    @Test
+    void applyAsIntRejectsEveryInvalidOctet() {
+        IPConverter converter = new IPConverter();
+
+        for (String invalid : List.of("256.0.0.1", "1.256.0.1", "1.0.256.1", "1.0.0.256", "1..0.1", ".1.2.3",
+                "1.2.3.", "1.2.3", "1.2.3.4.5", "1.2.3.4a", "", "0001.2.3.4", "99999999999.1.1.1")) {
+            assertThrows(IllegalArgumentException.class, () -> converter.applyAsInt(invalid), invalid);
+            assertEquals(IPConverter.INVALID, IPConverter.parse(invalid), invalid);
+            byte[] bytes = invalid.getBytes(StandardCharsets.US_ASCII);
+            assertEquals(IPConverter.INVALID, IPConverter.parse(bytes, 0, bytes.length), invalid);
+        }
+    }
+
+    @Test
+    void parseReadsBufferRange() {
+        byte[] bytes = "xx172.16.254.3yy".getBytes(StandardCharsets.US_ASCII);
+
+        assertEquals(0xAC10FE03L, IPConverter.parse(bytes, 2, 14));
+    }
+
+    @Test
+    void parseLinesCountsMalformedLinesInsteadOfThrowing() {
+        // Given
+        String text = "1.2.3.4\nbad line\r\n10.0.0.1\r\n\n300.1.1.1\n8.8.8.8";
+        List<Integer> parsed = new ArrayList<>();
+        ParseStats stats = new ParseStats();
+        // When: both byte orders are checked, they affect the line feed search
+        for (ByteOrder order : List.of(ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN)) {
+            ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII)).order(order);
+            IPConverter.parseLines(buffer, 0, buffer.limit(), parsed::add, stats);
+        }
+        // Then
+        assertEquals(List.of(0x01020304, 0x0A000001, 0x08080808, 0x01020304, 0x0A000001, 0x08080808), parsed);
+        assertEquals(12, stats.getLines());
+        assertEquals(6, stats.getMalformed());
+    }
+
+    @Test
+    void ipv6ParsesEveryForm() {
+        long[] result = new long[2];
+
+        assertTrue(IPv6Converter.parse("2001:0db8:85a3:0000:0000:8a2e:0370:7334", result));
+        assertArrayEquals(new long[]{0x20010DB885A30000L, 0x00008A2E03707334L}, result);
+        assertTrue(IPv6Converter.parse("2001:db8:85a3::8a2e:370:7334", result));
+        assertArrayEquals(new long[]{0x20010DB885A30000L, 0x00008A2E03707334L}, result);
+        assertTrue(IPv6Converter.parse("::", result));
+        assertArrayEquals(new long[]{0, 0}, result);
+        assertTrue(IPv6Converter.parse("::1", result));
+        assertArrayEquals(new long[]{0, 1}, result);
+        assertTrue(IPv6Converter.parse("fe80::", result));
+        assertArrayEquals(new long[]{0xFE80000000000000L, 0}, result);
+        assertTrue(IPv6Converter.parse("1:2:3:4::6:7:8", result));
+        assertArrayEquals(new long[]{0x0001000200030004L, 0x0000000600070008L}, result);
+        assertTrue(IPv6Converter.parse("1::5:6:7:8", result));
+        assertArrayEquals(new long[]{0x0001000000000000L, 0x0005000600070008L}, result);
+        assertTrue(IPv6Converter.parse("FFFF:ffff:FFFF:ffff:FFFF:ffff:FFFF:ffff", result));
+        assertArrayEquals(new long[]{-1, -1}, result);
+        assertTrue(IPv6Converter.parse("::ffff:10.0.0.1", result));
+        assertArrayEquals(new long[]{0, 0x0000FFFF0A000001L}, result);
+        assertTrue(IPv6Converter.parse("64:ff9b:1:2:3:4:192.168.1.1", result));
+        assertArrayEquals(new long[]{0x0064FF9B00010002L, 0x00030004C0A80101L}, result);
+    }
+
+    @Test
+    void ipv6RejectsInvalidForms() {
+        long[] result = new long[2];
+
+        for (String invalid : List.of("", ":", ":::", "1:2:3:4:5:6:7", "1:2:3:4:5:6:7:8:9", "1::2::3", "12345::",
+                "1:2:3:4:5:6:7:8::", "::1:2:3:4:5:6:7:8", ":1::", "1::2:", "g::", "fe80::1%eth0", "[::1]",
+                "::ffff:300.0.0.1", "1:2:3:4:5:6:7:1.2.3.4", "1.2.3.4::", "1:2:3:4:5:6:1.2.3.4:5", "::\u00e9")) {
+            assertFalse(IPv6Converter.parse(invalid, result), invalid);
+        }
+    }
+
+    @Test
+    void parseLinesSplitsIpv4AndIpv6Addresses() {
+        // Given
+        byte[] text = "1.2.3.4\n::1\r\nbad line\n2001:db8::1\n10.0.0.1\n::1\n::\n1::2::3"
+                .getBytes(StandardCharsets.US_ASCII);
+        List<Integer> ipv4 = new ArrayList<>();
+        List<String> ipv6 = new ArrayList<>();
+        ParseStats stats = new ParseStats();
+        ParseStats ipv4Stats = new ParseStats();
+        // When
+        IPConverter.parseLines(text, 0, text.length, ipv4::add, (high, low) -> ipv6.add(high + ":" + low), stats);
+        IPConverter.parseLines(text, 0, text.length, ip -> { }, ipv4Stats);
+        // Then
+        assertEquals(List.of(0x01020304, 0x0A000001), ipv4);
+        assertEquals(List.of("0:1", 0x20010DB800000000L + ":1", "0:1", "0:0"), ipv6);
+        assertEquals(8, stats.getLines());
+        assertEquals(4, stats.getIpv6());
+        assertEquals(2, stats.getMalformed());
+        assertEquals(8, ipv4Stats.getLines());
+        assertEquals(0, ipv4Stats.getIpv6());
+        assertEquals(6, ipv4Stats.getMalformed());
+    }
+}
@@ -0,0 +1,73 @@
+package ru.tolboy.ipcounter.generator;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.tolboy.ipcounter.container.IntContainer;
+import ru.tolboy.ipcounter.container.OffHeapInt128Set;
+import ru.tolboy.ipcounter.container.RoaringContainer;
+import ru.tolboy.ipcounter.converter.ParseStats;
+import ru.tolboy.ipcounter.metrics.ScanMetrics;
+import ru.tolboy.ipcounter.scanner.MappedChunkScanner;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.BitSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DatasetGeneratorTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void countersReportTheExpectedCounts() throws IOException {
+        // Given: blocks are written by many threads, duplicates are skewed
+        Path file = directory.resolve("ips.txt");
+        DatasetGenerator generator = new DatasetGenerator(700_000, 0.6, 0.1, 0.01, 3, 7, 4);
+        // When
+        DatasetGenerator.Result expected = generator.generate(file);
+        IntContainer container = new RoaringContainer();
+        ParseStats stats;
+        long ipv6Distinct;
+        try (OffHeapInt128Set ipv6 = new OffHeapInt128Set()) {
+            stats = new MappedChunkScanner(4, RoaringContainer::new, new ScanMetrics(), ipv6).scan(file, container);
+            ipv6Distinct = ipv6.size();
+        }
+        // Then
+        assertEquals(7000, expected.getMalformed());
+        assertEquals(Math.round(693_000 * 0.6), expected.getDistinct());
+        assertEquals(Files.size(file), expected.getBytes());
+        assertEquals(expected.getLines(), stats.getLines());
+        assertEquals(expected.getMalformed(), stats.getMalformed());
+        assertEquals(expected.getIpv6Lines(), stats.getIpv6());
+        assertEquals(expected.getIpv4Distinct(), container.countDistinct());
+        assertEquals(expected.getIpv6Distinct(), ipv6Distinct);
+    }
+
+    @Test
+    void equalSeedsGiveEqualFilesOnOneThread() throws IOException {
+        Path first = directory.resolve("first.txt");
+        Path second = directory.resolve("second.txt");
+
+        new DatasetGenerator(300_000, 0.5, 0.5, 0.1, 1, 11, 1).generate(first);
+        new DatasetGenerator(300_000, 0.5, 0.5, 0.1, 1, 11, 1).generate(second);
+
+        assertEquals(-1, Files.mismatch(first, second));
+    }
+
+    @Test
+    void permuteIsBijective() {
+        for (int bits : new int[]{0, 1, 2, 5, 16}) {
+            BitSet seen = new BitSet();
+            for (long value = 0; value < 1L << bits; value++) {
+                long permuted = DatasetGenerator.permute(value, bits, 0x5DEECE66DL);
+                assertTrue(permuted < 1L << bits, "bits " + bits);
+                assertFalse(seen.get((int) permuted), "bits " + bits);
+                seen.set((int) permuted);
+            }
+        }
+        assertThrows(IllegalArgumentException.class, () -> new DatasetGenerator(5L << 32, 1, 0, 0, 1, 0, 1));
+    }
+}
@@ -0,0 +1,198 @@
+package ru.tolboy.ipcounter.scanner;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.tolboy.ipcounter.container.IntContainer;
+import ru.tolboy.ipcounter.container.OffHeapInt128Set;
+import ru.tolboy.ipcounter.container.RoaringContainer;
+import ru.tolboy.ipcounter.container.SpillingContainer;
+import ru.tolboy.ipcounter.converter.ParseStats;
+import ru.tolboy.ipcounter.metrics.ScanMetrics;
+import ru.tolboy.ipcounter.metrics.ScanStage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedChunkScannerTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void chunksOfAnySizeGiveTheSameResultAsLines() throws IOException {
+        // Given
+        Path file = writeAddresses(directory.resolve("ips.txt"), 20_000);
+        IntContainer expected = new RoaringContainer();
+        ScanMetrics lineMetrics = new ScanMetrics();
+        ParseStats expectedStats = new LineStreamScanner(lineMetrics).scan(file, expected);
+        // When: chunk boundaries fall everywhere, including inside and right after lines
+        for (long chunkSize : new long[]{1, 7, 13, 4096, 1 << 20}) {
+            IntContainer container = new RoaringContainer();
+            ScanMetrics metrics = new ScanMetrics();
+            ParseStats stats = new MappedChunkScanner(3, chunkSize, RoaringContainer::new, metrics, null)
+                    .scan(file, container);
+            // Then
+            assertEquals(expected.countDistinct(), container.countDistinct(), "chunk size " + chunkSize);
+            assertEquals(expectedStats.getLines(), stats.getLines(), "chunk size " + chunkSize);
+            assertEquals(expectedStats.getMalformed(), stats.getMalformed(), "chunk size " + chunkSize);
+            assertEquals(Files.size(file), metrics.getBytes(), "chunk size " + chunkSize);
+            assertEquals(stats.getLines(), metrics.getLines(), "chunk size " + chunkSize);
+            assertEquals(stats.getMalformed(), metrics.getMalformed(), "chunk size " + chunkSize);
+        }
+        assertEquals(20_000, expectedStats.getLines());
+        assertTrue(expectedStats.getMalformed() > 0);
+        assertEquals(expectedStats.getLines(), lineMetrics.getLines());
+        assertEquals(expectedStats.getMalformed(), lineMetrics.getMalformed());
+        assertTrue(lineMetrics.getNanos(ScanStage.PARSE) > 0);
+    }
+
+    @Test
+    void mixedFileCountsIpv4AndIpv6Apart() throws IOException {
+        // Given: every fifth line is an IPv6 address, the same addresses are written compressed and in full
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 10_000; i++) {
+            if (i % 5 == 0) {
+                String group = Integer.toHexString(i % 1000);
+                text.append(i / 1000 % 2 == 0 ? "2001:db8::" + group : "2001:db8:0:0:0:0:0:" + group);
+            } else {
+                text.append("10.0.").append(i / 256 % 16).append('.').append(i % 256);
+            }
+            text.append('\n');
+        }
+        Path file = Files.writeString(directory.resolve("mixed.txt"), text.append("::1:2::\n"));
+        List<Function<OffHeapInt128Set, IPScanner>> scanners = List.of(
+                ipv6 -> new LineStreamScanner(new ScanMetrics(), ipv6),
+                ipv6 -> new MappedChunkScanner(3, 1000, RoaringContainer::new, new ScanMetrics(), ipv6),
+                ipv6 -> new PipelinedScanner(3, 1000, RoaringContainer::new, new ScanMetrics(), ipv6));
+        for (Function<OffHeapInt128Set, IPScanner> factory : scanners) {
+            try (OffHeapInt128Set ipv6 = new OffHeapInt128Set()) {
+                IPScanner scanner = factory.apply(ipv6);
+                IntContainer container = new RoaringContainer();
+                // When
+                ParseStats stats = scanner.scan(file, container);
+                // Then
+                String name = scanner.getClass().getSimpleName();
+                assertEquals(4096, container.countDistinct(), name);
+                assertEquals(200, ipv6.size(), name);
+                assertEquals(10_001, stats.getLines(), name);
+                assertEquals(2000, stats.getIpv6(), name);
+                assertEquals(1, stats.getMalformed(), name);
+            }
+        }
+    }
+
+    @Test
+    void fixedSizeTargetIsSharedByWorkers() throws IOException {
+        // Given: a target which must not be copied per worker, its factory fails
+        Path file = writeAddresses(directory.resolve("ips.txt"), 20_000);
+        IntContainer expected = new RoaringContainer();
+        new LineStreamScanner().scan(file, expected);
+        Supplier<IntContainer> noCopies = () -> fail("A fixed-size container is allocated per worker");
+        List<IPScanner> scanners = List.of(
+                new MappedChunkScanner(4, 4096, noCopies, new ScanMetrics(), null),
+                new PipelinedScanner(4, 4096, noCopies, new ScanMetrics(), null));
+        for (IPScanner scanner : scanners) {
+            FixedSizeContainer target = new FixedSizeContainer();
+            // When
+            ParseStats stats = scanner.scan(file, target);
+            // Then
+            String name = scanner.getClass().getSimpleName();
+            assertEquals(expected.countDistinct(), target.countDistinct(), name);
+            assertEquals(20_000, stats.getLines(), name);
+        }
+    }
+
+    @Test
+    void workerSpillFilesAreDeletedWhenScanFails() throws IOException {
+        // Given: addresses of one partition, so worker containers spill, and a target which fails
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100_000; i++) {
+            text.append("10.").append(i >>> 16).append('.').append(i >>> 8 & 0xFF).append('.').append(i & 0xFF)
+                    .append('\n');
+        }
+        Path file = Files.writeString(directory.resolve("ips.txt"), text);
+        Path spills = Files.createDirectory(directory.resolve("spills"));
+        List<IPScanner> scanners = List.of(
+                new MappedChunkScanner(3, 4096, () -> new SpillingContainer(4 << 20, spills), new ScanMetrics(), null),
+                new PipelinedScanner(3, 4096, () -> new SpillingContainer(4 << 20, spills), new ScanMetrics(), null));
+        for (IPScanner scanner : scanners) {
+            IntContainer target = new SpillingContainer(4 << 20, spills) {
+                private int added;
+
+                @Override
+                public void add(int number) {
+                    if (++added > 20_000) {
+                        throw new IllegalStateException("Target is full");
+                    }
+                    super.add(number);
+                }
+            };
+            // When
+            assertThrows(RuntimeException.class, () -> scanner.scan(file, target));
+            // Then: only the files of the target remain until it is closed
+            ((SpillingContainer) target).close();
+            try (Stream<Path> files = Files.list(spills)) {
+                assertEquals(List.of(), files.collect(Collectors.toList()), scanner.getClass().getSimpleName());
+            }
+        }
+    }
+
+    @Test
+    void emptyFileHasNoAddresses() throws IOException {
+        Path file = Files.createFile(directory.resolve("empty.txt"));
+        IntContainer container = new RoaringContainer();
+
+        ParseStats stats = new MappedChunkScanner(2, RoaringContainer::new).scan(file, container);
+
+        assertEquals(0, container.countDistinct());
+        assertEquals(0, stats.getLines());
+    }
+
+    /**
+     * Not thread-safe container which declares a fixed size, it fails if two threads add numbers at once
+     */
+    private static class FixedSizeContainer extends RoaringContainer {
+        private final AtomicBoolean adding = new AtomicBoolean();
+
+        @Override
+        public void add(int number) {
+            assertTrue(adding.compareAndSet(false, true), "Numbers are added concurrently");
+            super.add(number);
+            adding.set(false);
+        }
+
+        @Override
+        public boolean isFixedSize() {
+            return true;
+        }
+    }
+
+    private static Path writeAddresses(Path file, int lines) throws IOException {
+        Random random = new Random(7);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            if (i % 100 == 0) {
+                text.append("not an ip");
+            } else {
+                text.append(random.nextInt(256)).append('.').append(random.nextInt(4)).append('.')
+                        .append(random.nextInt(256)).append('.').append(random.nextInt(256));
+            }
+            // the last line has no line feed, some lines end with CRLF
+            if (i < lines - 1) {
+                text.append(i % 3 == 0 ? "\r\n" : "\n");
+            }
+        }
+        return Files.writeString(file, text, StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,85 @@
+package ru.tolboy.ipcounter.scanner;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.tolboy.ipcounter.container.ConcurrentBitmapContainer;
+import ru.tolboy.ipcounter.container.IntContainer;
+import ru.tolboy.ipcounter.container.RoaringContainer;
+import ru.tolboy.ipcounter.converter.ParseStats;
+import ru.tolboy.ipcounter.metrics.ScanMetrics;
+import ru.tolboy.ipcounter.metrics.ScanStage;
+import ru.tolboy.ipcounter.metrics.ScanSummary;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PipelinedScannerTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void plainAndCompressedFilesFeedOneContainer() throws IOException {
+        // Given: 10.0.0.0 - 10.0.0.199 in the plain file and 10.0.0.100 - 10.0.0.299 in the compressed one
+        write(directory.resolve("logs/a.txt"), 0, 200, false);
+        write(directory.resolve("logs/b.txt.gz"), 100, 300, true);
+        Files.writeString(directory.resolve("logs/c.txt"), "broken\n10.0.0.1", StandardCharsets.US_ASCII);
+        List<Path> files = InputFiles.resolve(List.of(directory.resolve("logs")));
+        long storedBytes = 0;
+        for (Path file : files) {
+            storedBytes += Files.size(file);
+        }
+        // When: blocks are much smaller than files, so lines are carried over between blocks
+        for (IntContainer container : List.of(new RoaringContainer(), new ConcurrentBitmapContainer())) {
+            ScanMetrics metrics = new ScanMetrics();
+            ParseStats stats = new PipelinedScanner(3, 64, RoaringContainer::new, metrics, null)
+                    .scanAll(files, container);
+            // Then
+            assertEquals(300, container.countDistinct());
+            assertEquals(402, stats.getLines());
+            assertEquals(1, stats.getMalformed());
+            assertEquals(storedBytes, metrics.getBytes());
+            assertEquals(402, metrics.getLines());
+            assertEquals(1, metrics.getMalformed());
+            assertTrue(metrics.getNanos(ScanStage.READ) > 0);
+            assertTrue(metrics.getNanos(ScanStage.PARSE) > 0);
+            String summary = ScanSummary.of(metrics).put("mode", "pipe\"line").toJson();
+            assertTrue(summary.startsWith("{\"elapsedMillis\":"), summary);
+            assertTrue(summary.contains("\"lines\":402,\"malformed\":1,"), summary);
+            assertTrue(summary.endsWith(",\"mode\":\"pipe\\\"line\"}"), summary);
+        }
+    }
+
+    @Test
+    void globsAreResolvedInNameOrder() throws IOException {
+        write(directory.resolve("2.log.gz"), 0, 1, true);
+        write(directory.resolve("1.log"), 0, 1, false);
+        write(directory.resolve("other.txt"), 0, 1, false);
+
+        List<Path> files = InputFiles.resolve(List.of(directory.resolve("*.log*")));
+
+        assertEquals(List.of("1.log", "2.log.gz"), files.stream().map(file -> file.getFileName().toString())
+                .collect(Collectors.toList()));
+        assertThrows(IOException.class, () -> InputFiles.resolve(List.of(directory.resolve("*.csv"))));
+    }
+
+    private static void write(Path file, int from, int to, boolean compressed) throws IOException {
+        Files.createDirectories(file.getParent());
+        StringBuilder text = new StringBuilder();
+        for (int i = from; i < to; i++) {
+            text.append("10.0.").append(i / 256).append('.').append(i % 256).append('\n');
+        }
+        try (OutputStream output = compressed
+                ? new GZIPOutputStream(Files.newOutputStream(file)) : Files.newOutputStream(file)) {
+            output.write(text.toString().getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+}